@@ -25,13 +25,13 @@ import gnu.io.*;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
-import javafx.scene.control.ButtonType;
 import javafx.stage.Stage;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.grabber.GStreamerGrabber;
+import org.dpsoftware.grabber.FrameRateController;
+import org.dpsoftware.grabber.FrameSource;
 import org.dpsoftware.grabber.ImageProcessor;
 import org.dpsoftware.gui.GUIManager;
 import org.dpsoftware.gui.SettingsController;
@@ -41,11 +41,9 @@ import org.dpsoftware.managers.PipelineManager;
 import org.dpsoftware.managers.StorageManager;
 import org.dpsoftware.managers.UpgradeManager;
 import org.dpsoftware.managers.dto.MqttFramerateDto;
+import org.dpsoftware.output.OutputFanOut;
 import org.dpsoftware.utilities.CommonUtility;
 import org.dpsoftware.utilities.PropertiesLoader;
-import org.freedesktop.gstreamer.Bin;
-import org.freedesktop.gstreamer.Gst;
-import org.freedesktop.gstreamer.Pipeline;
 
 import javax.swing.*;
 import java.awt.*;
@@ -54,11 +52,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
-import java.util.List;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -81,6 +78,11 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     public static float FPS_CONSUMER = 0;
     public static float FPS_PRODUCER = 0;
     public static float FPS_GW_CONSUMER = 0;
+    // Frames dropped between producers and consumer, total since start and frames per second in the last 5 seconds
+    public static final AtomicLong DROPPED_FRAMES_COUNTER = new AtomicLong();
+    public static float DROPPED_FRAMES = 0;
+    // Frames discarded by the consumer because older than the last frame sent
+    public static final AtomicLong OUT_OF_ORDER_FRAMES_COUNTER = new AtomicLong();
     public static SimpleDateFormat formatter;
     // Serial output stream
     public static SerialPort serial;
@@ -90,28 +92,35 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     public static Configuration config;
     // Start and Stop threads
     public static boolean RUNNING = false;
-    // This queue orders elements FIFO. Producer offers some data, consumer throws data to the Serial port
-    public static BlockingQueue<Color[]> sharedQueue;
+    // This queue orders elements FIFO. Producer offers some data, consumer throws data to the Serial port.
+    // When latestFrameOnly is set it is a mailbox where producers overwrite stale frames.
+    public static BlockingQueue<LEDFrame> sharedQueue;
     // Image processing
     ImageProcessor imageProcessor;
     // Number of LEDs on the strip
     public static int ledNumber;
     public static int ledNumHighLowCount;
     public static int ledNumHighLowCountSecondPart;
-    // GStreamer Rendering pipeline
-    public static Pipeline pipe;
+    // Screen capture backend in use
+    public static FrameSource frameSource;
     public static GUIManager guiManager;
     public static boolean communicationError = false;
     public static boolean serialConnected = false;
     private static Color colorInUse;
+    // Every frame is sent to all the output sinks in use, in parallel
+    private static OutputFanOut outputFanOut;
+    // Serial writes run on a dedicated thread, a stalled device never blocks the consumer
+    private static SerialWriter serialWriter;
     public static int usbBrightness = 255;
     public static int gpio = 0; // 0 means not set, firmware discards this value
     public static int baudRate = 0;
     public static int whiteTemperature = 0;
     public static int fireflyEffect = 0;
+    // Protocol extensions announced by the firmware, bitmask of SERIAL_CAPABILITY_*
+    public static volatile int serialCapabilities = 0;
 
     // MQTT
-    MQTTManager mqttManager = null;
+    static MQTTManager mqttManager = null;
     public static String version = "";
     public static String minimumFirmwareVersion = "";
 
@@ -132,7 +141,11 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
             log.error("Please configure the app.");
             FireflyLuciferin.exit();
         }
-        sharedQueue = new LinkedBlockingQueue<>(config.getLedMatrixInUse(ledMatrixInUse).size() * 30);
+        if (config.isLatestFrameOnly()) {
+            sharedQueue = new LatestFrameMailbox(config.getLatestFrameSlots());
+        } else {
+            sharedQueue = new ArrayBlockingQueue<>(config.getLedMatrixInUse(ledMatrixInUse).size() * 30);
+        }
         imageProcessor = new ImageProcessor();
         ledNumber = config.getLedMatrixInUse(ledMatrixInUse).size();
         ledNumHighLowCount = ledNumber > Constants.SERIAL_CHUNK_SIZE ? Constants.SERIAL_CHUNK_SIZE - 1 : ledNumber - 1;
@@ -146,6 +159,10 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
 
         initSerial();
         initOutputStream();
+        if (isSerialInUse()) {
+            serialWriter = new SerialWriter();
+        }
+        outputFanOut = new OutputFanOut(config);
         initThreadPool();
 
     }
@@ -172,20 +189,16 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
         }
         ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(threadPoolNumber);
 
-        // Desktop Duplication API producers
-        if ((config.getCaptureMethod().equals(Configuration.CaptureMethod.DDUPL.name()))
-                || (config.getCaptureMethod().equals(Configuration.CaptureMethod.XIMAGESRC.name()))
-                || (config.getCaptureMethod().equals(Configuration.CaptureMethod.AVFVIDEOSRC.name()))) {
-            launchDDUPLGrabber(scheduledExecutorService);
-        } else { // Standard Producers
-            launchStandardGrabber(scheduledExecutorService);
-        }
+        // Producers, one frame source for every capture method
+        frameSource = FrameSource.create(Configuration.CaptureMethod.valueOf(config.getCaptureMethod()), imageProcessor, executorNumber);
+        frameSource.start(scheduledExecutorService);
+        FrameRateController.start(scheduledExecutorService);
 
         // Run a very fast consumer
         CompletableFuture.supplyAsync(() -> {
             try {
                 consume();
-            } catch (InterruptedException | IOException e) {
+            } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
             return Constants.SOMETHING_WENT_WRONG;
@@ -242,82 +255,6 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
 
     }
 
-    /**
-     * Windows 8/10 Desktop Duplication API screen grabber (GStreamer)
-     * @param scheduledExecutorService executor service used to restart grabbing if it fails
-     */
-    void launchDDUPLGrabber(ScheduledExecutorService scheduledExecutorService) {
-
-        imageProcessor.initGStreamerLibraryPaths();
-        //System.setProperty("gstreamer.GNative.nameFormats", "%s-0|lib%s-0|%s|lib%s");
-        Gst.init(Constants.SCREEN_GRABBER, "");
-        AtomicInteger pipelineRetry = new AtomicInteger();
-
-        scheduledExecutorService.scheduleAtFixedRate(() -> {
-            if (!PipelineManager.pipelineStopping && RUNNING && FPS_PRODUCER_COUNTER == 0) {
-                pipelineRetry.getAndIncrement();
-                if (pipe == null || !pipe.isPlaying() || pipelineRetry.get() >= 2) {
-                    if (pipe != null) {
-                        log.debug("Restarting pipeline");
-                        pipe.stop();
-                    } else {
-                        log.debug("Starting a new pipeline");
-                    }
-                    GStreamerGrabber vc = new GStreamerGrabber();
-                    Bin bin;
-                    if (NativeExecutor.isWindows()) {
-                        bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_WINDOWS
-                                .replace("{0}", String.valueOf(FireflyLuciferin.config.getMonitorNumber() - 1)),true);
-                    } else if (NativeExecutor.isLinux()) {
-                        bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_LINUX
-                                .replace("{0}", String.valueOf(FireflyLuciferin.config.getMonitorNumber())),true);
-                    } else {
-                        bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_MAC,true);
-                    }
-                    pipe = new Pipeline();
-                    pipe.addMany(bin, vc.getElement());
-                    Pipeline.linkMany(bin, vc.getElement());
-                    JFrame f = new JFrame(Constants.SCREEN_GRABBER);
-                    f.add(vc);
-                    vc.setPreferredSize(new Dimension(config.getScreenResX(), config.getScreenResY()));
-                    f.pack();
-                    f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-                    pipe.play();
-                    f.setVisible(false);
-                }
-            } else {
-                pipelineRetry.set(0);
-            }
-        }, 1, 2, TimeUnit.SECONDS);
-
-    }
-
-    /**
-     * Producers for CPU and WinAPI capturing
-     * @param scheduledExecutorService executor service used to restart grabbing if it fails
-     * @throws AWTException GUI exception
-     */
-    void launchStandardGrabber(ScheduledExecutorService scheduledExecutorService) throws AWTException {
-
-        Robot robot = null;
-
-        for (int i = 0; i < executorNumber; i++) {
-            // One AWT Robot instance every 3 threads seems to be the sweet spot for performance/memory.
-            if (!(config.getCaptureMethod().equals(Configuration.CaptureMethod.WinAPI.name())) && i%3 == 0) {
-                robot = new Robot();
-                log.info(Constants.SPAWNING_ROBOTS);
-            }
-            Robot finalRobot = robot;
-            // No need for completablefuture here, we wrote the queue with a producer and we forget it
-            scheduledExecutorService.scheduleAtFixedRate(() -> {
-                if (RUNNING) {
-                    producerTask(finalRobot);
-                }
-            }, 0, 25, TimeUnit.MILLISECONDS);
-        }
-
-    }
-
     /**
      * Load config yaml and create a default config if not present
      */
@@ -356,25 +293,38 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     void getFPS() {
 
         AtomicInteger framerateAlert = new AtomicInteger();
-        AtomicBoolean notified = new AtomicBoolean(false);
         ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
 
+        AtomicLong lastDroppedFrames = new AtomicLong();
         // Create a task that runs every 5 seconds
         Runnable framerateTask = () -> {
+            long droppedFrames = DROPPED_FRAMES_COUNTER.get();
+            DROPPED_FRAMES = (droppedFrames - lastDroppedFrames.getAndSet(droppedFrames)) / 5F;
             if (FPS_PRODUCER_COUNTER > 0 || FPS_CONSUMER_COUNTER > 0) {
                 FPS_PRODUCER = FPS_PRODUCER_COUNTER / 5;
                 FPS_CONSUMER = FPS_CONSUMER_COUNTER / 5;
                 if (config.isExtendedLog()) {
-                    log.debug(" --* Producing @ " + FPS_PRODUCER + " FPS *-- " + " --* Consuming @ " + FPS_GW_CONSUMER + " FPS *-- ");
+                    log.debug(" --* Producing @ " + FPS_PRODUCER + " FPS *-- " + " --* Consuming @ " + FPS_GW_CONSUMER + " FPS *-- "
+                            + " --* Dropping @ " + DROPPED_FRAMES + " FPS (" + droppedFrames + " total) *-- "
+                            + " --* Out of order: " + OUT_OF_ORDER_FRAMES_COUNTER.get() + " total *-- ");
+                    log.debug(outputFanOut.report());
+                    if (serialWriter != null) {
+                        log.debug(serialWriter.report());
+                    }
+                    if (MQTTManager.streamPublisher != null) {
+                        log.debug(MQTTManager.streamPublisher.report());
+                    }
                 }
                 FPS_CONSUMER_COUNTER = FPS_PRODUCER_COUNTER = 0;
             } else {
                 FPS_PRODUCER = FPS_CONSUMER = 0;
             }
-            runBenchmark(framerateAlert, notified);
+            checkFirmwareResponding(framerateAlert);
             if (config.isMqttEnable()) {
                 MQTTManager.publishToTopic(MQTTManager.getMqttTopic(Constants.MQTT_FRAMERATE),
-                        CommonUtility.writeValueAsString(new MqttFramerateDto(String.valueOf(FPS_PRODUCER), String.valueOf(FPS_CONSUMER))));
+                        CommonUtility.writeValueAsString(new MqttFramerateDto(String.valueOf(FPS_PRODUCER), String.valueOf(FPS_CONSUMER),
+                                String.valueOf(DROPPED_FRAMES), String.valueOf(droppedFrames), String.valueOf(OUT_OF_ORDER_FRAMES_COUNTER.get()),
+                                String.valueOf(FrameRateController.getSerialMaxFramerate()), String.valueOf(FrameRateController.getSerialHeadroom()))));
             }
         };
         scheduledExecutorService.scheduleAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
@@ -384,65 +334,21 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
 
 
     /**
-     * Small benchmark to check if Glow Worm Luciferin firmware can keep up with Firefly Luciferin PC software
+     * Check if Glow Worm Luciferin firmware is still responding, restart it if not.
+     * Capture framerate follows the firmware framerate, see FrameRateController.
      * @param framerateAlert number of times Firefly was faster than Glow Worm
-     * @param notified don't alert user more than one time
      */
-    private void runBenchmark(AtomicInteger framerateAlert, AtomicBoolean notified) {
+    private void checkFirmwareResponding(AtomicInteger framerateAlert) {
 
-        if (!notified.get()) {
-            if ((FPS_PRODUCER > 0) && (framerateAlert.get() < Constants.NUMBER_OF_BENCHMARK_ITERATION)
-                    && (FPS_GW_CONSUMER < FPS_PRODUCER - Constants.BENCHMARK_ERROR_MARGIN)) {
-                framerateAlert.getAndIncrement();
-            } else {
-                framerateAlert.set(0);
-            }
-            if (FPS_GW_CONSUMER == 0 && framerateAlert.get() == 6 && config.isMqttEnable()) {
-                log.debug("Glow Worm Luciferin is not responding, restarting...");
-                NativeExecutor.restartNativeInstance();
-            }
-            if (framerateAlert.get() == Constants.NUMBER_OF_BENCHMARK_ITERATION && !notified.get() && FPS_GW_CONSUMER > 0) {
-                notified.set(true);
-                javafx.application.Platform.runLater(() -> {
-                    int suggestedFramerate;
-                    if (FPS_GW_CONSUMER > (60 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 60;
-                    } else if (FPS_GW_CONSUMER > (50 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 50;
-                    } else if (FPS_GW_CONSUMER > (40 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 40;
-                    } else if (FPS_GW_CONSUMER > (30 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 30;
-                    } else if (FPS_GW_CONSUMER > (25 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 25;
-                    } else if (FPS_GW_CONSUMER > (20 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 20;
-                    } else if (FPS_GW_CONSUMER > (15 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 15;
-                    } else if (FPS_GW_CONSUMER > (10 + Constants.BENCHMARK_ERROR_MARGIN)) {
-                        suggestedFramerate = 10;
-                    } else {
-                        suggestedFramerate = 5;
-                    }
-                    log.error(Constants.FRAMERATE_HEADER + ". " + Constants.FRAMERATE_CONTEXT.replace("{0}", String.valueOf(suggestedFramerate)));
-                    if (config.isSyncCheck()) {
-                        Optional<ButtonType> result = guiManager.showAlert(Constants.FRAMERATE_TITLE, Constants.FRAMERATE_HEADER,
-                                Constants.FRAMERATE_CONTEXT.replace("{0}", String.valueOf(suggestedFramerate)), Alert.AlertType.CONFIRMATION);
-                        ButtonType button = result.orElse(ButtonType.OK);
-                        if (button == ButtonType.OK) {
-                            try {
-                                StorageManager sm = new StorageManager();
-                                config.setDesiredFramerate(String.valueOf(suggestedFramerate));
-                                sm.writeConfig(config, null);
-                                SettingsController settingsController = new SettingsController();
-                                settingsController.exit(null);
-                            } catch (IOException ioException) {
-                                log.error("Can't write config file.");
-                            }
-                        }
-                    }
-                });
-            }
+        if ((FPS_PRODUCER > 0) && (framerateAlert.get() < Constants.NUMBER_OF_BENCHMARK_ITERATION)
+                && (FPS_GW_CONSUMER < FPS_PRODUCER - Constants.BENCHMARK_ERROR_MARGIN)) {
+            framerateAlert.getAndIncrement();
+        } else {
+            framerateAlert.set(0);
+        }
+        if (FPS_GW_CONSUMER == 0 && framerateAlert.get() == 6 && config.isMqttEnable()) {
+            log.debug("Glow Worm Luciferin is not responding, restarting...");
+            NativeExecutor.restartNativeInstance();
         }
 
     }
@@ -453,7 +359,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     private void initSerial() {
 
         CommPortIdentifier serialPortId = null;
-        if (!(config.isMqttEnable() && config.isMqttStream())) {
+        if (isSerialInUse()) {
             int numberOfSerialDevices = 0;
             var enumComm = CommPortIdentifier.getPortIdentifiers();
             while (enumComm.hasMoreElements()) {
@@ -487,6 +393,8 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                     if (FireflyLuciferin.guiManager != null) {
                         FireflyLuciferin.guiManager.resetTray();
                     }
+                    // Firmware announces its protocol extensions again after the connection
+                    serialCapabilities = 0;
                     serialConnected = true;
                     communicationError = false;
                     initOutputStream();
@@ -569,6 +477,8 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                                     glowWormDevice.setMac(inputLine.replace(Constants.SERIAL_MAC, ""));
                                 } else if (inputLine.contains(Constants.SERIAL_GPIO)) {
                                     glowWormDevice.setGpio(inputLine.replace(Constants.SERIAL_GPIO, ""));
+                                } else if (inputLine.contains(Constants.SERIAL_CAPABILITIES)) {
+                                    serialCapabilities = Integer.parseInt(inputLine.replace(Constants.SERIAL_CAPABILITIES, "").trim());
                                 } else if (inputLine.contains(Constants.SERIAL_FIRMWARE)) {
                                     glowWormDevice.setFirmwareType(inputLine.replace(Constants.SERIAL_FIRMWARE, ""));
                                 } else if (inputLine.contains(Constants.SERIAL_MQTTTOPIC)) {
@@ -602,7 +512,8 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
         int numberOfCPUThreads = config.getNumberOfCPUThreads();
         threadPoolNumber = numberOfCPUThreads * 2;
         if (numberOfCPUThreads > 1) {
-            if (!(config.getCaptureMethod().equals(Configuration.CaptureMethod.CPU.name()))) {
+            // Border strips capture is much lighter than a full screen capture, no need for extra producers
+            if (!(config.getCaptureMethod().equals(Configuration.CaptureMethod.CPU.name())) || config.isBorderStripsCapture()) {
                 executorNumber = numberOfCPUThreads;
             } else {
                 executorNumber = numberOfCPUThreads * 3;
@@ -618,7 +529,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
      */
     private void initOutputStream() {
 
-        if (!(config.isMqttEnable() && config.isMqttStream()) && !communicationError) {
+        if (isSerialInUse() && !communicationError) {
             try {
                 output = serial.getOutputStream();
             } catch (IOException | NullPointerException e) {
@@ -631,116 +542,42 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     }
 
     /**
-     * Write Serial Stream to the Serial Output
-     * using DPsoftware Checksum
-     * @param leds array of LEDs containing the average color to display on the LED
+     * Check if the serial port is one of the output sinks in use
+     * @return true if frames are sent via USB
      */
-    private void sendColors(Color[] leds) throws IOException {
+    private static boolean isSerialInUse() {
 
-        if (Constants.CLOCKWISE.equals(config.getOrientation())) {
-            Collections.reverse(Arrays.asList(leds));
-        }
-        if (config.getLedStartOffset() > 0) {
-            java.util.List<Color> tempList = new ArrayList<>();
-            java.util.List<Color> tempListHead = Arrays.asList(leds).subList(config.getLedStartOffset(), leds.length);
-            List<Color> tempListTail = Arrays.asList(leds).subList(0, config.getLedStartOffset());
-            tempList.addAll(tempListHead);
-            tempList.addAll(tempListTail);
-            leds = tempList.toArray(leds);
-        }
-        int i = 0;
-        if (config.isMqttEnable() && config.isMqttStream()) {
-            // Single part stream
-            if (ledNumber < Constants.FIRST_CHUNK || !Constants.JSON_STREAM) {
-                sendChunck(i, leds, 1);
-            } else { // Multi part stream
-                // First Chunk
-                i = sendChunck(i, leds, 1);
-                // Second Chunk
-                i = sendChunck(i, leds, 2);
-                // Third Chunk
-                if (i >= Constants.SECOND_CHUNK && i < Constants.THIRD_CHUNK) {
-                    i = sendChunck(i, leds, 3);
-                }
-                // Fourth Chunk
-                if (i >= Constants.THIRD_CHUNK && i < ledNumber) {
-                    sendChunck(i, leds, 4);
-                }
-            }
-        } else {
-            sendColorsViaUSB(leds);
-        }
-        FPS_CONSUMER_COUNTER++;
+        return OutputFanOut.getSinkTypes(config).contains(Constants.OutputSinkType.SERIAL);
 
     }
 
     /**
-     * Send single chunk to MQTT topic
-     * @param i index
-     * @param leds LEDs array to send
-     * @param chunkNumber chunk number
-     * @return index of the remaining leds to send
+     * Serial writer in use
+     * @return serial writer, null if the serial port is not one of the output sinks
      */
-    int sendChunck(int i, Color[] leds, int chunkNumber) {
-
-        int firstChunk = Constants.FIRST_CHUNK;
-        StringBuilder ledStr = new StringBuilder();
-        if (Constants.JSON_STREAM) {
-            ledStr.append("{" + Constants.LED_NUM).append(ledNumber).append(",");
-            ledStr.append("\"part\":").append(chunkNumber).append(",");
-            ledStr.append(Constants.STREAM);
-        } else {
-            ledStr.append(ledNumber).append(",");
-            firstChunk = Constants.MAX_CHUNK;
-        }
-        switch (chunkNumber) {
-            case 1:
-                // First chunk equals MAX_CHUNK when in byte array
-                while (i < firstChunk && i < ledNumber) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-            case 2:
-                while (i >= Constants.FIRST_CHUNK && i < Constants.SECOND_CHUNK && i < ledNumber) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-            case 3:
-                while (i >= Constants.SECOND_CHUNK && i < Constants.THIRD_CHUNK && i < ledNumber) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-            case 4:
-                while (i >= Constants.THIRD_CHUNK && i < ledNumber) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-        }
-        if (Constants.JSON_STREAM) {
-            ledStr.append(".");
-            MQTTManager.stream(ledStr.toString().replace(",.","") + "]}");
-        } else {
-            ledStr.append("0");
-            MQTTManager.stream(ledStr.toString());
-        }
-        return i;
+    public static SerialWriter getSerialWriter() {
+
+        return serialWriter;
 
     }
 
     /**
-     * Send color info via USB Serial
-     * @param leds array with colors
-     * @throws IOException can't write to serial
+     * Send the frame to every output sink in use, sinks send it on their own threads
+     * @param leds frame of LEDs containing the average color to display on the LED
      */
-    public static void sendColorsViaUSB(Color[] leds) throws IOException {
+    private void sendColors(LEDFrame leds) {
+
+        // Orientation and start offset are applied by the sinks through the LED output map
+        outputFanOut.publish(leds);
+        FPS_CONSUMER_COUNTER++;
+
+    }
+
+    /**
+     * Send color info via USB Serial, the frame is copied and written by the serial writer thread
+     * @param leds frame with colors, a single LED frame means solid color
+     */
+    public static synchronized void sendColorsViaUSB(LEDFrame leds) {
 
         if (!UpgradeManager.serialVersionOk) {
             UpgradeManager upgradeManager = new UpgradeManager();
@@ -752,81 +589,37 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 }
             }
         } else {
-            int i = 0, j = -1;
-            byte[] ledsArray = new byte[(ledNumber * 3) + 15];
-            // DPsoftware checksum
-            int ledsCountHi = ((ledNumHighLowCount) >> 8) & 0xff;
-            int ledsCountLo = (ledNumHighLowCount) & 0xff;
-            int loSecondPart = (ledNumHighLowCountSecondPart) & 0xff;
-            int brightnessToSend = (usbBrightness) & 0xff;
-            int gpioToSend = (gpio) & 0xff;
-            int baudRateToSend = (baudRate) & 0xff;
-            int whiteTempToSend = (whiteTemperature) & 0xff;
-            int fireflyEffectToSend = (fireflyEffect) & 0xff;
-
-            ledsArray[++j] = (byte) ('D');
-            ledsArray[++j] = (byte) ('P');
-            ledsArray[++j] = (byte) ('s');
-            ledsArray[++j] = (byte) ('o');
-            ledsArray[++j] = (byte) ('f');
-            ledsArray[++j] = (byte) ('t');
-            ledsArray[++j] = (byte) (ledsCountHi);
-            ledsArray[++j] = (byte) (ledsCountLo);
-            ledsArray[++j] = (byte) (loSecondPart);
-            ledsArray[++j] = (byte) (brightnessToSend);
-            ledsArray[++j] = (byte) (gpioToSend);
-            ledsArray[++j] = (byte) (baudRateToSend);
-            ledsArray[++j] = (byte) (whiteTempToSend);
-            ledsArray[++j] = (byte) (fireflyEffectToSend);
-            ledsArray[++j] = (byte) ((ledsCountHi ^ ledsCountLo ^ loSecondPart ^ brightnessToSend ^ gpioToSend ^ baudRateToSend ^ whiteTempToSend ^ fireflyEffectToSend ^ 0x55));
-
-            if (leds.length == 1) {
-                colorInUse = leds[0];
-                while (i < ledNumber) {
-                    ledsArray[++j] = (byte) leds[0].getRed();
-                    ledsArray[++j] = (byte) leds[0].getGreen();
-                    ledsArray[++j] = (byte) leds[0].getBlue();
-                    i++;
-                }
-            } else {
-                while (i < ledNumber) {
-                    ledsArray[++j] = (byte) leds[i].getRed();
-                    ledsArray[++j] = (byte) leds[i].getGreen();
-                    ledsArray[++j] = (byte) leds[i].getBlue();
-                    i++;
-                }
+            if (leds.getLedCount() == 1) {
+                colorInUse = new Color(leds.getRGB(0));
+            }
+            if (serialWriter != null) {
+                serialWriter.submit(leds);
             }
-            output.write(ledsArray);
         }
 
     }
 
-    /**
-     * Write Serial Stream to the Serial Output
-     *
-     * @param robot an AWT Robot instance for screen capture.
-     *              One instance every three threads seems to be the hot spot for performance.
-     */
-    private void producerTask(Robot robot) {
-
-        sharedQueue.offer(ImageProcessor.getColors(robot, null));
-        FPS_PRODUCER_COUNTER++;
-        //System.gc(); // uncomment when hammering the JVM
-
-    }
-
     /**
      * Fast consumer
      */
     @SuppressWarnings("InfiniteLoopStatement")
-    void consume() throws InterruptedException, IOException {
+    void consume() throws InterruptedException {
 
+        long lastSentSequence = 0;
         while (true) {
-            Color[] num = sharedQueue.take();
-            if (RUNNING) {
-                if (num.length == ledNumber) {
-                    sendColors(num);
+            LEDFrame num = sharedQueue.take();
+            try {
+                if (RUNNING) {
+                    // Parallel producers can finish out of order, never go back in time
+                    if (num.getSequence() <= lastSentSequence) {
+                        OUT_OF_ORDER_FRAMES_COUNTER.incrementAndGet();
+                    } else if (num.getLedCount() == ledNumber) {
+                        lastSentSequence = num.getSequence();
+                        sendColors(num);
+                    }
                 }
+            } finally {
+                num.release();
             }
         }
 
@@ -855,6 +648,12 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
      */
     public static void exit() {
 
+        if (outputFanOut != null) {
+            outputFanOut.close();
+        }
+        if (mqttManager != null) {
+            mqttManager.disconnect();
+        }
         if (FireflyLuciferin.serial != null) {
             FireflyLuciferin.serial.removeEventListener();
             FireflyLuciferin.serial.close();
@@ -873,18 +672,18 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
         scheduledExecutorService.scheduleAtFixedRate(() -> {
             if (!RUNNING) {
                 if (config.isToggleLed() && !config.isMqttEnable()) {
-                    Color[] colorToUse = new Color[1];
+                    LEDFrame colorToUse;
                     if (colorInUse == null) {
                         String[] color = org.dpsoftware.FireflyLuciferin.config.getColorChooser().split(",");
-                        colorToUse[0] = new Color(Integer.parseInt(color[0]), Integer.parseInt(color[1]), Integer.parseInt(color[2]));
+                        colorToUse = LEDFrame.solid(Integer.parseInt(color[0]), Integer.parseInt(color[1]), Integer.parseInt(color[2]));
                         usbBrightness = Integer.parseInt(color[3]);
                     } else {
-                        colorToUse[0] = colorInUse;
+                        colorToUse = LEDFrame.solid(colorInUse.getRed(), colorInUse.getGreen(), colorInUse.getBlue());
                     }
                     try {
                         sendColorsViaUSB(colorToUse);
-                    } catch (IOException e) {
-                        log.error(e.getMessage());
+                    } finally {
+                        colorToUse.release();
                     }
                 }
             }
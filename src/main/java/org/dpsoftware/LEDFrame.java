@@ -0,0 +1,215 @@
+/*
+  LEDFrame.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A frame of LED colors, every LED is packed as 0xRRGGBB inside a primitive int array.
+ * Frames are recycled through a small pool so the capture -> send pipeline doesn't allocate in steady state.
+ * The int array is never exposed, a pooled array must not outlive the frame that owns it.
+ */
+public class LEDFrame {
+
+    // Recycled frames, ArrayBlockingQueue does not allocate nodes on offer/poll
+    private static final BlockingQueue<LEDFrame> pool = new ArrayBlockingQueue<>(Constants.LED_FRAME_POOL_SIZE);
+    private static final AtomicLong sequenceGenerator = new AtomicLong();
+
+    private int[] rgb;
+    @Getter private int ledCount;
+    @Getter private long sequence;
+    // System.nanoTime() when the capture of this frame started
+    @Getter private long captureTime;
+    // True while the frame is in the pool
+    private boolean released;
+
+    /**
+     * Constructor
+     * @param ledCount number of LEDs in the frame
+     */
+    private LEDFrame(int ledCount) {
+
+        this.rgb = new int[ledCount];
+        this.ledCount = ledCount;
+
+    }
+
+    /**
+     * Get a frame from the pool, allocate a new one only if the pool is empty or frames are too small
+     * @param ledCount number of LEDs in the frame
+     * @return an empty frame stamped with a new sequence number and the current time
+     */
+    public static LEDFrame acquire(int ledCount) {
+
+        LEDFrame frame = pool.poll();
+        if (frame == null) {
+            frame = new LEDFrame(ledCount);
+        } else if (frame.rgb.length < ledCount) {
+            frame.rgb = new int[ledCount];
+        }
+        frame.released = false;
+        frame.ledCount = ledCount;
+        frame.sequence = nextSequence();
+        frame.captureTime = System.nanoTime();
+        return frame;
+
+    }
+
+    /**
+     * Get a new sequence number, call it when a capture starts so frames can be ordered by capture time
+     * @return sequence number, always greater than the previous one
+     */
+    public static long nextSequence() {
+
+        return sequenceGenerator.incrementAndGet();
+
+    }
+
+    /**
+     * Stamp the frame with the capture that produced it
+     * @param sequence sequence number taken when the capture started
+     * @param captureTime System.nanoTime() when the capture started
+     */
+    public void stamp(long sequence, long captureTime) {
+
+        this.sequence = sequence;
+        this.captureTime = captureTime;
+
+    }
+
+    /**
+     * Create a single LED frame, used for solid colors
+     * @param r red channel
+     * @param g green channel
+     * @param b blue channel
+     * @return single LED frame
+     */
+    public static LEDFrame solid(int r, int g, int b) {
+
+        LEDFrame frame = acquire(1);
+        frame.setRGB(0, r, g, b);
+        return frame;
+
+    }
+
+    /**
+     * Copy a frame, the copy keeps sequence number and capture time of the original frame
+     * @param frame frame to copy
+     * @return copy taken from the pool
+     */
+    public static LEDFrame copyOf(LEDFrame frame) {
+
+        LEDFrame copy = acquire(frame.ledCount);
+        System.arraycopy(frame.rgb, 0, copy.rgb, 0, frame.ledCount);
+        copy.stamp(frame.sequence, frame.captureTime);
+        return copy;
+
+    }
+
+    /**
+     * Give the frame back to the pool, if the pool is full the frame is left to the Garbage Collector.
+     * Releasing a frame twice would give its array to two owners, it fails fast.
+     */
+    public void release() {
+
+        if (released) {
+            throw new IllegalStateException(Constants.LED_FRAME_RELEASED_TWICE);
+        }
+        released = true;
+        pool.offer(this);
+
+    }
+
+    /**
+     * Set LED color
+     * @param index LED index, zero based
+     * @param r red channel
+     * @param g green channel
+     * @param b blue channel
+     */
+    public void setRGB(int index, int r, int g, int b) {
+
+        rgb[index] = ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+
+    }
+
+    /**
+     * Set LED color
+     * @param index LED index, zero based
+     * @param packedRgb color packed as 0xRRGGBB
+     */
+    public void setRGB(int index, int packedRgb) {
+
+        rgb[index] = packedRgb & 0xFFFFFF;
+
+    }
+
+    /**
+     * Get LED color
+     * @param index LED index, zero based
+     * @return color packed as 0xRRGGBB
+     */
+    public int getRGB(int index) {
+
+        return rgb[index];
+
+    }
+
+    /**
+     * Get LED red channel
+     * @param index LED index, zero based
+     * @return red channel, 0 to 255
+     */
+    public int getRed(int index) {
+
+        return (rgb[index] >> 16) & 0xFF;
+
+    }
+
+    /**
+     * Get LED green channel
+     * @param index LED index, zero based
+     * @return green channel, 0 to 255
+     */
+    public int getGreen(int index) {
+
+        return (rgb[index] >> 8) & 0xFF;
+
+    }
+
+    /**
+     * Get LED blue channel
+     * @param index LED index, zero based
+     * @return blue channel, 0 to 255
+     */
+    public int getBlue(int index) {
+
+        return rgb[index] & 0xFF;
+
+    }
+
+}
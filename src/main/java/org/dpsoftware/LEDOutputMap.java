@@ -0,0 +1,81 @@
+/*
+  LEDOutputMap.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+
+/**
+ * Precomputed LED output order, it maps the position on the physical strip to the LED index inside the frame.
+ * Strip orientation and LED start offset are resolved once, senders read frame.getRGB(map[i]) for every position
+ * so frames are never reordered.
+ */
+public class LEDOutputMap {
+
+    private static volatile LEDOutputMap current;
+
+    private final int ledCount;
+    private final boolean clockwise;
+    private final int ledStartOffset;
+    private final int[] map;
+
+    /**
+     * Constructor
+     * @param ledCount number of LEDs
+     * @param clockwise true if the strip is mounted clockwise
+     * @param ledStartOffset LED where the strip starts
+     */
+    private LEDOutputMap(int ledCount, boolean clockwise, int ledStartOffset) {
+
+        this.ledCount = ledCount;
+        this.clockwise = clockwise;
+        this.ledStartOffset = ledStartOffset;
+        this.map = new int[ledCount];
+        // Offsets bigger than the strip are ignored
+        int offset = (ledStartOffset > 0 && ledStartOffset < ledCount) ? ledStartOffset : 0;
+        for (int position = 0; position < ledCount; position++) {
+            int index = (position + offset) % ledCount;
+            // Clockwise strips are reversed before applying the start offset
+            map[position] = clockwise ? (ledCount - 1) - index : index;
+        }
+
+    }
+
+    /**
+     * Get the output map for the current configuration, it is rebuilt only if orientation, offset or LED number changed
+     * @param ledCount number of LEDs
+     * @return output map, position on the strip -> LED index inside the frame
+     */
+    public static int[] get(int ledCount) {
+
+        boolean clockwise = Constants.CLOCKWISE.equals(FireflyLuciferin.config.getOrientation());
+        int ledStartOffset = FireflyLuciferin.config.getLedStartOffset();
+        LEDOutputMap outputMap = current;
+        if (outputMap == null || outputMap.ledCount != ledCount || outputMap.clockwise != clockwise
+                || outputMap.ledStartOffset != ledStartOffset) {
+            outputMap = new LEDOutputMap(ledCount, clockwise, ledStartOffset);
+            current = outputMap;
+        }
+        return outputMap.map;
+
+    }
+
+}
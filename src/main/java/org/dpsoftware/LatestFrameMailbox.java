@@ -0,0 +1,62 @@
+/*
+  LatestFrameMailbox.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * "Latest wins" queue between producers and consumer, used when latency matters more than sending every frame.
+ * When the mailbox is full the oldest frame is overwritten, the consumer always gets one of the freshest frames.
+ * Overwritten frames are recycled and counted as dropped.
+ */
+public class LatestFrameMailbox extends ArrayBlockingQueue<LEDFrame> {
+
+    /**
+     * Constructor
+     * @param slots number of frames kept in the mailbox, one means the consumer gets only the last captured frame
+     */
+    public LatestFrameMailbox(int slots) {
+
+        super(Math.max(1, slots));
+
+    }
+
+    /**
+     * Put the frame in the mailbox, overwrite the oldest frame if the mailbox is full
+     * @param frame frame of LEDs
+     * @return always true, a new frame is never refused
+     */
+    @Override
+    public boolean offer(LEDFrame frame) {
+
+        while (!super.offer(frame)) {
+            LEDFrame stale = poll();
+            if (stale != null) {
+                stale.release();
+                FireflyLuciferin.DROPPED_FRAMES_COUNTER.incrementAndGet();
+            }
+        }
+        return true;
+
+    }
+
+}
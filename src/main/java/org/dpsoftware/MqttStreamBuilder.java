@@ -0,0 +1,125 @@
+/*
+  MqttStreamBuilder.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+
+import java.util.function.Consumer;
+
+/**
+ * Payloads for the MQTT stream topic, binary parts or the text stream understood by every firmware.
+ * Binary part buffers are reused between frames.
+ * A frame is split in as many parts as needed to keep every payload under mqttMaxPayload bytes.
+ * Part: binary stream marker, frame id, LED count hi, LED count lo, offset hi, offset lo, then RGB for the LEDs
+ * of the part following the LED output map. The LED count is the one of the whole frame, the offset is the first LED
+ * of the part, the receiver reassembles parts with the same frame id and discards incomplete frames.
+ * The marker is not a printable char so the firmware can tell it from the text stream that starts with the LED count.
+ */
+public class MqttStreamBuilder {
+
+    public static final int HEADER_SIZE = 6;
+    public static final byte BINARY_STREAM_MARKER = (byte) 0xD5;
+
+    private byte[][] parts = new byte[0][];
+    private int ledCount = -1;
+    private int maxPayload = -1;
+    private int frameId;
+    private final StringBuilder textStream = new StringBuilder();
+
+    /**
+     * Build the parts for a frame
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     * @return parts ready to be published in order, valid until the next call
+     */
+    public byte[][] build(LEDFrame leds, int ledNumber) {
+
+        int maxPayloadToUse = Math.max(HEADER_SIZE + 3, FireflyLuciferin.config.getMqttMaxPayload());
+        int ledsPerPart = (maxPayloadToUse - HEADER_SIZE) / 3;
+        if (ledNumber != ledCount || maxPayloadToUse != maxPayload) {
+            ledCount = ledNumber;
+            maxPayload = maxPayloadToUse;
+            parts = new byte[Math.max(1, (ledNumber + ledsPerPart - 1) / ledsPerPart)][];
+            for (int part = 0; part < parts.length; part++) {
+                int partLeds = Math.min(ledsPerPart, ledNumber - (part * ledsPerPart));
+                parts[part] = new byte[HEADER_SIZE + (Math.max(0, partLeds) * 3)];
+            }
+        }
+        frameId = (frameId + 1) & 0xFF;
+        int[] outputMap = LEDOutputMap.get(ledNumber);
+        int i = 0;
+        for (int part = 0; part < parts.length; part++) {
+            byte[] payload = parts[part];
+            int j = -1;
+            payload[++j] = BINARY_STREAM_MARKER;
+            payload[++j] = (byte) frameId;
+            payload[++j] = (byte) (ledNumber >> 8);
+            payload[++j] = (byte) ledNumber;
+            payload[++j] = (byte) (i >> 8);
+            payload[++j] = (byte) i;
+            while (j < payload.length - 1) {
+                int rgb = leds.getRGB(outputMap[i++]);
+                payload[++j] = (byte) (rgb >> 16);
+                payload[++j] = (byte) (rgb >> 8);
+                payload[++j] = (byte) rgb;
+            }
+        }
+        return parts;
+
+    }
+
+    /**
+     * Build the text stream for a frame, JSON stream is split in parts of FIRST_CHUNK LEDs,
+     * the plain text stream is a single part up to MAX_CHUNK LEDs: LED count, signed ARGB colors, then 0
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     * @param publisher called with every part, in order
+     */
+    public void buildText(LEDFrame leds, int ledNumber, Consumer<String> publisher) {
+
+        int[] outputMap = LEDOutputMap.get(ledNumber);
+        int ledsPerPart = Constants.JSON_STREAM ? Constants.FIRST_CHUNK : Constants.MAX_CHUNK;
+        int ledsToSend = Constants.JSON_STREAM ? ledNumber : Math.min(ledNumber, Constants.MAX_CHUNK);
+        int part = 1;
+        for (int offset = 0; offset < ledsToSend; offset += ledsPerPart) {
+            int end = Math.min(ledsToSend, offset + ledsPerPart);
+            textStream.setLength(0);
+            if (Constants.JSON_STREAM) {
+                textStream.append("{" + Constants.LED_NUM).append(ledNumber).append(",");
+                textStream.append("\"part\":").append(part++).append(",");
+                textStream.append(Constants.STREAM);
+            } else {
+                textStream.append(ledNumber).append(",");
+            }
+            for (int i = offset; i < end; i++) {
+                if (i > offset) {
+                    textStream.append(",");
+                }
+                textStream.append(leds.getRGB(outputMap[i]) | 0xFF000000);
+            }
+            textStream.append(Constants.JSON_STREAM ? "]}" : ",0");
+            publisher.accept(textStream.toString());
+        }
+
+    }
+
+}
@@ -0,0 +1,492 @@
+/*
+  SerialPacketBuilder.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.utilities.Crc16;
+
+/**
+ * Serial packet for Glow Worm Luciferin firmware, the packet buffer is reused between frames.
+ * The payload is filled following the LED output map. Nothing is allocated in steady state.
+ * Protocol v1: "DPsoft", LED count hi, LED count lo, second part lo, brightness, gpio, baud rate, white temperature,
+ * effect, DPsoftware checksum, then the payload. The header is rebuilt only when one of its fields changes.
+ * Protocol v2, used when the firmware supports it: "DPsoft", version, 16 bit LED count, flags, brightness, gpio,
+ * baud rate, white temperature, effect, 16 bit payload length, then the payload and a CRC16 over everything after the magic.
+ * v1 firmware never gets a v2 packet, v1 LED count hi is always 0 so a firmware can tell the versions apart.
+ * Payload is RGB for every LED. When delta encoding is negotiated a keyframe has the full payload while a delta frame
+ * has a 16 bit run count followed by runs of changed LEDs (16 bit start position, 8 bit length, colors for every LED
+ * in the run). Positions are on the physical strip.
+ * When a reduced color depth is negotiated colors are packed big endian: RGB565 uses 2 bytes for every LED,
+ * RGB444 uses 3 bytes for every 2 LEDs and a run is padded to a whole byte.
+ * Encoding flags are sent in the v1 effect byte or in the v2 flags byte.
+ */
+public class SerialPacketBuilder {
+
+    public static final int HEADER_SIZE = 15;
+    public static final int HEADER_SIZE_V2 = 17;
+    public static final int PROTOCOL_VERSION_2 = 2;
+    // Encoding flags, Firefly Luciferin never sends effects over serial so they fit in the v1 effect byte
+    public static final int KEYFRAME_FLAG = 0x80;
+    public static final int DELTA_FLAG = 0x40;
+    private static final int CRC_SIZE = 2;
+    // LEDs written between two CRC updates, even so RGB444 pairs are never split
+    private static final int CRC_BLOCK = 256;
+    private static final int MAX_RUN_LENGTH = 255;
+    // Start position and length of a delta run
+    private static final int RUN_HEADER_SIZE = 3;
+    private static final byte[] MAGIC = {'D', 'P', 's', 'o', 'f', 't'};
+    // 4x4 Bayer matrix walked along the strip, thresholds are sixteenths of a quantization step
+    private static final int[] BAYER_THRESHOLDS = {0, 8, 2, 10, 12, 4, 14, 6, 3, 11, 1, 9, 15, 7, 13, 5};
+    // Half a quantization step, plain rounding when dithering is off
+    private static final int ROUNDING_THRESHOLD = 8;
+    // Average packet size sent on the wire, used to compute the max framerate of the serial link
+
+    private byte[] packet = new byte[0];
+    @Getter private int packetLength;
+    // Moving average of the packet length, written only by the thread building packets
+    private volatile float averagePacketSize;
+    private boolean protocolV2;
+    private int headerSize = HEADER_SIZE;
+    // Index of the last byte written
+    private int position;
+    private Constants.ColorDepth colorDepth = Constants.ColorDepth.RGB888;
+    private boolean dithering;
+    // Colors of the frame in progress and colors in use on the strip, packed in the color depth in use
+    private int[] codes = new int[0];
+    private int[] lastSent = new int[0];
+    // Runs of changed LEDs of the delta frame in progress
+    private int[] runStarts = new int[0];
+    private int[] runLengths = new int[0];
+    private int runCount;
+    private boolean referenceValid;
+    private volatile boolean keyframeRequested;
+    private int framesSinceKeyframe;
+    // v1 header fields in use, -1 means header never built
+    private int ledsCountHi = -1;
+    private int ledsCountLo = -1;
+    private int loSecondPart = -1;
+    private int brightness = -1;
+    private int gpio = -1;
+    private int baudRate = -1;
+    private int whiteTemperature = -1;
+    private int fireflyEffect = -1;
+
+    /**
+     * Build the packet for a frame
+     * @param leds frame with colors, a single LED frame means solid color
+     * @param ledNumber number of LEDs on the strip
+     * @return packet ready to be written, valid until the next call, only the first packetLength bytes are used
+     */
+    public byte[] build(LEDFrame leds, int ledNumber) {
+
+        boolean protocolV2ToUse = (FireflyLuciferin.serialCapabilities & Constants.SERIAL_CAPABILITY_V2) != 0;
+        Constants.ColorDepth colorDepthToUse = getColorDepth();
+        boolean ditheringToUse = FireflyLuciferin.config.isSerialDithering() && colorDepthToUse != Constants.ColorDepth.RGB888;
+        int headerSizeToUse = protocolV2ToUse ? HEADER_SIZE_V2 : HEADER_SIZE;
+        int fullPayloadLength = payloadSize(colorDepthToUse, ledNumber);
+        int maxPacketLength = fullFrameSize(protocolV2ToUse, colorDepthToUse, ledNumber);
+        if (packet.length != maxPacketLength || codes.length != ledNumber || protocolV2ToUse != protocolV2
+                || colorDepthToUse != colorDepth || ditheringToUse != dithering) {
+            packet = new byte[maxPacketLength];
+            codes = new int[ledNumber];
+            lastSent = new int[ledNumber];
+            runStarts = new int[ledNumber];
+            runLengths = new int[ledNumber];
+            protocolV2 = protocolV2ToUse;
+            headerSize = headerSizeToUse;
+            colorDepth = colorDepthToUse;
+            dithering = ditheringToUse;
+            referenceValid = false;
+            ledsCountHi = -1;
+        }
+        encode(leds, ledNumber);
+        boolean deltaEncoding = isDeltaEncodingEnabled();
+        int deltaPayloadLength = -1;
+        if (deltaEncoding && referenceValid && !keyframeRequested && framesSinceKeyframe < Constants.SERIAL_KEYFRAME_INTERVAL) {
+            deltaPayloadLength = planDelta(ledNumber, fullPayloadLength);
+        }
+        int crc;
+        if (deltaPayloadLength >= 0) {
+            framesSinceKeyframe++;
+            crc = writeDelta(writeHeader(DELTA_FLAG | colorDepth.getHeaderFlag(), deltaPayloadLength));
+        } else {
+            keyframeRequested = false;
+            referenceValid = deltaEncoding;
+            framesSinceKeyframe = 0;
+            System.arraycopy(codes, 0, lastSent, 0, ledNumber);
+            crc = writeKeyframe(writeHeader((deltaEncoding ? KEYFRAME_FLAG : 0) | colorDepth.getHeaderFlag(), fullPayloadLength), ledNumber);
+        }
+        int payloadLength = deltaPayloadLength >= 0 ? deltaPayloadLength : fullPayloadLength;
+        packetLength = headerSize + payloadLength;
+        if (protocolV2) {
+            packet[packetLength] = (byte) (crc >> 8);
+            packet[packetLength + 1] = (byte) crc;
+            packetLength += CRC_SIZE;
+        }
+        float average = averagePacketSize;
+        averagePacketSize = average == 0 ? packetLength : (average * 0.9F) + (packetLength * 0.1F);
+        return packet;
+
+    }
+
+    /**
+     * Delta encoding is used only if enabled by the user and supported by the firmware
+     * @return true if delta frames can be sent
+     */
+    private boolean isDeltaEncodingEnabled() {
+
+        return FireflyLuciferin.config.isSerialDeltaEncoding()
+                && (FireflyLuciferin.serialCapabilities & Constants.SERIAL_CAPABILITY_DELTA) != 0;
+
+    }
+
+    /**
+     * Color depth requested by the user, full color if the firmware doesn't support it
+     * @return color depth to use
+     */
+    private static Constants.ColorDepth getColorDepth() {
+
+        Constants.ColorDepth requested = Constants.ColorDepth.valueOf(FireflyLuciferin.config.getSerialColorDepth());
+        if (requested != Constants.ColorDepth.RGB888 && (FireflyLuciferin.serialCapabilities & requested.getCapability()) == 0) {
+            return Constants.ColorDepth.RGB888;
+        }
+        return requested;
+
+    }
+
+    /**
+     * Size of a full frame with the protocol and the color depth negotiated with the firmware, delta frames are smaller
+     * @param ledNumber number of LEDs on the strip
+     * @return keyframe size in bytes, header and CRC included
+     */
+    public static int getFullFrameSize(int ledNumber) {
+
+        return fullFrameSize((FireflyLuciferin.serialCapabilities & Constants.SERIAL_CAPABILITY_V2) != 0, getColorDepth(), ledNumber);
+
+    }
+
+    /**
+     * Size of a full frame
+     * @param protocolV2 true if protocol v2 is in use
+     * @param colorDepth color depth
+     * @param ledNumber number of LEDs on the strip
+     * @return keyframe size in bytes, header and CRC included
+     */
+    private static int fullFrameSize(boolean protocolV2, Constants.ColorDepth colorDepth, int ledNumber) {
+
+        return (protocolV2 ? HEADER_SIZE_V2 + CRC_SIZE : HEADER_SIZE) + payloadSize(colorDepth, ledNumber);
+
+    }
+
+    /**
+     * Bytes needed to send LEDs in a color depth
+     * @param colorDepth color depth
+     * @param ledCount number of LEDs
+     * @return payload size, padded to a whole byte
+     */
+    private static int payloadSize(Constants.ColorDepth colorDepth, int ledCount) {
+
+        return ((ledCount * colorDepth.getBitsPerLed()) + 7) / 8;
+
+    }
+
+    /**
+     * Next packet will be a keyframe, call it when the firmware lost its reference frame
+     */
+    public void requestKeyframe() {
+
+        keyframeRequested = true;
+
+    }
+
+    /**
+     * Pack the color of every position on the strip in the color depth in use
+     * @param leds frame with colors, a single LED frame means solid color
+     * @param ledNumber number of LEDs on the strip
+     */
+    private void encode(LEDFrame leds, int ledNumber) {
+
+        int[] outputMap = LEDOutputMap.get(ledNumber);
+        boolean solid = leds.getLedCount() == 1;
+        for (int i = 0; i < ledNumber; i++) {
+            int rgb = solid ? leds.getRGB(0) : leds.getRGB(outputMap[i]);
+            int threshold = dithering ? BAYER_THRESHOLDS[i & 15] : ROUNDING_THRESHOLD;
+            codes[i] = switch (colorDepth) {
+                case RGB888 -> rgb;
+                case RGB565 -> (quantize(rgb >> 16, 3, threshold) << 11) | (quantize(rgb >> 8, 2, threshold) << 5)
+                        | quantize(rgb, 3, threshold);
+                case RGB444 -> (quantize(rgb >> 16, 4, threshold) << 8) | (quantize(rgb >> 8, 4, threshold) << 4)
+                        | quantize(rgb, 4, threshold);
+            };
+        }
+
+    }
+
+    /**
+     * Reduce a color channel to fewer bits
+     * @param channel color channel, only the lowest 8 bits are used
+     * @param droppedBits bits to drop
+     * @param threshold sixteenths of a quantization step added before truncating
+     * @return reduced channel
+     */
+    private static int quantize(int channel, int droppedBits, int threshold) {
+
+        int value = (channel & 0xFF) + ((threshold << droppedBits) >> 4);
+        return Math.min(255, value) >> droppedBits;
+
+    }
+
+    /**
+     * Find runs of LEDs changed since the last frame sent, runs separated by a single unchanged LED are merged
+     * since a new run costs as much as one LED
+     * @param ledNumber number of LEDs on the strip
+     * @param fullPayloadLength payload length of a keyframe
+     * @return delta payload length, -1 if the delta frame is not smaller than a keyframe
+     */
+    private int planDelta(int ledNumber, int fullPayloadLength) {
+
+        // Run count
+        int payloadLength = 2;
+        runCount = 0;
+        int i = 0;
+        while (i < ledNumber) {
+            if (codes[i] == lastSent[i]) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < ledNumber && end - i < MAX_RUN_LENGTH) {
+                if (codes[end] != lastSent[end]) {
+                    end++;
+                } else if (end + 1 < ledNumber && end + 1 - i < MAX_RUN_LENGTH && codes[end + 1] != lastSent[end + 1]) {
+                    end += 2;
+                } else {
+                    break;
+                }
+            }
+            payloadLength += RUN_HEADER_SIZE + payloadSize(colorDepth, end - i);
+            if (payloadLength >= fullPayloadLength) {
+                return -1;
+            }
+            runStarts[runCount] = i;
+            runLengths[runCount] = end - i;
+            runCount++;
+            i = end;
+        }
+        return payloadLength;
+
+    }
+
+    /**
+     * Write the runs found by planDelta, CRC is updated run by run
+     * @param crc CRC of the header
+     * @return CRC of header and payload, meaningful only with protocol v2
+     */
+    private int writeDelta(int crc) {
+
+        int from = position + 1;
+        packet[++position] = (byte) (runCount >> 8);
+        packet[++position] = (byte) runCount;
+        for (int run = 0; run < runCount; run++) {
+            int start = runStarts[run];
+            int runLength = runLengths[run];
+            packet[++position] = (byte) (start >> 8);
+            packet[++position] = (byte) start;
+            packet[++position] = (byte) runLength;
+            writeCodes(start, start + runLength);
+            System.arraycopy(codes, start, lastSent, start, runLength);
+            crc = updateCrc(crc, from);
+            from = position + 1;
+        }
+        return updateCrc(crc, from);
+
+    }
+
+    /**
+     * Write every LED, CRC is updated block by block while the buffer is still hot
+     * @param crc CRC of the header
+     * @param ledNumber number of LEDs on the strip
+     * @return CRC of header and payload, meaningful only with protocol v2
+     */
+    private int writeKeyframe(int crc, int ledNumber) {
+
+        for (int start = 0; start < ledNumber; start += CRC_BLOCK) {
+            int from = position + 1;
+            writeCodes(start, Math.min(ledNumber, start + CRC_BLOCK));
+            crc = updateCrc(crc, from);
+        }
+        return crc;
+
+    }
+
+    /**
+     * Write packed colors of a run of positions
+     * @param from first position
+     * @param to last position, exclusive
+     */
+    private void writeCodes(int from, int to) {
+
+        int j = position;
+        switch (colorDepth) {
+            case RGB888 -> {
+                for (int i = from; i < to; i++) {
+                    packet[++j] = (byte) (codes[i] >> 16);
+                    packet[++j] = (byte) (codes[i] >> 8);
+                    packet[++j] = (byte) codes[i];
+                }
+            }
+            case RGB565 -> {
+                for (int i = from; i < to; i++) {
+                    packet[++j] = (byte) (codes[i] >> 8);
+                    packet[++j] = (byte) codes[i];
+                }
+            }
+            case RGB444 -> {
+                // Two LEDs in three bytes, an odd LED at the end of the run is padded
+                for (int i = from; i < to; i += 2) {
+                    packet[++j] = (byte) (codes[i] >> 4);
+                    if (i + 1 < to) {
+                        packet[++j] = (byte) (((codes[i] & 0xF) << 4) | (codes[i + 1] >> 8));
+                        packet[++j] = (byte) codes[i + 1];
+                    } else {
+                        packet[++j] = (byte) ((codes[i] & 0xF) << 4);
+                    }
+                }
+            }
+        }
+        position = j;
+
+    }
+
+    /**
+     * Add the bytes written since a position to the CRC
+     * @param crc CRC computed so far
+     * @param from first byte to add
+     * @return updated CRC, unchanged with protocol v1
+     */
+    private int updateCrc(int crc, int from) {
+
+        return protocolV2 ? Crc16.update(crc, packet, from, (position + 1) - from) : crc;
+
+    }
+
+    /**
+     * Average size of the packets built by this builder
+     * @return average packet size in bytes, 0 if nothing has been built
+     */
+    public float getAveragePacketSize() {
+
+        return averagePacketSize;
+
+    }
+
+    /**
+     * Write the header of the protocol in use
+     * @param encodingFlags encoding flags
+     * @param payloadLength payload length
+     * @return CRC of the header, meaningful only with protocol v2
+     */
+    private int writeHeader(int encodingFlags, int payloadLength) {
+
+        position = headerSize - 1;
+        if (protocolV2) {
+            return writeHeaderV2(encodingFlags, payloadLength);
+        }
+        updateHeader(encodingFlags);
+        return 0;
+
+    }
+
+    /**
+     * Write the v2 header, it changes with every delta frame so it is always written
+     * @param encodingFlags encoding flags
+     * @param payloadLength payload length
+     * @return CRC of the header after the magic
+     */
+    private int writeHeaderV2(int encodingFlags, int payloadLength) {
+
+        int ledNumber = codes.length;
+        int j = -1;
+        for (byte magicByte : MAGIC) {
+            packet[++j] = magicByte;
+        }
+        packet[++j] = (byte) PROTOCOL_VERSION_2;
+        packet[++j] = (byte) (ledNumber >> 8);
+        packet[++j] = (byte) ledNumber;
+        packet[++j] = (byte) encodingFlags;
+        packet[++j] = (byte) (FireflyLuciferin.usbBrightness);
+        packet[++j] = (byte) (FireflyLuciferin.gpio);
+        packet[++j] = (byte) (FireflyLuciferin.baudRate);
+        packet[++j] = (byte) (FireflyLuciferin.whiteTemperature);
+        packet[++j] = (byte) (FireflyLuciferin.fireflyEffect);
+        packet[++j] = (byte) (payloadLength >> 8);
+        packet[++j] = (byte) payloadLength;
+        return Crc16.update(Crc16.INITIAL_VALUE, packet, MAGIC.length, HEADER_SIZE_V2 - MAGIC.length);
+
+    }
+
+    /**
+     * Rebuild the v1 header if one of its fields changed
+     * @param encodingFlags encoding flags sent in the effect byte
+     */
+    private void updateHeader(int encodingFlags) {
+
+        int ledsCountHiToSend = ((FireflyLuciferin.ledNumHighLowCount) >> 8) & 0xff;
+        int ledsCountLoToSend = (FireflyLuciferin.ledNumHighLowCount) & 0xff;
+        int loSecondPartToSend = (FireflyLuciferin.ledNumHighLowCountSecondPart) & 0xff;
+        int brightnessToSend = (FireflyLuciferin.usbBrightness) & 0xff;
+        int gpioToSend = (FireflyLuciferin.gpio) & 0xff;
+        int baudRateToSend = (FireflyLuciferin.baudRate) & 0xff;
+        int whiteTempToSend = (FireflyLuciferin.whiteTemperature) & 0xff;
+        int fireflyEffectToSend = ((FireflyLuciferin.fireflyEffect) & 0xff) | encodingFlags;
+        if (ledsCountHiToSend == ledsCountHi && ledsCountLoToSend == ledsCountLo && loSecondPartToSend == loSecondPart
+                && brightnessToSend == brightness && gpioToSend == gpio && baudRateToSend == baudRate
+                && whiteTempToSend == whiteTemperature && fireflyEffectToSend == fireflyEffect) {
+            return;
+        }
+        ledsCountHi = ledsCountHiToSend;
+        ledsCountLo = ledsCountLoToSend;
+        loSecondPart = loSecondPartToSend;
+        brightness = brightnessToSend;
+        gpio = gpioToSend;
+        baudRate = baudRateToSend;
+        whiteTemperature = whiteTempToSend;
+        fireflyEffect = fireflyEffectToSend;
+        int j = -1;
+        for (byte magicByte : MAGIC) {
+            packet[++j] = magicByte;
+        }
+        packet[++j] = (byte) (ledsCountHi);
+        packet[++j] = (byte) (ledsCountLo);
+        packet[++j] = (byte) (loSecondPart);
+        packet[++j] = (byte) (brightness);
+        packet[++j] = (byte) (gpio);
+        packet[++j] = (byte) (baudRate);
+        packet[++j] = (byte) (whiteTemperature);
+        packet[++j] = (byte) (fireflyEffect);
+        // DPsoftware checksum
+        packet[++j] = (byte) ((ledsCountHi ^ ledsCountLo ^ loSecondPart ^ brightness ^ gpio ^ baudRate ^ whiteTemperature ^ fireflyEffect ^ 0x55));
+
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+  SerialWriter.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.grabber.FrameRateController;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated thread that writes frames to the serial port, a stalled USB device never blocks the consumer.
+ * Frames are handed off through a single slot: while a write is in progress only the newest frame is kept
+ * and older frames are skipped, frames are never queued behind a slow device. Frames are written at most at the
+ * serial sink framerate, lowered by the framerate controller when the firmware can't keep up.
+ * Every write is timed, a write taking longer than the serial timeout closes the port so the
+ * reconnect task opens it again through initSerial. The stalled thread is replaced by a new writer generation
+ * with its own packet buffer, the stalled one exits as soon as its write returns and never touches the port again.
+ */
+@Slf4j
+public class SerialWriter {
+
+    // Latency buckets, bucket N holds writes faster than 2^N microseconds
+    private static final int LATENCY_BUCKETS = 24;
+
+    // Single slot hand-off, the writer always gets the newest frame
+    private final BlockingQueue<LEDFrame> handOff = new ArrayBlockingQueue<>(1);
+    private volatile Thread writerThread;
+    // Packet builder of the current writer generation
+    private volatile SerialPacketBuilder serialPacketBuilder;
+    // System.nanoTime() when the write in progress started, 0 if idle
+    private volatile long writeStart;
+    // Stats since the last report
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong limitedFrames = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private long lastReport = System.nanoTime();
+
+    /**
+     * Start the writer thread and the write timeout watchdog
+     */
+    public SerialWriter() {
+
+        startWriterThread();
+        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, Constants.SERIAL_WATCHDOG_THREAD);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduledExecutorService.scheduleAtFixedRate(this::checkWriteTimeout, Constants.SERIAL_WATCHDOG_PERIOD,
+                Constants.SERIAL_WATCHDOG_PERIOD, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Start a new writer generation, a thread stuck inside a write is abandoned and exits when the write returns.
+     * Every generation builds packets in its own buffer, the buffer of a stalled write is never reused.
+     */
+    private synchronized void startWriterThread() {
+
+        SerialPacketBuilder builder = new SerialPacketBuilder();
+        Thread thread = new Thread(() -> writeLoop(builder), Constants.SERIAL_WRITER_THREAD);
+        serialPacketBuilder = builder;
+        thread.setDaemon(true);
+        writerThread = thread;
+        writeStart = 0;
+        thread.start();
+
+    }
+
+    /**
+     * Hand off a frame to the writer, the frame is copied so the caller keeps ownership
+     * @param leds frame with colors, a single LED frame means solid color
+     */
+    public void submit(LEDFrame leds) {
+
+        LEDFrame frame = LEDFrame.copyOf(leds);
+        while (!handOff.offer(frame)) {
+            // Writer is busy, the frame waiting for it is stale
+            LEDFrame stale = handOff.poll();
+            if (stale != null) {
+                stale.release();
+                skippedFrames.incrementAndGet();
+            }
+        }
+
+    }
+
+    /**
+     * Writer loop, builds the packet and writes it to the serial port
+     * @param builder packet builder owned by this writer generation
+     */
+    private void writeLoop(SerialPacketBuilder builder) {
+
+        Thread thread = Thread.currentThread();
+        long lastWrite = System.nanoTime() - TimeUnit.SECONDS.toNanos(1);
+        while (thread == writerThread) {
+            LEDFrame frame;
+            try {
+                frame = handOff.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            float maxFramerate = FrameRateController.getSerialSinkFramerate();
+            if (maxFramerate > 0) {
+                long wait = lastWrite + (long) (TimeUnit.SECONDS.toNanos(1) / maxFramerate) - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    // Write the newest frame received while waiting
+                    LEDFrame newer = handOff.poll();
+                    if (newer != null) {
+                        frame.release();
+                        frame = newer;
+                        limitedFrames.incrementAndGet();
+                    }
+                }
+            }
+            lastWrite = System.nanoTime();
+            byte[] packet;
+            try {
+                if (!FireflyLuciferin.serialConnected || FireflyLuciferin.output == null) {
+                    skippedFrames.incrementAndGet();
+                    continue;
+                }
+                packet = builder.build(frame, FireflyLuciferin.ledNumber);
+            } finally {
+                frame.release();
+            }
+            write(FireflyLuciferin.output, packet, builder.getPacketLength());
+        }
+
+    }
+
+    /**
+     * Write a packet and record its latency
+     * @param output serial output stream
+     * @param packet packet to write
+     * @param length packet length
+     */
+    private void write(OutputStream output, byte[] packet, int length) {
+
+        long start = System.nanoTime();
+        writeStart = start;
+        try {
+            output.write(packet, 0, length);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            // A stalled generation must not close the port reopened after its timeout
+            if (Thread.currentThread() == writerThread) {
+                disconnect();
+            }
+            return;
+        } finally {
+            // writeStart belongs to the current generation once this one has been replaced
+            if (Thread.currentThread() == writerThread) {
+                writeStart = 0;
+            }
+        }
+        long latency = System.nanoTime() - start;
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(latency);
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latencyMicros));
+        latencyHistogram.incrementAndGet(bucket);
+        writtenBytes.addAndGet(length);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        if (latency > TimeUnit.MILLISECONDS.toNanos(Constants.SERIAL_STALL_THRESHOLD)) {
+            stalls.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * Watchdog, close the serial port if a write takes longer than the serial timeout
+     */
+    private void checkWriteTimeout() {
+
+        long start = writeStart;
+        if (start != 0 && System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(FireflyLuciferin.config.getTimeout())) {
+            timeouts.incrementAndGet();
+            log.error(Constants.SERIAL_WRITE_TIMEOUT);
+            disconnect();
+            startWriterThread();
+        }
+
+    }
+
+    /**
+     * Close the serial port, the reconnect task opens it again through initSerial
+     */
+    private synchronized void disconnect() {
+
+        if (!FireflyLuciferin.serialConnected) {
+            return;
+        }
+        FireflyLuciferin.serialConnected = false;
+        FireflyLuciferin.communicationError = true;
+        // Firmware loses its reference frame when it reconnects
+        serialPacketBuilder.requestKeyframe();
+        if (FireflyLuciferin.serial != null) {
+            try {
+                FireflyLuciferin.serial.removeEventListener();
+                FireflyLuciferin.serial.close();
+            } catch (RuntimeException e) {
+                log.error(e.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * Latency percentile read from the histogram
+     * @param snapshot histogram snapshot
+     * @param total number of writes in the snapshot
+     * @param percentile percentile, 0 to 1
+     * @return upper bound of the bucket containing the percentile, microseconds
+     */
+    private static long percentile(long[] snapshot, long total, double percentile) {
+
+        long threshold = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            count += snapshot[i];
+            if (count >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 1L << (snapshot.length - 1);
+
+    }
+
+    /**
+     * Average size of the packets written by the current writer generation
+     * @return average packet size in bytes, 0 if nothing has been written
+     */
+    public float getAveragePacketSize() {
+
+        return serialPacketBuilder.getAveragePacketSize();
+
+    }
+
+    /**
+     * Write stats since the last call, stats are reset
+     * @return human readable stats
+     */
+    public String report() {
+
+        long now = System.nanoTime();
+        float seconds = Math.max(1, now - lastReport) / (float) TimeUnit.SECONDS.toNanos(1);
+        lastReport = now;
+        long[] snapshot = new long[LATENCY_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            snapshot[i] = latencyHistogram.getAndSet(i, 0);
+            total += snapshot[i];
+        }
+        long bytesPerSecond = (long) (writtenBytes.getAndSet(0) / seconds);
+        long maxLatencyMicros = TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.getAndSet(0));
+        return "Serial writes: " + total + ", p50 < " + percentile(snapshot, total, 0.5) + "us, p99 < "
+                + percentile(snapshot, total, 0.99) + "us, max " + maxLatencyMicros + "us, " + bytesPerSecond + " bytes/s, stalls: "
+                + stalls.getAndSet(0) + ", skipped: " + skippedFrames.getAndSet(0) + ", rate limited: " + limitedFrames.getAndSet(0)
+                + ", timeouts: " + timeouts.getAndSet(0);
+
+    }
+
+}
@@ -26,7 +26,9 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.dpsoftware.LEDCoordinate;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -56,11 +58,25 @@ public class Configuration implements Cloneable {
         WinAPI,
         DDUPL,
         XIMAGESRC,
-        AVFVIDEOSRC
+        AVFVIDEOSRC,
+        SYNTHETIC,
+        REPLAY
     }
 
     // Windows Desktop Duplication API
     private String captureMethod;
+    // CPU capture method only, capture the screen borders under the LEDs instead of the full screen
+    private boolean borderStripsCapture = false;
+    // SYNTHETIC and REPLAY capture methods only, headless benchmarking without a display
+    private String syntheticPattern = Constants.DEFAULT_SYNTHETIC_PATTERN;
+    private int syntheticFramerate = Constants.DEFAULT_SYNTHETIC_FRAMERATE;
+    private String replayFile = "";
+    private int replayFramerate = Constants.DEFAULT_REPLAY_FRAMERATE;
+    // GStreamer captures are written to this file, replay it later with the REPLAY capture method
+    private String dumpFile = "";
+    // Producers overwrite stale frames and the consumer always gets the freshest ones, lower latency on slow devices
+    private boolean latestFrameOnly = false;
+    private int latestFrameSlots = 1;
 
     // Serial port to use, use AUTO for automatic port search
     // NOTE: for multi display this contain the deviceName of the MQTT device where to stream
@@ -68,6 +84,11 @@ public class Configuration implements Cloneable {
 
     // Arduino/Microcontroller config
     private String baudRate = Constants.DEFAULT_BAUD_RATE;
+    // Send only changed LEDs between keyframes, used only if the firmware supports it
+    private boolean serialDeltaEncoding = false;
+    // Trade color precision for framerate on slow links (RGB888, RGB565, RGB444), used only if the firmware supports it
+    private String serialColorDepth = Constants.DEFAULT_COLOR_DEPTH;
+    private boolean serialDithering = true;
 
     // Default led matrix to use
     private String defaultLedMatrix;
@@ -107,6 +128,25 @@ public class Configuration implements Cloneable {
     private String mqttPwd = "";
     private boolean mqttEnable = false;
     private boolean mqttStream = false;
+    // Packed RGB bytes on the stream topic, text stream is kept for older firmware
+    private boolean mqttBinaryStream = false;
+    // Binary stream frames bigger than this are split in parts
+    private int mqttMaxPayload = Constants.DEFAULT_MQTT_MAX_PAYLOAD;
+    // Stream messages handed to the MQTT client and not yet sent, older frames are dropped when it is full
+    private int mqttInflightWindow = Constants.DEFAULT_MQTT_INFLIGHT_WINDOW;
+    // Wireless stream sent straight to the device over UDP, MQTT is used for control only
+    private boolean udpStream = false;
+    private int udpPort = Constants.DEFAULT_UDP_PORT;
+    // E1.31 or Art-Net output for standard pixel controllers, empty address means multicast (E1.31) or broadcast (Art-Net)
+    private boolean dmxEnable = false;
+    private String dmxProtocol = Constants.DEFAULT_DMX_PROTOCOL;
+    private String dmxAddress = "";
+    private int dmxStartUniverse = Constants.DEFAULT_DMX_START_UNIVERSE;
+    // Outputs fed in parallel with every frame (SERIAL, MQTT, UDP, DMX, RECORDER, NULL),
+    // empty means the serial port or the wireless stream, plus DMX if enabled
+    private List<String> outputSinks = new ArrayList<>();
+    // RECORDER output only, LED frames are written to this file
+    private String recordFile = "";
     private boolean checkForUpdates = true;
     // Misc Tab
     private boolean autoStartCapture = false;
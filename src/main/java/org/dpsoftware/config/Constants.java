@@ -68,6 +68,48 @@ public class Constants {
 			return baudRate;
 		}
 	}
+	public enum ColorDepth {
+		RGB888	(0x00, 0, 24),
+		RGB565	(0x10, 2, 16),
+		RGB444	(0x20, 4, 12);
+		// Flag sent in the serial header, firmware capability needed, bits on the wire for every LED
+		private final int headerFlag;
+		private final int capability;
+		private final int bitsPerLed;
+		ColorDepth(int headerFlag, int capability, int bitsPerLed) {
+			this.headerFlag = headerFlag;
+			this.capability = capability;
+			this.bitsPerLed = bitsPerLed;
+		}
+		public int getHeaderFlag(){
+			return headerFlag;
+		}
+		public int getCapability(){
+			return capability;
+		}
+		public int getBitsPerLed(){
+			return bitsPerLed;
+		}
+	}
+	public enum OutputSinkType {
+		SERIAL,
+		MQTT,
+		UDP,
+		DMX,
+		RECORDER,
+		NULL
+	}
+	public enum DmxProtocol {
+		E131	(5568),
+		ARTNET	(6454);
+		private final int port;
+		DmxProtocol(int port) {
+			this.port = port;
+		}
+		public int getPort(){
+			return port;
+		}
+	}
 	public enum WhiteTemperature {
 		UNCORRECTEDTEMPERATURE  ("Uncorrected temperature"),
 		KELVIN_1900				("1900 Kelvin"),
@@ -113,6 +155,20 @@ public class Constants {
 	public static final String SETTING_LED_SERIAL = "Setting LEDs";
 	public static final int NUMBER_OF_BENCHMARK_ITERATION = 10;
 	public static final int BENCHMARK_ERROR_MARGIN = 2;
+	public static final int UNLOCKED_FRAMERATE = 144;
+	public static final int MIN_FRAMERATE = 5;
+	public static final float FRAMERATE_STEP_UP = 0.1F;
+	public static final int SERIAL_BITS_PER_BYTE = 10;
+	public static final String SERIAL_MAX_FRAMERATE = "Max framerate supported by the serial link: ";
+	public static final String SERIAL_WRITER_THREAD = "SerialWriter";
+	public static final String SERIAL_WATCHDOG_THREAD = "SerialWriterWatchdog";
+	public static final int SERIAL_WATCHDOG_PERIOD = 250;
+	public static final int SERIAL_STALL_THRESHOLD = 50;
+	public static final String SERIAL_WRITE_TIMEOUT = "Serial write timed out, reconnecting...";
+	public static final int SERIAL_KEYFRAME_INTERVAL = 60;
+	public static final int SERIAL_CAPABILITY_DELTA = 1;
+	public static final int SERIAL_CAPABILITY_V2 = 8;
+	public static final String DEFAULT_COLOR_DEPTH = "RGB888";
 	public static final String MULTIMONITOR_1 = "Disabled";
 	public static final String MULTIMONITOR_2 = "Dual display";
 	public static final String MULTIMONITOR_3 = "Triple display";
@@ -124,6 +180,8 @@ public class Constants {
 	public static final String CSS_CLASS_RED = "red";
 	public static final String AUTO_DETECT_BLACK_BARS = "Auto";
 	public static final int DEEP_BLACK_CHANNEL_TOLERANCE = 4;
+	public static final int LED_FRAME_POOL_SIZE = 64;
+	public static final String LED_FRAME_RELEASED_TWICE = "LED frame released twice";
 
 	// Upgrade
 	public static final String LIGHT_FIRMWARE_DUMMY_VERSION = "1.0.0";
@@ -253,6 +311,8 @@ public class Constants {
 	public static final String MQTT_DEVICE_NAME_MAC = "FireflyLuciferinMac";
 	public static final String MQTT_CONNECTED = "Connected to MQTT Server";
 	public static final String MQTT_CANT_SEND = "Cant't send MQTT msg";
+	public static final String MQTT_CANT_DISCONNECT = "Can't disconnect from the MQTT Server";
+	public static final String MQTT_MESSAGE_THREAD = "MqttMessageHandler";
 	public static final String MQTT_STREAM_TOPIC = "/stream";
 	public static final String MQTT_RECONNECTED = "Reconnected";
 	public static final String MQTT_DISCONNECTED = "Disconnected";
@@ -261,9 +321,31 @@ public class Constants {
 	public static final String MQTT_TOPIC_FRAMERATE = "framerate";
 	public static final String MQTT_DEVICE_NAME = "deviceName";
 	public static final int FIRST_CHUNK = 170;
-	public static final int SECOND_CHUNK = 340;
-	public static final int THIRD_CHUNK = 510;
 	public static final int MAX_CHUNK = 510;
+	public static final int DEFAULT_MQTT_MAX_PAYLOAD = 1024;
+	public static final int DEFAULT_MQTT_INFLIGHT_WINDOW = 4;
+	public static final int MQTT_MAX_INFLIGHT = 1000;
+	public static final int MQTT_STREAM_MAX_INFLIGHT = 10;
+	public static final long MQTT_STREAM_DISCONNECT_TIMEOUT = 1000;
+	public static final String MQTT_STREAM_CLIENT_SUFFIX = "_stream";
+	public static final String MQTT_STREAM_CLIENT_ERROR = "Can't connect the MQTT stream client, streaming on the control client";
+	public static final int DEFAULT_UDP_PORT = 4210;
+	public static final int UDP_MAX_PAYLOAD = 1472;
+
+	// DMX
+	public static final String DEFAULT_DMX_PROTOCOL = "E131";
+	public static final int DEFAULT_DMX_START_UNIVERSE = 1;
+	public static final int DMX_PIXELS_PER_UNIVERSE = 170;
+	public static final int DMX_PRIORITY = 100;
+	public static final String DMX_MULTICAST_PREFIX = "239.255.";
+	public static final String DMX_BROADCAST_ADDRESS = "255.255.255.255";
+
+	// Output sinks
+	public static final String OUTPUT_SINK_THREAD = "OutputSink";
+	public static final String OUTPUT_SINKS_IN_USE = "Output sinks in use: ";
+	public static final String OUTPUT_SINK_ERROR = "Can't use output sink: ";
+	public static final String RECORD_FILE_ERROR = "Can't write record file: ";
+	public static final String RECORD_FILE_IN_USE = "Recording frames: ";
 	public static final String LED_NUM = "\"lednum\":";
 	public static final String STREAM = "\"stream\":[";
 	public static final String MQTT_GAMMA = "gamma";
@@ -281,9 +363,6 @@ public class Constants {
 	// GUI
 	public static final String SAVE = "Save";
 	public static final String SAVE_AND_CLOSE = "Save and close";
-	public static final String FRAMERATE_TITLE = "Framerate error";
-	public static final String FRAMERATE_HEADER = "Firefly Luciferin is out of sync";
-	public static final String FRAMERATE_CONTEXT = "Your computer is capturing the screen too fast and Glow Worm Luciferin firmware can't keep up.\nThis can cause synchronization issues, do you want to lower the framerate to {0} FPS?";
 	public static final String GPIO_TITLE = "GPIO error";
 	public static final String GPIO_HEADER = "Unsupported GPIO";
 	public static final String GPIO_CONTEXT = "Luciferin supports GPIO2, GPIO5 and GPIO16";
@@ -354,6 +433,7 @@ public class Constants {
 	public static final String SERIAL_MQTTTOPIC = "mqttopic:";
 	public static final String SERIAL_MAC = "MAC:";
 	public static final String SERIAL_GPIO = "gpio:";
+	public static final String SERIAL_CAPABILITIES = "proto:";
 	public static final String NO_DEVICE_FOUND = "No devices found";
 
 	// Tooltips
@@ -391,7 +471,7 @@ public class Constants {
 	public static final String TOOLTIP_START_WITH_SYSTEM = "Launch Firefly Luciferin when system starts";
 	public static final String TOOLTIP_CHECK_UPDATES = "Set and forget it to update Firefly Luciferin and Glow Worm Luciferin when updates are available. Automatic firmware upgrade is available on FULL version only";
 	public static final String TOOLTIP_PLAYBUTTON_NULL = "Please configure and save before capturing";
-	public static final String TOOLTIP_SYNC_CHECK = "Check if Firefly Luciferin is in sync with the Glow Worm Luciferin firmware";
+	public static final String TOOLTIP_SYNC_CHECK = "Follow the Glow Worm Luciferin firmware framerate, capture slows down when the firmware can't keep up";
 	public static final String TOOLTIP_BRIGHTNESS = "Set the brightness of the LED strip";
 	public static final String TOOLTIP_SPLIT_BOTTOM_ROW = "Split/Merge bottom LEDs row";
     public static final String TOOLTIP_SAVELEDBUTTON_NULL = "You can change this options later";
@@ -430,6 +510,14 @@ public class Constants {
 	public static final String FRAMERATE_PLACEHOLDER = "framerate=FRAMERATE_PLACEHOLDER/1,";
 	public static final String UNLOCKED = "UNLOCKED";
 	public static final int NUMBER_OF_AREA_TO_CHECK = 50;
+	public static final String DEFAULT_SYNTHETIC_PATTERN = "CYCLE";
+	public static final int DEFAULT_SYNTHETIC_FRAMERATE = 60;
+	public static final int SYNTHETIC_CYCLE_SECONDS = 5;
+	public static final int DEFAULT_REPLAY_FRAMERATE = 60;
+	public static final String REPLAY_FILE_ERROR = "Can't read replay file: ";
+	public static final String REPLAY_FILE_IN_USE = "Replaying frames: ";
+	public static final String DUMP_FILE_ERROR = "Can't write dump file: ";
+	public static final String DUMP_FILE_IN_USE = "Dumping frames: ";
 
 	// Exceptions
 	public static final String WIN32_EXCEPTION = "Win32 Exception.";
@@ -0,0 +1,194 @@
+/*
+  BorderStrips.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+
+/**
+ * Screen regions needed by a LED matrix when capturing with the CPU.
+ * Only the border bands under the LED coordinates are captured (one rectangle for every screen edge),
+ * plus the rows and columns used by the black bars detection when it is requested.
+ * Geometry is immutable, it is recomputed when the LED matrix in use changes.
+ */
+@Getter
+public class BorderStrips {
+
+    public static final int TOP = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int LEFT = 3;
+    private static final int EDGES = 4;
+
+    // LED matrix used to compute the strips
+    private final LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
+    private final int screenWidth;
+    private final int screenHeight;
+    // Four edges, then six black bars detection lines (letterbox rows, pillarbox columns)
+    private final Rectangle[] strips;
+    // Strip index for every LED, zero based
+    private final int[] ledStrip;
+
+    /**
+     * Constructor
+     * @param ledMatrix LED matrix in use
+     * @param screenWidth captured screen width
+     * @param screenHeight captured screen height
+     * @param strips edges and black bars detection lines
+     * @param ledStrip strip index for every LED
+     */
+    private BorderStrips(LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int screenWidth, int screenHeight, Rectangle[] strips, int[] ledStrip) {
+
+        this.ledMatrix = ledMatrix;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.strips = strips;
+        this.ledStrip = ledStrip;
+
+    }
+
+    /**
+     * Compute the union of the LED sampling areas for every screen edge
+     * @param ledMatrix LED matrix in use
+     * @param screenWidth captured screen width
+     * @param screenHeight captured screen height
+     * @param osScaling OS scaling percentage
+     * @return border strips
+     */
+    public static BorderStrips compute(LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int screenWidth, int screenHeight, int osScaling) {
+
+        Rectangle[] strips = new Rectangle[EDGES + 6];
+        int[] ledStrip = new int[ledMatrix.size()];
+        int maxX = screenWidth - (ImageProcessor.SKIP_PIXEL * ImageProcessor.PIXEL_TO_USE);
+        int maxY = screenHeight - (ImageProcessor.SKIP_PIXEL * ImageProcessor.PIXEL_TO_USE);
+        ledMatrix.forEach((key, value) -> {
+            // Same coordinates used by ImageProcessor.getAverageColor for the CPU capture
+            int xCoordinate = (value.getX() * 100) / osScaling;
+            int yCoordinate = (value.getY() * 100) / osScaling;
+            int x0 = Math.min(xCoordinate, maxX);
+            int y0 = Math.min(yCoordinate, maxY);
+            int x1 = Math.min(xCoordinate + (ImageProcessor.SKIP_PIXEL * (ImageProcessor.PIXEL_TO_USE - 1)), maxX);
+            int y1 = Math.min(yCoordinate + (ImageProcessor.SKIP_PIXEL * (ImageProcessor.PIXEL_TO_USE - 1)), maxY);
+            Rectangle sampleArea = new Rectangle(x0, y0, (x1 - x0) + 1, (y1 - y0) + 1);
+            int edge = nearestEdge(sampleArea, screenWidth, screenHeight);
+            strips[edge] = strips[edge] == null ? sampleArea : strips[edge].union(sampleArea);
+            ledStrip[key - 1] = edge;
+        });
+        // Black bars detection lines, same offsets used by ImageProcessor.calculateBlackPixels
+        int letterboxBorder = ImageProcessor.calculateBorders(Constants.AspectRatio.LETTERBOX);
+        int pillarboxBorder = ImageProcessor.calculateBorders(Constants.AspectRatio.PILLARBOX);
+        strips[EDGES] = new Rectangle(0, clamp(letterboxBorder, screenHeight), screenWidth, 1);
+        strips[EDGES + 1] = new Rectangle(0, clamp(screenHeight / 2, screenHeight), screenWidth, 1);
+        strips[EDGES + 2] = new Rectangle(0, clamp(screenHeight - letterboxBorder, screenHeight), screenWidth, 1);
+        strips[EDGES + 3] = new Rectangle(clamp(pillarboxBorder, screenWidth), 0, 1, screenHeight);
+        strips[EDGES + 4] = new Rectangle(clamp(screenWidth / 2, screenWidth), 0, 1, screenHeight);
+        strips[EDGES + 5] = new Rectangle(clamp(screenWidth - pillarboxBorder, screenWidth), 0, 1, screenHeight);
+        return new BorderStrips(ledMatrix, screenWidth, screenHeight, strips, ledStrip);
+
+    }
+
+    /**
+     * Find the screen edge nearest to a sampling area
+     * @param area LED sampling area
+     * @param screenWidth captured screen width
+     * @param screenHeight captured screen height
+     * @return edge index
+     */
+    static int nearestEdge(Rectangle area, int screenWidth, int screenHeight) {
+
+        int centerX = area.x + (area.width / 2);
+        int centerY = area.y + (area.height / 2);
+        int edge = TOP;
+        int distance = centerY;
+        if (screenWidth - centerX < distance) {
+            edge = RIGHT;
+            distance = screenWidth - centerX;
+        }
+        if (screenHeight - centerY < distance) {
+            edge = BOTTOM;
+            distance = screenHeight - centerY;
+        }
+        if (centerX < distance) {
+            edge = LEFT;
+        }
+        return edge;
+
+    }
+
+    /**
+     * Clamp a coordinate inside the screen
+     * @param value coordinate
+     * @param size screen width or height
+     * @return clamped coordinate
+     */
+    private static int clamp(int value, int size) {
+
+        return Math.max(0, Math.min(value, size - 1));
+
+    }
+
+    /**
+     * Capture the border strips
+     * @param robot an AWT Robot instance for screen capture
+     * @param withBlackBarsLines capture black bars detection lines too
+     * @return captured pixels for every strip, null if the strip has not been captured
+     */
+    public IntBuffer[] capture(Robot robot, boolean withBlackBarsLines) {
+
+        IntBuffer[] pixels = new IntBuffer[strips.length];
+        int stripsToCapture = withBlackBarsLines ? strips.length : EDGES;
+        for (int i = 0; i < stripsToCapture; i++) {
+            if (strips[i] != null) {
+                pixels[i] = IntBuffer.wrap(ImageProcessor.getPixels(robot.createScreenCapture(strips[i])));
+            }
+        }
+        return pixels;
+
+    }
+
+    /**
+     * Read a pixel from the captured strips using screen coordinates, coordinates outside the screen are clamped
+     * @param pixels captured pixels
+     * @param x screen X coordinate
+     * @param y screen Y coordinate
+     * @return pixel color packed as 0xRRGGBB, black if no captured strip contains the pixel
+     */
+    public int getRGB(IntBuffer[] pixels, int x, int y) {
+
+        x = clamp(x, screenWidth);
+        y = clamp(y, screenHeight);
+        for (int i = 0; i < strips.length; i++) {
+            Rectangle strip = strips[i];
+            if (pixels[i] != null && strip.contains(x, y)) {
+                return pixels[i].get(((y - strip.y) * strip.width) + (x - strip.x));
+            }
+        }
+        return 0;
+
+    }
+
+}
@@ -21,8 +21,8 @@
 */
 package org.dpsoftware.grabber;
 
-import com.sun.jna.Memory;
 import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 import com.sun.jna.platform.win32.GDI32;
 import com.sun.jna.platform.win32.User32;
 import com.sun.jna.platform.win32.Win32Exception;
@@ -33,27 +33,40 @@ import com.sun.jna.platform.win32.WinDef.RECT;
 import com.sun.jna.platform.win32.WinGDI;
 import com.sun.jna.platform.win32.WinGDI.BITMAPINFO;
 import com.sun.jna.platform.win32.WinNT.HANDLE;
+import com.sun.jna.ptr.PointerByReference;
+import com.sun.jna.win32.StdCallLibrary;
+import com.sun.jna.win32.W32APIOptions;
+import lombok.Getter;
 import org.dpsoftware.config.Constants;
 
 import java.awt.*;
-import java.awt.image.*;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
 /**
  * GPU Hardware Acceleration using Java Native Access API
+ * Device contexts and the DIB section are kept alive across frames and recreated only when the resolution changes,
+ * BitBlt writes directly into the DIB section memory that is exposed as an IntBuffer, no Java copies are made.
  */
 public class CustomGDI32Util {
 
-    private static final DirectColorModel SCREENSHOT_COLOR_MODEL = new DirectColorModel(24, 16711680, 65280, 255);
-    private static final int[] SCREENSHOT_BAND_MASKS;
+    /**
+     * GDI functions not mapped by JNA Platform
+     */
+    interface ExtendedGDI32 extends StdCallLibrary {
+        ExtendedGDI32 INSTANCE = Native.load("gdi32", ExtendedGDI32.class, W32APIOptions.DEFAULT_OPTIONS);
+        boolean GdiFlush();
+    }
+
     private final HWND target;
-    int windowWidth;
-    int windowHeight;
-    Memory buffer;
-    int bufferSize;
-    BITMAPINFO bmi;
-    DataBuffer dataBuffer;
-    BufferedImage image;
+    @Getter int windowWidth;
+    @Getter int windowHeight;
+    HDC hdcTarget;
+    HDC hdcTargetMem;
+    HBITMAP hBitmap;
     HANDLE hOriginal;
+    // DIB section memory, pixels are BGRx in native order that means 0x00RRGGBB once read as int
+    IntBuffer buffer;
 
     /**
      * Constructor
@@ -61,109 +74,124 @@ public class CustomGDI32Util {
      */
     public CustomGDI32Util(HWND target) {
 
-        RECT rect = new RECT();
         this.target = target;
+        Rectangle jRectangle = getTargetRectangle();
+        createCaptureResources(jRectangle.width, jRectangle.height);
+
+    }
+
+    /**
+     * Get target window size
+     * @return target window rectangle
+     */
+    private Rectangle getTargetRectangle() {
+
+        RECT rect = new RECT();
         if (!User32.INSTANCE.GetWindowRect(target, rect)) {
             throw new Win32Exception(Native.getLastError());
         }
-        Rectangle jRectangle = rect.toRectangle();
-        windowWidth = jRectangle.width;
-        windowHeight = jRectangle.height;
-        buffer = new Memory((long) windowWidth * windowHeight * 4);
-        bufferSize = windowWidth * windowHeight;
-        bmi = new BITMAPINFO();
-        bmi.bmiHeader.biWidth = windowWidth;
-        bmi.bmiHeader.biHeight = -windowHeight;
-        bmi.bmiHeader.biPlanes = 1;
-        bmi.bmiHeader.biBitCount = 32;
-        bmi.bmiHeader.biCompression = 0;
-        dataBuffer = new DataBufferInt(buffer.getIntArray(0L, bufferSize), bufferSize);
-        image = null;
+        return rect.toRectangle();
 
     }
 
     /**
-     * Take single picture at high framerate
-     * @return screenshot image
+     * Create device contexts and the DIB section used to capture the screen
+     * @param width window width
+     * @param height window height
      */
-    public BufferedImage getScreenshot() {
+    private void createCaptureResources(int width, int height) {
 
-        if (windowWidth != 0 && windowHeight != 0) {
-            HDC  hdcTarget = User32.INSTANCE.GetDC(target);
+        windowWidth = width;
+        windowHeight = height;
+        if (windowWidth == 0 || windowHeight == 0) {
+            throw new IllegalStateException(Constants.WINDOWS_EXCEPTION);
+        }
+        try {
+            hdcTarget = User32.INSTANCE.GetDC(target);
             if (hdcTarget == null) {
                 throw new Win32Exception(Native.getLastError());
-            } else {
-                HDC hdcTargetMem;
-                HBITMAP hBitmap;
-
-                {
-                    HANDLE result;
-                    {
-                        try {
-                            hdcTargetMem = GDI32.INSTANCE.CreateCompatibleDC(hdcTarget);
-                            if (hdcTargetMem == null) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            hBitmap = GDI32.INSTANCE.CreateCompatibleBitmap(hdcTarget, windowWidth, windowHeight);
-                            if (hBitmap == null) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            hOriginal = GDI32.INSTANCE.SelectObject(hdcTargetMem, hBitmap);
-                            if (hOriginal == null) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            if (!GDI32.INSTANCE.BitBlt(hdcTargetMem, 0, 0, windowWidth, windowHeight, hdcTarget, 0, 0, 13369376)) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            int resultOfDrawing = GDI32.INSTANCE.GetDIBits(hdcTarget, hBitmap, 0, windowHeight, buffer, bmi, 0);
-                            if (resultOfDrawing == 0 || resultOfDrawing == 87) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            DataBuffer dataBuffer = new DataBufferInt(buffer.getIntArray(0L, bufferSize), bufferSize);
-                            WritableRaster raster = Raster.createPackedRaster(dataBuffer, windowWidth, windowHeight, windowWidth, SCREENSHOT_BAND_MASKS, null);
-                            image = new BufferedImage(SCREENSHOT_COLOR_MODEL, raster, false, null);
-
-                        } catch (Win32Exception var23) {
-                            throw new IllegalStateException(Constants.WIN32_EXCEPTION);
-                        }
-
-                    }
-
-                    if (hOriginal != null) {
-                        result = GDI32.INSTANCE.SelectObject(hdcTargetMem, hOriginal);
-                        if (result == null || WinGDI.HGDI_ERROR.equals(result)) {
-                            throw new IllegalStateException(Constants.SELECT_OBJ_EXCEPTION);
-                        }
-                    }
-
-                    if (!GDI32.INSTANCE.DeleteObject(hBitmap)) {
-                        throw new IllegalStateException(Constants.DELETE_OBJ_EXCEPTION);
-                    }
-
-                    if (!GDI32.INSTANCE.DeleteDC(hdcTargetMem)) {
-                        throw new IllegalStateException(Constants.DELETE_DC_EXCEPTION);
-                    }
-
-                    if (0 == User32.INSTANCE.ReleaseDC(target, hdcTarget)) {
-                        throw new IllegalStateException(Constants.DEVICE_CONTEXT_RELEASE_EXCEPTION);
-                    }
-                }
-
-                return image;
+            }
+            hdcTargetMem = GDI32.INSTANCE.CreateCompatibleDC(hdcTarget);
+            if (hdcTargetMem == null) {
+                throw new Win32Exception(Native.getLastError());
+            }
+            BITMAPINFO bmi = new BITMAPINFO();
+            bmi.bmiHeader.biWidth = windowWidth;
+            bmi.bmiHeader.biHeight = -windowHeight;
+            bmi.bmiHeader.biPlanes = 1;
+            bmi.bmiHeader.biBitCount = 32;
+            bmi.bmiHeader.biCompression = 0;
+            PointerByReference bits = new PointerByReference();
+            hBitmap = GDI32.INSTANCE.CreateDIBSection(hdcTarget, bmi, WinGDI.DIB_RGB_COLORS, bits, null, 0);
+            if (hBitmap == null || bits.getValue() == null) {
+                throw new Win32Exception(Native.getLastError());
+            }
+            hOriginal = GDI32.INSTANCE.SelectObject(hdcTargetMem, hBitmap);
+            if (hOriginal == null) {
+                throw new Win32Exception(Native.getLastError());
+            }
+            Pointer pixels = bits.getValue();
+            buffer = pixels.getByteBuffer(0, (long) windowWidth * windowHeight * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } catch (Win32Exception e) {
+            throw new IllegalStateException(Constants.WIN32_EXCEPTION);
+        }
+
+    }
+
+    /**
+     * Release device contexts and the DIB section
+     */
+    public void releaseCaptureResources() {
 
+        buffer = null;
+        if (hOriginal != null && hdcTargetMem != null) {
+            HANDLE result = GDI32.INSTANCE.SelectObject(hdcTargetMem, hOriginal);
+            if (result == null || WinGDI.HGDI_ERROR.equals(result)) {
+                throw new IllegalStateException(Constants.SELECT_OBJ_EXCEPTION);
             }
-        } else {
-            throw new IllegalStateException(Constants.WINDOWS_EXCEPTION);
+            hOriginal = null;
+        }
+        if (hBitmap != null) {
+            if (!GDI32.INSTANCE.DeleteObject(hBitmap)) {
+                throw new IllegalStateException(Constants.DELETE_OBJ_EXCEPTION);
+            }
+            hBitmap = null;
+        }
+        if (hdcTargetMem != null) {
+            if (!GDI32.INSTANCE.DeleteDC(hdcTargetMem)) {
+                throw new IllegalStateException(Constants.DELETE_DC_EXCEPTION);
+            }
+            hdcTargetMem = null;
+        }
+        if (hdcTarget != null) {
+            if (0 == User32.INSTANCE.ReleaseDC(target, hdcTarget)) {
+                throw new IllegalStateException(Constants.DEVICE_CONTEXT_RELEASE_EXCEPTION);
+            }
+            hdcTarget = null;
         }
 
     }
 
-    static {
-        SCREENSHOT_BAND_MASKS = new int[]{SCREENSHOT_COLOR_MODEL.getRedMask(), SCREENSHOT_COLOR_MODEL.getGreenMask(), SCREENSHOT_COLOR_MODEL.getBlueMask()};
+    /**
+     * Take single picture at high framerate, the screen is copied inside the persistent DIB section.
+     * Returned buffer is overwritten by the next capture, callers must copy it out before capturing again.
+     * @return screenshot pixels, windowWidth * windowHeight ints packed as 0x00RRGGBB
+     */
+    public synchronized IntBuffer getScreenshot() {
+
+        Rectangle jRectangle = getTargetRectangle();
+        // Resources are recreated on resolution change or after being released
+        if (buffer == null || jRectangle.width != windowWidth || jRectangle.height != windowHeight) {
+            releaseCaptureResources();
+            createCaptureResources(jRectangle.width, jRectangle.height);
+        }
+        if (!GDI32.INSTANCE.BitBlt(hdcTargetMem, 0, 0, windowWidth, windowHeight, hdcTarget, 0, 0, GDI32.SRCCOPY)) {
+            throw new IllegalStateException(Constants.WIN32_EXCEPTION);
+        }
+        // Make sure GDI has finished writing into the DIB section before reading it
+        ExtendedGDI32.INSTANCE.GdiFlush();
+        return buffer;
+
     }
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,117 @@
+/*
+  FrameDumpWriter.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write raw frames to a dump that the REPLAY capture method plays back.
+ * File layout, little endian: frame width (int), frame height (int), then frames one after the other,
+ * width * height ints packed as 0x..RRGGBB for every frame, rows are packed without padding.
+ * Every frame in a dump has the same size, the file is truncated when the writer is created.
+ */
+public class FrameDumpWriter implements Closeable {
+
+    // Width and height
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    // Frame buffer reused between frames
+    private final ByteBuffer buffer;
+    private final IntBuffer pixels;
+
+    /**
+     * Create the dump and write the header
+     * @param dumpFile file to write
+     * @param width frame width
+     * @param height frame height
+     * @throws IOException can't write the file
+     */
+    public FrameDumpWriter(Path dumpFile, int width, int height) throws IOException {
+
+        this.width = width;
+        this.height = height;
+        buffer = ByteBuffer.allocateDirect(width * height * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        pixels = buffer.asIntBuffer();
+        channel = FileChannel.open(dumpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(width).putInt(height);
+        header.flip();
+        write(header);
+
+    }
+
+    /**
+     * Append a frame to the dump, scanline padding is dropped
+     * @param frame raw frame, must be of the dump size
+     * @return false if the frame size is not the dump size and the frame has been skipped
+     * @throws IOException can't write the file
+     */
+    public boolean write(RawFrame frame) throws IOException {
+
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            return false;
+        }
+        IntBuffer framePixels = frame.getPixels();
+        for (int y = 0; y < height; y++) {
+            pixels.put(y * width, framePixels, y * frame.getStride(), width);
+        }
+        buffer.clear();
+        write(buffer);
+        return true;
+
+    }
+
+    /**
+     * Write the whole buffer
+     * @param data buffer to write
+     * @throws IOException can't write the file
+     */
+    private void write(ByteBuffer data) throws IOException {
+
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+
+    }
+
+    /**
+     * Close the dump
+     * @throws IOException can't close the file
+     */
+    @Override
+    public void close() throws IOException {
+
+        channel.close();
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+  FrameProcessor.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processing stage shared by every FrameSource.
+ * Detects black bars, averages the pixels under every LED and puts the resulting LED frame in the shared queue.
+ */
+public class FrameProcessor {
+
+    // LED matrix in use and its aspect ratio, published together
+    private static volatile ActiveMatrix activeMatrix;
+    // Compiled sampling index for GPU resampled frames
+    private static final AtomicReference<SamplingIndex> samplingIndex = new AtomicReference<>();
+
+    /**
+     * Switch the LED matrix in use, the new matrix is used starting from next frame
+     * @param aspectRatio aspect ratio of the LED matrix to use
+     */
+    public static void switchLedMatrix(String aspectRatio) {
+
+        activeMatrix = new ActiveMatrix(aspectRatio, FireflyLuciferin.config.getLedMatrixInUse(aspectRatio));
+
+    }
+
+    /**
+     * LED matrix in use
+     * @return LED matrix
+     */
+    static LinkedHashMap<Integer, LEDCoordinate> getLedMatrix() {
+
+        return activeMatrix.ledMatrix;
+
+    }
+
+    /**
+     * CHECK_ASPECT_RATIO is true 10 times per second, if true and black bars auto detection is on, consume it
+     * @return true if black bars must be detected on this frame
+     */
+    static boolean isBlackBarsCheckDue() {
+
+        if (FireflyLuciferin.config.isAutoDetectBlackBars() && ImageProcessor.CHECK_ASPECT_RATIO) {
+            ImageProcessor.CHECK_ASPECT_RATIO = false;
+            return true;
+        }
+        return false;
+
+    }
+
+    /**
+     * Process a full screen raw frame
+     * @param frame raw frame pushed by a FrameSource
+     */
+    public static void process(RawFrame frame) {
+
+        if (isBlackBarsCheckDue()) {
+            ImageProcessor.autodetectBlackBars(frame.getWidth(), frame.getHeight(), frame.getStride(), frame.getPixels());
+        }
+        LEDFrame leds;
+        if (frame.getCoordinateSpace() == RawFrame.CoordinateSpace.GPU_RESAMPLED) {
+            leds = averageResampled(frame);
+        } else {
+            leds = averageFullResolution(frame);
+        }
+        leds.stamp(frame.getSequence(), frame.getCaptureTime());
+        publish(leds);
+
+    }
+
+    /**
+     * Process the border strips captured by the CPU
+     * @param strips border strips geometry
+     * @param pixels captured pixels for every strip
+     * @param detectBlackBars true if black bars detection lines has been captured
+     * @param sequence sequence number taken when the capture started
+     * @param captureTime System.nanoTime() when the capture started
+     */
+    static void process(BorderStrips strips, IntBuffer[] pixels, boolean detectBlackBars, long sequence, long captureTime) {
+
+        LinkedHashMap<Integer, LEDCoordinate> stripsLedMatrix = strips.getLedMatrix();
+        int osScaling = FireflyLuciferin.config.getOsScaling();
+        Rectangle[] stripRectangles = strips.getStrips();
+        int[] ledStrip = strips.getLedStrip();
+        LEDFrame leds = LEDFrame.acquire(stripsLedMatrix.size());
+        stripsLedMatrix.forEach((key, value) -> {
+            Rectangle strip = stripRectangles[ledStrip[key - 1]];
+            leds.setRGB(key - 1, ImageProcessor.getAverageColor(value, osScaling, true, pixels[ledStrip[key - 1]],
+                    strip.x, strip.y, strip.width, strips.getScreenWidth(), strips.getScreenHeight()));
+        });
+        // New aspect ratio will be used starting from next frame
+        if (detectBlackBars) {
+            ImageProcessor.autodetectBlackBars(strips.getScreenWidth(), strips.getScreenHeight(), (x, y) -> strips.getRGB(pixels, x, y));
+        }
+        leds.stamp(sequence, captureTime);
+        publish(leds);
+
+    }
+
+    /**
+     * Average a frame captured at full resolution, 6x6 samples for every LED
+     * @param frame raw frame
+     * @return frame of LEDs containing the avg color to be displayed on the LED strip
+     */
+    private static LEDFrame averageFullResolution(RawFrame frame) {
+
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrixToUse = activeMatrix.ledMatrix;
+        boolean osScaled = frame.getCoordinateSpace() == RawFrame.CoordinateSpace.OS_SCALED;
+        int osScaling = FireflyLuciferin.config.getOsScaling();
+        LEDFrame leds = LEDFrame.acquire(ledMatrixToUse.size());
+        // We need an ordered collection so no parallelStream here
+        ledMatrixToUse.forEach((key, value) ->
+            leds.setRGB(key - 1, ImageProcessor.getAverageColor(value, osScaling, osScaled, frame.getPixels(), 0, 0,
+                    frame.getStride(), frame.getWidth(), frame.getHeight()))
+        );
+        return leds;
+
+    }
+
+    /**
+     * Average a frame scaled by RESAMPLING_FACTOR inside the GPU using the compiled sampling index
+     * @param frame raw frame
+     * @return frame of LEDs containing the avg color to be displayed on the LED strip
+     */
+    private static LEDFrame averageResampled(RawFrame frame) {
+
+        IntBuffer rgbBuffer = frame.getPixels();
+        SamplingIndex index = getSamplingIndex(frame.getWidth(), frame.getHeight(), frame.getStride());
+        int[] offsets = index.getOffsets();
+        int[] ledStart = index.getLedStart();
+        int ledCount = index.getLedCount();
+        LEDFrame leds = LEDFrame.acquire(ledCount);
+        // Sampling offsets are pre resolved, just sum them
+        for (int led = 0; led < ledCount; led++) {
+            int r = 0, g = 0, b = 0;
+            int pickNumber = ledStart[led + 1] - ledStart[led];
+            for (int k = ledStart[led]; k < ledStart[led + 1]; k++) {
+                int rgb = rgbBuffer.get(offsets[k]);
+                r += rgb >> 16 & 0xFF;
+                g += rgb >> 8 & 0xFF;
+                b += rgb & 0xFF;
+            }
+            // No need for the square root here since we calculate the gamma
+            r = ImageProcessor.gammaCorrection(r / pickNumber);
+            g = ImageProcessor.gammaCorrection(g / pickNumber);
+            b = ImageProcessor.gammaCorrection(b / pickNumber);
+            if (FireflyLuciferin.config.isEyeCare() && (r+g+b) < 10) r = g = b = (Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2);
+            leds.setRGB(led, r, g, b);
+        }
+        return leds;
+
+    }
+
+    /**
+     * Get the sampling index for the LED matrix in use, compile it on aspect ratio or resolution change
+     * @param width frame width
+     * @param height frame height
+     * @param stride scanline stride in pixels
+     * @return compiled sampling index
+     */
+    static SamplingIndex getSamplingIndex(int width, int height, int stride) {
+
+        ActiveMatrix matrix = activeMatrix;
+        SamplingIndex index = samplingIndex.get();
+        if (index == null || !index.isCompiledFor(matrix.ledMatrix, width, height, stride)) {
+            index = SamplingIndex.getOrCompile(matrix.aspectRatio, matrix.ledMatrix, width, height, stride);
+            samplingIndex.set(index);
+        }
+        return index;
+
+    }
+
+    /**
+     * Put the LED frame in the queue, recycle the frame if the queue is full
+     * @param leds frame of LEDs
+     */
+    static void publish(LEDFrame leds) {
+
+        if (!FireflyLuciferin.sharedQueue.offer(leds)) {
+            leds.release();
+            FireflyLuciferin.DROPPED_FRAMES_COUNTER.incrementAndGet();
+        }
+        // Increase the FPS counter
+        FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+
+    }
+
+    /**
+     * LED matrix in use with its aspect ratio, swapped as a whole so readers never see a mismatched pair
+     */
+    private static final class ActiveMatrix {
+
+        private final String aspectRatio;
+        private final LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
+
+        /**
+         * Constructor
+         * @param aspectRatio aspect ratio of the LED matrix
+         * @param ledMatrix LED matrix
+         */
+        private ActiveMatrix(String aspectRatio, LinkedHashMap<Integer, LEDCoordinate> ledMatrix) {
+
+            this.aspectRatio = aspectRatio;
+            this.ledMatrix = ledMatrix;
+
+        }
+
+    }
+
+}
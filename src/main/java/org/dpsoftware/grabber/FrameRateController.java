@@ -0,0 +1,268 @@
+/*
+  FrameRateController.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.SerialPacketBuilder;
+import org.dpsoftware.SerialWriter;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.output.OutputFanOut;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed loop capture rate controller.
+ * Target framerate starts from desiredFramerate, capped by the serial link capacity only when the serial port is the only output.
+ * With a single output the target is lowered when Glow Worm Luciferin firmware reports that it can't keep up and it is raised
+ * again step by step when the firmware catches up. With several outputs the capture keeps its rate and the firmware feedback
+ * only lowers the framerate of the serial writer, the other outputs are never slowed down by the USB device.
+ * Polling sources claim capture slots spaced by the target period and get producers added or removed
+ * based on the measured capture latency, push sources drop frames arriving faster than the target.
+ */
+@Slf4j
+public class FrameRateController {
+
+    private static volatile float targetFramerate = Constants.UNLOCKED_FRAMERATE;
+    // Max framerate the serial link can carry, 0 if not streaming via USB
+    private static volatile float serialMaxFramerate;
+    // Framerate of the serial writer, the serial link capacity lowered when the firmware can't keep up, 0 if not streaming via USB
+    private static volatile float serialSinkFramerate;
+    private static volatile long framePeriodNanos = TimeUnit.SECONDS.toNanos(1) / Constants.UNLOCKED_FRAMERATE;
+    // Next free capture slot for polling producers
+    private static final AtomicLong nextSlot = new AtomicLong(Long.MIN_VALUE);
+    // Last frame accepted from a push source, System.nanoTime() can be negative
+    private static final AtomicLong lastPushedFrame = new AtomicLong(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+
+    /**
+     * Start the control loop
+     * @param scheduledExecutorService executor used by the control loop
+     */
+    public static void start(ScheduledExecutorService scheduledExecutorService) {
+
+        serialMaxFramerate = computeSerialMaxFramerate();
+        if (serialMaxFramerate > 0) {
+            log.info(Constants.SERIAL_MAX_FRAMERATE + String.format("%.1f", serialMaxFramerate) + " FPS");
+        }
+        serialSinkFramerate = serialMaxFramerate;
+        setTargetFramerate(getMaxFramerate(OutputFanOut.getSinkTypes(FireflyLuciferin.config)));
+        scheduledExecutorService.scheduleAtFixedRate(FrameRateController::adjust, 1, 1, TimeUnit.SECONDS);
+
+    }
+
+    /**
+     * Max capture framerate, the one requested by the user capped by what the serial link can carry
+     * if the serial port is the only output
+     * @param sinkTypes outputs in use
+     * @return max framerate, UNLOCKED_FRAMERATE if unlocked and not capped
+     */
+    static float getMaxFramerate(List<Constants.OutputSinkType> sinkTypes) {
+
+        String desiredFramerate = FireflyLuciferin.config.getDesiredFramerate();
+        float maxFramerate = Constants.UNLOCKED.equals(desiredFramerate) ? Constants.UNLOCKED_FRAMERATE : Float.parseFloat(desiredFramerate);
+        float serialCap = serialMaxFramerate;
+        if (serialCap > 0 && sinkTypes.size() == 1) {
+            return Math.min(maxFramerate, serialCap);
+        }
+        return maxFramerate;
+
+    }
+
+    /**
+     * Theoretical max framerate of the serial link with the protocol and the color depth negotiated with the firmware.
+     * Packets smaller than a full frame (delta encoding) written by the serial writer raise the max framerate.
+     * @return max framerate, 0 if not streaming via USB
+     */
+    static float computeSerialMaxFramerate() {
+
+        if (!OutputFanOut.getSinkTypes(FireflyLuciferin.config).contains(Constants.OutputSinkType.SERIAL)) {
+            return 0;
+        }
+        SerialWriter serialWriter = FireflyLuciferin.getSerialWriter();
+        return computeSerialMaxFramerate(SerialPacketBuilder.getFullFrameSize(FireflyLuciferin.ledNumber),
+                serialWriter != null ? serialWriter.getAveragePacketSize() : 0);
+
+    }
+
+    /**
+     * Theoretical max framerate of the serial link, every byte is 10 bits on the wire (8N1)
+     * @param fullFrameSize size of a full frame in bytes
+     * @param averagePacketSize average size of the packets written, 0 if nothing has been written
+     * @return max framerate
+     */
+    static float computeSerialMaxFramerate(int fullFrameSize, float averagePacketSize) {
+
+        float packetSize = averagePacketSize > 0 ? Math.min(fullFrameSize, averagePacketSize) : fullFrameSize;
+        return Float.parseFloat(FireflyLuciferin.config.getBaudRate()) / (packetSize * Constants.SERIAL_BITS_PER_BYTE);
+
+    }
+
+    /**
+     * Max framerate the serial link can carry
+     * @return max framerate, 0 if not streaming via USB
+     */
+    public static float getSerialMaxFramerate() {
+
+        return serialMaxFramerate;
+
+    }
+
+    /**
+     * Framerate of the serial writer, frames coming faster are skipped and only the newest is written
+     * @return max framerate, 0 if not streaming via USB
+     */
+    public static float getSerialSinkFramerate() {
+
+        return serialSinkFramerate;
+
+    }
+
+    /**
+     * Serial link capacity not used by the frames sent in the last 5 seconds
+     * @return headroom percentage, 0 to 100
+     */
+    public static float getSerialHeadroom() {
+
+        float serialCap = serialMaxFramerate;
+        if (serialCap <= 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(100, ((serialCap - FireflyLuciferin.FPS_CONSUMER) * 100) / serialCap));
+
+    }
+
+    /**
+     * Target framerate in use
+     * @return target framerate
+     */
+    public static float getTargetFramerate() {
+
+        return targetFramerate;
+
+    }
+
+    /**
+     * Set a new target framerate
+     * @param framerate new target framerate
+     */
+    private static void setTargetFramerate(float framerate) {
+
+        targetFramerate = framerate;
+        framePeriodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / framerate);
+
+    }
+
+    /**
+     * Control loop, runs once per second
+     */
+    static void adjust() {
+
+        // LED number, baud rate and outputs can change at runtime
+        List<Constants.OutputSinkType> sinkTypes = OutputFanOut.getSinkTypes(FireflyLuciferin.config);
+        serialMaxFramerate = computeSerialMaxFramerate();
+        float maxFramerate = getMaxFramerate(sinkTypes);
+        float target;
+        if (sinkTypes.size() == 1) {
+            // Don't capture frames that the only device will never display
+            target = follow(targetFramerate, maxFramerate);
+            serialSinkFramerate = serialMaxFramerate;
+        } else {
+            // Other outputs keep the capture rate, only the serial writer slows down
+            target = maxFramerate;
+            float serialFramerate = serialSinkFramerate > 0 ? serialSinkFramerate : serialMaxFramerate;
+            serialSinkFramerate = serialMaxFramerate > 0 ? follow(serialFramerate, serialMaxFramerate) : 0;
+        }
+        if (target != targetFramerate) {
+            setTargetFramerate(target);
+            if (FireflyLuciferin.config.isExtendedLog()) {
+                log.debug("Target framerate: " + target + " FPS");
+            }
+        }
+        if (FireflyLuciferin.frameSource instanceof PollingFrameSource pollingFrameSource) {
+            pollingFrameSource.adjustProducers(target);
+        }
+
+    }
+
+    /**
+     * Next framerate of a closed loop, lowered when the firmware can't keep up, raised step by step when it keeps up
+     * @param framerate framerate in use
+     * @param maxFramerate max framerate
+     * @return next framerate
+     */
+    private static float follow(float framerate, float maxFramerate) {
+
+        float deviceFramerate = FireflyLuciferin.FPS_GW_CONSUMER;
+        float next;
+        if (!FireflyLuciferin.RUNNING) {
+            next = maxFramerate;
+        } else if (FireflyLuciferin.config.isSyncCheck() && deviceFramerate > 0
+                && deviceFramerate < framerate - Constants.BENCHMARK_ERROR_MARGIN) {
+            // Firmware can't keep up
+            next = deviceFramerate + Constants.BENCHMARK_ERROR_MARGIN;
+        } else {
+            // Firmware keeps up, probe a higher framerate
+            next = framerate + Math.max(1, framerate * Constants.FRAMERATE_STEP_UP);
+        }
+        return Math.max(Constants.MIN_FRAMERATE, Math.min(maxFramerate, next));
+
+    }
+
+    /**
+     * Claim the next capture slot, slots are spaced by the target frame period
+     * @return System.nanoTime() when the capture should start
+     */
+    static long claimSlot() {
+
+        long now = System.nanoTime();
+        long period = framePeriodNanos;
+        while (true) {
+            long slot = nextSlot.get();
+            // Slots missed by late producers are not recovered, no burst of captures after a slow one
+            long claimed = Math.max(slot, now);
+            if (nextSlot.compareAndSet(slot, claimed + period)) {
+                return claimed;
+            }
+        }
+
+    }
+
+    /**
+     * Check if a frame pushed by the source must be processed or dropped because it arrived too early
+     * @return true if the frame must be processed
+     */
+    static boolean acceptPushedFrame() {
+
+        long now = System.nanoTime();
+        long last = lastPushedFrame.get();
+        // Accept a small jitter, a source running exactly at the target framerate must not lose frames
+        if (now - last >= framePeriodNanos - (framePeriodNanos / 5)) {
+            return lastPushedFrame.compareAndSet(last, now);
+        }
+        return false;
+
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+  FrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.config.Configuration;
+
+import java.awt.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Screen capture backend, there is one implementation for every capture method.
+ * Sources only capture raw frames and push them to the FrameProcessor,
+ * LED averaging, black bars detection and queueing are shared by every source.
+ * Sources produce frames only while FireflyLuciferin.RUNNING is true.
+ */
+public interface FrameSource {
+
+    /**
+     * Start producing frames
+     * @param scheduledExecutorService executor used by producers and watchdogs
+     * @throws AWTException GUI exception
+     */
+    void start(ScheduledExecutorService scheduledExecutorService) throws AWTException;
+
+    /**
+     * Stop producing frames, release what is expensive to keep while capture is stopped
+     */
+    void stop();
+
+    /**
+     * Create the source for a capture method
+     * @param captureMethod capture method in use
+     * @param imageProcessor image processor, used to init native libraries
+     * @param producerNumber number of producers for sources that poll the screen
+     * @return frame source
+     */
+    static FrameSource create(Configuration.CaptureMethod captureMethod, ImageProcessor imageProcessor, int producerNumber) {
+
+        return switch (captureMethod) {
+            case CPU -> new RobotFrameSource(producerNumber);
+            case WinAPI -> new GDIFrameSource(producerNumber);
+            case DDUPL, XIMAGESRC, AVFVIDEOSRC -> new GStreamerFrameSource(imageProcessor);
+            case SYNTHETIC -> new SyntheticFrameSource();
+            case REPLAY -> new ReplayFrameSource();
+        };
+
+    }
+
+}
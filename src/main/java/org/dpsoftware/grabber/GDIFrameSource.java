@@ -0,0 +1,89 @@
+/*
+  GDIFrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import java.nio.IntBuffer;
+
+/**
+ * Windows screen capture using WinAPI GDI32, many producers poll the screen
+ */
+public class GDIFrameSource extends PollingFrameSource {
+
+    // Pixels copied out of the DIB section, one buffer per producer reused across frames
+    private final IntBuffer[] producerPixels;
+
+    /**
+     * Constructor
+     * @param maxProducers max number of producers polling the screen
+     */
+    public GDIFrameSource(int maxProducers) {
+
+        super(maxProducers);
+        producerPixels = new IntBuffer[Math.max(1, maxProducers)];
+
+    }
+
+    /**
+     * Release GDI resources while capture is stopped, they are created again on next capture
+     */
+    @Override
+    public void stop() {
+
+        CustomGDI32Util customGDI32Util = ImageProcessor.customGDI32Util;
+        if (customGDI32Util != null) {
+            synchronized (customGDI32Util) {
+                customGDI32Util.releaseCaptureResources();
+            }
+        }
+
+    }
+
+    /**
+     * Capture the screen, the lock on the DIB section is held only while copying the pixels out of it.
+     * Every producer analyzes its own copy so producers overlap processing with the next capture.
+     * @param producerIndex index of the producer, zero based
+     * @param rawFrame raw frame owned by the producer
+     */
+    @Override
+    protected void capture(int producerIndex, RawFrame rawFrame) {
+
+        CustomGDI32Util customGDI32Util = ImageProcessor.customGDI32Util;
+        int width, height;
+        IntBuffer pixels;
+        // DIB section is overwritten by the next capture, copy it before another producer captures again
+        synchronized (customGDI32Util) {
+            rawFrame.stamp();
+            IntBuffer screenshot = customGDI32Util.getScreenshot();
+            width = customGDI32Util.getWindowWidth();
+            height = customGDI32Util.getWindowHeight();
+            pixels = producerPixels[producerIndex];
+            if (pixels == null || pixels.capacity() != width * height) {
+                pixels = IntBuffer.allocate(width * height);
+                producerPixels[producerIndex] = pixels;
+            }
+            screenshot.get(0, pixels.array(), 0, width * height);
+        }
+        FrameProcessor.process(rawFrame.set(pixels, width, height, width, RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.NATIVE));
+
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+  GStreamerFrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.NativeExecutor;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.PipelineManager;
+import org.freedesktop.gstreamer.Bin;
+import org.freedesktop.gstreamer.Gst;
+import org.freedesktop.gstreamer.Pipeline;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GPU Hardware Acceleration using GStreamer (Windows Desktop Duplication API, XIMAGESRC, AVFVIDEOSRC).
+ * Frames are pushed by the GStreamer streaming thread, a watchdog restarts the pipeline when it stalls.
+ */
+@Slf4j
+public class GStreamerFrameSource implements FrameSource {
+
+    private final ImageProcessor imageProcessor;
+    // GStreamer Rendering pipeline
+    private volatile Pipeline pipe;
+
+    /**
+     * Constructor
+     * @param imageProcessor image processor, used to init GStreamer libraries
+     */
+    public GStreamerFrameSource(ImageProcessor imageProcessor) {
+
+        this.imageProcessor = imageProcessor;
+
+    }
+
+    /**
+     * Init GStreamer and start the pipeline watchdog
+     * @param scheduledExecutorService executor service used to restart grabbing if it fails
+     */
+    @Override
+    public void start(ScheduledExecutorService scheduledExecutorService) {
+
+        imageProcessor.initGStreamerLibraryPaths();
+        //System.setProperty("gstreamer.GNative.nameFormats", "%s-0|lib%s-0|%s|lib%s");
+        Gst.init(Constants.SCREEN_GRABBER, "");
+        AtomicInteger pipelineRetry = new AtomicInteger();
+
+        scheduledExecutorService.scheduleAtFixedRate(() -> {
+            if (!PipelineManager.pipelineStopping && FireflyLuciferin.RUNNING && FireflyLuciferin.FPS_PRODUCER_COUNTER == 0) {
+                pipelineRetry.getAndIncrement();
+                if (pipe == null || !pipe.isPlaying() || pipelineRetry.get() >= 2) {
+                    if (pipe != null) {
+                        log.debug("Restarting pipeline");
+                        pipe.stop();
+                    } else {
+                        log.debug("Starting a new pipeline");
+                    }
+                    startPipeline();
+                }
+            } else {
+                pipelineRetry.set(0);
+            }
+        }, 1, 2, TimeUnit.SECONDS);
+
+    }
+
+    /**
+     * Stop the pipeline, the watchdog starts it again when capture is resumed
+     */
+    @Override
+    public void stop() {
+
+        if (pipe != null) {
+            pipe.stop();
+        }
+
+    }
+
+    /**
+     * Create and play a new pipeline
+     */
+    private void startPipeline() {
+
+        GStreamerGrabber vc = new GStreamerGrabber();
+        Bin bin;
+        if (NativeExecutor.isWindows()) {
+            bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_WINDOWS
+                    .replace("{0}", String.valueOf(FireflyLuciferin.config.getMonitorNumber() - 1)),true);
+        } else if (NativeExecutor.isLinux()) {
+            bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_LINUX
+                    .replace("{0}", String.valueOf(FireflyLuciferin.config.getMonitorNumber())),true);
+        } else {
+            bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_MAC,true);
+        }
+        Pipeline newPipe = new Pipeline();
+        newPipe.addMany(bin, vc.getElement());
+        Pipeline.linkMany(bin, vc.getElement());
+        JFrame f = new JFrame(Constants.SCREEN_GRABBER);
+        f.add(vc);
+        vc.setPreferredSize(new Dimension(FireflyLuciferin.config.getScreenResX(), FireflyLuciferin.config.getScreenResY()));
+        f.pack();
+        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        pipe = newPipe;
+        newPipe.play();
+        f.setVisible(false);
+
+    }
+
+}
@@ -23,17 +23,17 @@ package org.dpsoftware.grabber;
 
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
-import org.dpsoftware.LEDCoordinate;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.freedesktop.gstreamer.*;
 import org.freedesktop.gstreamer.elements.AppSink;
 
 import java.awt.*;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.util.LinkedHashMap;
+import java.nio.file.Path;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -46,8 +46,6 @@ public class GStreamerGrabber extends javax.swing.JComponent {
 
     private final Lock bufferLock = new ReentrantLock();
     private final AppSink videosink;
-    public static LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
-    int pixelToUse = 6;
 
     /**
      * Creates a new instance of GstVideoComponent
@@ -55,7 +53,6 @@ public class GStreamerGrabber extends javax.swing.JComponent {
     public GStreamerGrabber() {
 
         this(new AppSink("GstVideoComponent"));
-        ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
 
     }
 
@@ -83,7 +80,7 @@ public class GStreamerGrabber extends javax.swing.JComponent {
         if (!Constants.UNLOCKED.equals(FireflyLuciferin.config.getDesiredFramerate())) {
             gstreamerPipeline += Constants.FRAMERATE_PLACEHOLDER.replaceAll("FRAMERATE_PLACEHOLDER", FireflyLuciferin.config.getDesiredFramerate());
         } else {
-            gstreamerPipeline += Constants.FRAMERATE_PLACEHOLDER.replaceAll("FRAMERATE_PLACEHOLDER", "144");
+            gstreamerPipeline += Constants.FRAMERATE_PLACEHOLDER.replaceAll("FRAMERATE_PLACEHOLDER", String.valueOf(Constants.UNLOCKED_FRAMERATE));
         }
         StringBuilder caps = new StringBuilder(gstreamerPipeline);
         // JNA creates ByteBuffer using native byte order, set masks according to that.
@@ -116,67 +113,52 @@ public class GStreamerGrabber extends javax.swing.JComponent {
      */
     private class AppSinkListener implements AppSink.NEW_SAMPLE {
 
+        // Frames are delivered by the streaming thread one at a time, reuse the same holder
+        private final RawFrame rawFrame = new RawFrame();
+        // Captured frames are written here when a dump file is configured, writing stops on the first error
+        private FrameDumpWriter frameDump;
+        private boolean frameDumpFailed;
+
         public void rgbFrame(int width, int height, IntBuffer rgbBuffer) {
 
+            // Frames arriving faster than the target framerate are not processed
+            if (!FrameRateController.acceptPushedFrame()) {
+                return;
+            }
             // If the EDT is still copying data from the buffer, just drop this frame
             if (!bufferLock.tryLock()) {
                 return;
             }
 
-            int intBufferSize = (width*height)-1;
-
-            // CHECK_ASPECT_RATIO is true 10 times per second, if true and black bars auto detection is on, auto detect black bars
-            if (FireflyLuciferin.config.isAutoDetectBlackBars()) {
-                if (ImageProcessor.CHECK_ASPECT_RATIO) {
-                    ImageProcessor.CHECK_ASPECT_RATIO = false;
-                    ImageProcessor.autodetectBlackBars(width, height, rgbBuffer);
+            try {
+                FrameProcessor.process(rawFrame.set(rgbBuffer, width, height, width,
+                        RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.GPU_RESAMPLED));
+                if (!frameDumpFailed && !FireflyLuciferin.config.getDumpFile().isEmpty()) {
+                    dump(rawFrame);
                 }
+            } finally {
+                bufferLock.unlock();
             }
+        }
 
-            try {
-                Color[] leds = new Color[ledMatrix.size()];
-                // We need an ordered collection so no parallelStream here
-                ledMatrix.forEach((key, value) -> {
-                    int r = 0, g = 0, b = 0;
-                    int skipPixel = 1;
-                    // 6 pixel for X axis and 6 pixel for Y axis
-                    pixelToUse = (value.getDimension() / Constants.RESAMPLING_FACTOR) - 2;
-                    int pixelInUse = pixelToUse <= 0 ? 1 : pixelToUse;
-                    int pickNumber = 0;
-                    // Image grabbed has been scaled by RESAMPLING_FACTOR inside the GPU, convert coordinate to match this scale
-                    int xCoordinate = (value.getX() / Constants.RESAMPLING_FACTOR) + 2;
-                    int yCoordinate = (value.getY() / Constants.RESAMPLING_FACTOR) + 2;
-                    // We start with a negative offset
-                    for (int x = 0; x < pixelInUse; x++) {
-                        for (int y = 0; y < pixelInUse; y++) {
-                            int offsetX = (xCoordinate + (skipPixel * x));
-                            int offsetY = (yCoordinate + (skipPixel * y));
-                            int bufferOffset = (Math.min(offsetX, width))
-                                    + ((offsetY < height) ? (offsetY * width) : (height * width));
-                            int rgb = rgbBuffer.get(Math.min(intBufferSize, bufferOffset));
-                            r += rgb >> 16 & 0xFF;
-                            g += rgb >> 8 & 0xFF;
-                            b += rgb & 0xFF;
-                            pickNumber++;
-                        }
-                    }
-                    // No need for the square root here since we calculate the gamma
-                    r = ImageProcessor.gammaCorrection(r / pickNumber);
-                    g = ImageProcessor.gammaCorrection(g / pickNumber);
-                    b = ImageProcessor.gammaCorrection(b / pickNumber);
-                    if (FireflyLuciferin.config.isEyeCare() && (r+g+b) < 10) r = g = b = (Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2);
-                    leds[key - 1] = new Color(r, g, b);
-                });
-
-                // Put the image in the queue
-                FireflyLuciferin.sharedQueue.offer(leds);
-
-                // Increase the FPS counter
-                FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+        /**
+         * Append the frame to the dump file, the dump is created with the first frame and replayed by the REPLAY capture method
+         * @param frame captured frame
+         */
+        private void dump(RawFrame frame) {
 
-            } finally {
-                bufferLock.unlock();
+            String dumpFile = FireflyLuciferin.config.getDumpFile();
+            try {
+                if (frameDump == null) {
+                    frameDump = new FrameDumpWriter(Path.of(dumpFile), frame.getWidth(), frame.getHeight());
+                    log.info(Constants.DUMP_FILE_IN_USE + frame.getWidth() + "x" + frame.getHeight() + " " + dumpFile);
+                }
+                frameDump.write(frame);
+            } catch (IOException e) {
+                log.error(Constants.DUMP_FILE_ERROR + dumpFile + " " + e.getMessage());
+                frameDumpFailed = true;
             }
+
         }
 
         /**
@@ -186,6 +168,7 @@ public class GStreamerGrabber extends javax.swing.JComponent {
          */
         @Override
         public FlowReturn newSample(AppSink elem) {
+            rawFrame.stamp();
             Sample sample = elem.pullSample();
             Structure capsStruct = sample.getCaps().getStructure(0);
             int w = capsStruct.getInteger(Constants.WIDTH);
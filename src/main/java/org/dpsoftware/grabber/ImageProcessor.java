@@ -27,19 +27,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.LEDCoordinate;
 import org.dpsoftware.NativeExecutor;
-import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.managers.MQTTManager;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.nio.IntBuffer;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntBinaryOperator;
 
 /**
  * Convert screen capture into a "readable signal" for LED strip
@@ -49,19 +51,20 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class ImageProcessor {
     
-    // Only one instace must be used, Java Garbage Collector will not be fast enough in freeing memory with more instances
-    static BufferedImage screen;
     //Get JNA User32 Instace
     com.sun.jna.platform.win32.User32 user32;
     //Get desktop windows handler
     WinDef.HWND hwnd;
-    // LED Matrix Map
-    static LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
     // Screen capture rectangle
     static Rectangle rect;
     // Custom JNA Class for GDI32Util
     static CustomGDI32Util customGDI32Util;
     public static boolean CHECK_ASPECT_RATIO = true;
+    // CPU and WinAPI sampling, 6 pixel for X axis and 6 pixel for Y axis, one every 5 pixels
+    static final int SKIP_PIXEL = 5;
+    static final int PIXEL_TO_USE = 6;
+    // Gamma lookup table, one entry for every channel value, swapped as a whole when gamma changes
+    private static volatile int[] gammaTable;
 
     /**
      * Constructor
@@ -73,51 +76,30 @@ public class ImageProcessor {
             hwnd = user32.GetDesktopWindow();
             customGDI32Util = new CustomGDI32Util(hwnd);
         }
-        ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
+        FrameProcessor.switchLedMatrix(FireflyLuciferin.config.getDefaultLedMatrix());
+        updateGamma(FireflyLuciferin.config.getGamma());
         rect = new Rectangle(new Dimension((FireflyLuciferin.config.getScreenResX()*100)/FireflyLuciferin.config.getOsScaling(), (FireflyLuciferin.config.getScreenResY()*100)/FireflyLuciferin.config.getOsScaling()));
 
     }
 
     /**
-     * Screen Capture and analysis
-     *
-     * @param robot an AWT Robot instance for screen capture.
-     *              One instance every three threads seems to be the hot spot for performance.
-     * @param image screenshot image
-     * @return array of LEDs containing the avg color to be displayed on the LED strip
+     * Get the pixels backing the captured image, packed as 0xRRGGBB with scanline stride equal to the image width.
+     * Robot and WinAPI captures are backed by a DataBufferInt, read it directly without copies.
+     * @param image captured image
+     * @return image pixels
      */
-    public static Color[] getColors(Robot robot, BufferedImage image) {
-
-        // Choose between CPU and GPU acceleration
-        if (image == null) {
-            if (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.WinAPI.name())) {
-                screen = customGDI32Util.getScreenshot();
-            } else {
-                screen = robot.createScreenCapture(rect);
-            }
-            //ImageIO.write(bi, "png", new java.io.File("screenshot.png"));
-        } else {
-            screen = image;
-        }
-
-        // CHECK_ASPECT_RATIO is true 10 times per second, if true and black bars auto detection is on, auto detect black bars
-        if (FireflyLuciferin.config.isAutoDetectBlackBars()) {
-            if (ImageProcessor.CHECK_ASPECT_RATIO) {
-                ImageProcessor.CHECK_ASPECT_RATIO = false;
-                ImageProcessor.autodetectBlackBars(screen.getWidth(), screen.getHeight(), null);
-                ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
-            }
+    static int[] getPixels(BufferedImage image) {
+
+        WritableRaster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt dataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel
+                && sampleModel.getScanlineStride() == image.getWidth()
+                && dataBufferInt.getNumBanks() == 1 && dataBufferInt.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            return dataBufferInt.getData();
         }
-
-        int osScaling = FireflyLuciferin.config.getOsScaling();
-        Color[] leds = new Color[ledMatrix.size()];
-
-        // We need an ordered collection so no parallelStream here
-        ledMatrix.forEach((key, value) ->
-            leds[key - 1] = getAverageColor(value, osScaling)
-        );
-
-        return leds;
+        // Image is not backed by packed ints, convert it (slow path)
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
 
     }
 
@@ -126,30 +108,36 @@ public class ImageProcessor {
      *
      * @param ledCoordinate led X,Y coordinates
      * @param osScaling OS scaling percentage
-     * @return the average color
+     * @param cpuCapture true if LED coordinates must be scaled by OS scaling
+     * @param pixels captured pixels packed as 0xRRGGBB
+     * @param originX screen X coordinate of the first captured pixel
+     * @param originY screen Y coordinate of the first captured pixel
+     * @param stride captured pixels scanline stride
+     * @param screenWidth screen width
+     * @param screenHeight screen height
+     * @return the average color packed as 0xRRGGBB
      */
-    static Color getAverageColor(LEDCoordinate ledCoordinate, int osScaling) {
+    static int getAverageColor(LEDCoordinate ledCoordinate, int osScaling, boolean cpuCapture, IntBuffer pixels,
+                               int originX, int originY, int stride, int screenWidth, int screenHeight) {
 
         int r = 0, g = 0, b = 0;
-        int skipPixel = 5;
-        // 6 pixel for X axis and 6 pixel for Y axis
-        int pixelToUse = 6;
+        int skipPixel = SKIP_PIXEL;
+        int pixelToUse = PIXEL_TO_USE;
         int pickNumber = 0;
-        int width = screen.getWidth()-(skipPixel*pixelToUse);
-        int height = screen.getHeight()-(skipPixel*pixelToUse);
-        int xCoordinate = !(FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.CPU.name())) ? ledCoordinate.getX() : ((ledCoordinate.getX() * 100) / osScaling);
-        int yCoordinate = !(FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.CPU.name())) ? ledCoordinate.getY() : ((ledCoordinate.getY() * 100) / osScaling);
+        int width = screenWidth-(skipPixel*pixelToUse);
+        int height = screenHeight-(skipPixel*pixelToUse);
+        int xCoordinate = !cpuCapture ? ledCoordinate.getX() : ((ledCoordinate.getX() * 100) / osScaling);
+        int yCoordinate = !cpuCapture ? ledCoordinate.getY() : ((ledCoordinate.getY() * 100) / osScaling);
 
         // We start with a negative offset
         for (int x = 0; x < pixelToUse; x++) {
             for (int y = 0; y < pixelToUse; y++) {
                 int offsetX = (xCoordinate + (skipPixel*x));
                 int offsetY = (yCoordinate + (skipPixel*y));
-                int rgb = screen.getRGB(Math.min(offsetX, width), Math.min(offsetY, height));
-                Color color = new Color(rgb);
-                r += color.getRed();
-                g += color.getGreen();
-                b += color.getBlue();
+                int rgb = pixels.get((Math.min(offsetX, width) - originX) + ((Math.min(offsetY, height) - originY) * stride));
+                r += rgb >> 16 & 0xFF;
+                g += rgb >> 8 & 0xFF;
+                b += rgb & 0xFF;
                 pickNumber++;
             }
         }
@@ -158,19 +146,34 @@ public class ImageProcessor {
         b = gammaCorrection(b / pickNumber);
         if (FireflyLuciferin.config.isEyeCare() && (r+g+b) < 10) r = g = b = (Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2);
 
-        return new Color(r, g, b);
+        return (r << 16) | (g << 8) | b;
 
     }
 
     /**
      * Adjust gamma based on a given color
      *
-     * @param color the color to adjust
+     * @param color the color to adjust, from 0 to 255
      * @return the average color
      */
     public static int gammaCorrection(int color) {
 
-        return (int) (255.0 *  Math.pow((color/255.0), FireflyLuciferin.config.getGamma()));
+        return gammaTable[color];
+
+    }
+
+    /**
+     * Rebuild the gamma lookup table, Math.pow is called only here and not for every LED in every frame.
+     * The configuration is not touched, callers store the gamma where they keep the settings.
+     * @param gamma new gamma value
+     */
+    public static void updateGamma(double gamma) {
+
+        int[] table = new int[256];
+        for (int color = 0; color < table.length; color++) {
+            table[color] = (int) (255.0 *  Math.pow((color/255.0), gamma));
+        }
+        gammaTable = table;
 
     }
 
@@ -236,15 +239,28 @@ public class ImageProcessor {
      * Auto detect black bars when screen grabbing, set Fullscreen, Letterbox or Pillarbox accordingly
      * @param width screen width with scale ratio
      * @param height screen height with scale ratio
+     * @param stride scanline stride in pixels
      * @param rgbBuffer full screen captured buffer
      */
-    public static void autodetectBlackBars(int width, int height, IntBuffer rgbBuffer) {
+    public static void autodetectBlackBars(int width, int height, int stride, IntBuffer rgbBuffer) {
+
+        int intBufferSize = (stride*height)-1;
+        autodetectBlackBars(width, height, (x, y) -> rgbBuffer.get(Math.min(intBufferSize, x + (y * stride))));
+
+    }
+
+    /**
+     * Auto detect black bars when screen grabbing, set Fullscreen, Letterbox or Pillarbox accordingly
+     * @param width screen width with scale ratio
+     * @param height screen height with scale ratio
+     * @param pixelReader read the pixel at X, Y coordinates, coordinates can be equal to width or height
+     */
+    static void autodetectBlackBars(int width, int height, IntBinaryOperator pixelReader) {
 
-        int intBufferSize = (width*height)-1;
         int[][] blackPixelMatrix;
-        blackPixelMatrix = calculateBlackPixels(Constants.AspectRatio.LETTERBOX, width, height, intBufferSize, rgbBuffer);
+        blackPixelMatrix = calculateBlackPixels(Constants.AspectRatio.LETTERBOX, width, height, pixelReader);
         boolean letterbox = switchAspectRatio(Constants.AspectRatio.LETTERBOX, blackPixelMatrix, false);
-        blackPixelMatrix = calculateBlackPixels(Constants.AspectRatio.PILLARBOX, width, height, intBufferSize, rgbBuffer);
+        blackPixelMatrix = calculateBlackPixels(Constants.AspectRatio.PILLARBOX, width, height, pixelReader);
         boolean pillarbox = false;
         if (!letterbox) {
             pillarbox = switchAspectRatio(Constants.AspectRatio.PILLARBOX, blackPixelMatrix, false);
@@ -261,11 +277,10 @@ public class ImageProcessor {
      * @param aspectRatio If not Letterbox is Pillarbox
      * @param width screen width with scale ratio
      * @param height screen height with scale ratio
-     * @param intBufferSize buffer size
-     * @param rgbBuffer full screen captured buffer
+     * @param pixelReader read the pixel at X, Y coordinates
      * @return black pixels array, 0 for light pixel, 1 for black pixel
      */
-    static int[][] calculateBlackPixels(Constants.AspectRatio aspectRatio, int width, int height, int intBufferSize, IntBuffer rgbBuffer) {
+    static int[][] calculateBlackPixels(Constants.AspectRatio aspectRatio, int width, int height, IntBinaryOperator pixelReader) {
 
         int[][] blackPixelMatrix = new int[3][Constants.NUMBER_OF_AREA_TO_CHECK];
         int offsetX;
@@ -298,20 +313,10 @@ public class ImageProcessor {
                 offsetY = chunkSizeOffset;
             }
             int r, g, b;
-            // DUPL
-            if (rgbBuffer != null) {
-                int bufferOffset = (Math.min(offsetX, width)) + ((offsetY < height) ? (offsetY * width) : (height * width));
-                int rgb = rgbBuffer.get(Math.min(intBufferSize, bufferOffset));
-                r = rgb >> 16 & 0xFF;
-                g = rgb >> 8 & 0xFF;
-                b = rgb & 0xFF;
-            } else { // Other methods
-                int rgb = screen.getRGB(Math.min(offsetX, width), Math.min(offsetY, height));
-                Color color = new Color(rgb);
-                r = color.getRed();
-                g = color.getGreen();
-                b = color.getBlue();
-            }
+            int rgb = pixelReader.applyAsInt(Math.min(offsetX, width), Math.min(offsetY, height));
+            r = rgb >> 16 & 0xFF;
+            g = rgb >> 8 & 0xFF;
+            b = rgb & 0xFF;
             if (r <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE && g <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE && b <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE) {
                 blackPixelMatrix[j][columnRowIndex] = 1;
             } else {
@@ -338,7 +343,7 @@ public class ImageProcessor {
         if (topMatrix == Constants.NUMBER_OF_AREA_TO_CHECK && centerMatrix < Constants.NUMBER_OF_AREA_TO_CHECK && bottomMatrix == Constants.NUMBER_OF_AREA_TO_CHECK) {
             if (!FireflyLuciferin.config.getDefaultLedMatrix().equals(aspectRatio.getAspectRatio())) {
                 FireflyLuciferin.config.setDefaultLedMatrix(aspectRatio.getAspectRatio());
-                GStreamerGrabber.ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(aspectRatio.getAspectRatio());
+                FrameProcessor.switchLedMatrix(aspectRatio.getAspectRatio());
                 log.debug("Switching to " + aspectRatio.getAspectRatio() + " aspect ratio.");
                 if (FireflyLuciferin.config.isMqttEnable()) {
                     MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, aspectRatio.getAspectRatio());
@@ -349,7 +354,7 @@ public class ImageProcessor {
             if (!FireflyLuciferin.config.getDefaultLedMatrix().equals(Constants.AspectRatio.FULLSCREEN.getAspectRatio())) {
                 if (setFullscreen) {
                     FireflyLuciferin.config.setDefaultLedMatrix(Constants.AspectRatio.FULLSCREEN.getAspectRatio());
-                    GStreamerGrabber.ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(Constants.AspectRatio.FULLSCREEN.getAspectRatio());
+                    FrameProcessor.switchLedMatrix(Constants.AspectRatio.FULLSCREEN.getAspectRatio());
                     log.debug("Switching to " + Constants.AspectRatio.FULLSCREEN.getAspectRatio() + " aspect ratio.");
                     if (FireflyLuciferin.config.isMqttEnable()) {
                         MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, Constants.AspectRatio.FULLSCREEN.getAspectRatio());
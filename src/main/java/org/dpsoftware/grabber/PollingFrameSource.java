@@ -0,0 +1,220 @@
+/*
+  PollingFrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+
+import java.awt.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source that polls the screen with many parallel producers (CPU and WinAPI).
+ * Producers capture on the slots given by the FrameRateController, the number of producers follows
+ * the measured capture latency: enough producers to hit the target framerate and no more.
+ * Producers reschedule themselves so they share the executor threads without blocking them.
+ */
+@Slf4j
+public abstract class PollingFrameSource implements FrameSource {
+
+    // Polling interval while capture is stopped
+    private static final long IDLE_DELAY_MILLIS = 25;
+
+    private final int maxProducers;
+    private final Producer[] producers;
+    private ScheduledExecutorService executor;
+    // Capture latency measured since the last adjustment
+    private final AtomicLong captureNanos = new AtomicLong();
+    private final AtomicLong captureNumber = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxProducers max number of producers polling the screen
+     */
+    protected PollingFrameSource(int maxProducers) {
+
+        this.maxProducers = Math.max(1, maxProducers);
+        this.producers = new Producer[this.maxProducers];
+
+    }
+
+    /**
+     * Capture a frame and push it to the FrameProcessor
+     * @param producerIndex index of the producer, zero based
+     * @param rawFrame raw frame owned by the producer
+     */
+    protected abstract void capture(int producerIndex, RawFrame rawFrame);
+
+    /**
+     * Start producers, every producer is started, extra producers are removed by the controller
+     * @param scheduledExecutorService executor used by producers
+     * @throws AWTException GUI exception
+     */
+    @Override
+    public void start(ScheduledExecutorService scheduledExecutorService) throws AWTException {
+
+        executor = scheduledExecutorService;
+        setActiveProducers(maxProducers);
+
+    }
+
+    /**
+     * Number of producers in use
+     * @return active producers
+     */
+    public synchronized int getActiveProducers() {
+
+        int activeProducers = 0;
+        for (Producer producer : producers) {
+            if (producer != null) {
+                activeProducers++;
+            }
+        }
+        return activeProducers;
+
+    }
+
+    /**
+     * Add or remove producers, retired producers stop at their next run
+     * @param activeProducers number of producers to keep
+     */
+    private synchronized void setActiveProducers(int activeProducers) {
+
+        for (int i = 0; i < maxProducers; i++) {
+            if (i < activeProducers && producers[i] == null) {
+                producers[i] = new Producer(i);
+                executor.schedule(producers[i], 0, TimeUnit.MILLISECONDS);
+            } else if (i >= activeProducers && producers[i] != null) {
+                producers[i].retired = true;
+                producers[i] = null;
+            }
+        }
+
+    }
+
+    /**
+     * Add a capture to the latency measured since the last adjustment
+     * @param nanos capture latency
+     */
+    void recordCapture(long nanos) {
+
+        captureNanos.addAndGet(nanos);
+        captureNumber.incrementAndGet();
+
+    }
+
+    /**
+     * Compute how many producers are needed to reach the target framerate with the measured capture latency
+     * @param targetFramerate target framerate
+     */
+    void adjustProducers(float targetFramerate) {
+
+        long captures = captureNumber.getAndSet(0);
+        long nanos = captureNanos.getAndSet(0);
+        if (captures == 0 || !FireflyLuciferin.RUNNING) {
+            return;
+        }
+        double latencySeconds = (nanos / (double) captures) / TimeUnit.SECONDS.toNanos(1);
+        // One spare producer absorbs latency spikes
+        int neededProducers = (int) Math.ceil(targetFramerate * latencySeconds) + 1;
+        neededProducers = Math.max(1, Math.min(maxProducers, neededProducers));
+        if (neededProducers != getActiveProducers()) {
+            if (FireflyLuciferin.config.isExtendedLog()) {
+                log.debug("Capture latency: " + (int) (latencySeconds * 1000) + "ms, producers: " + neededProducers);
+            }
+            setActiveProducers(neededProducers);
+        }
+
+    }
+
+    /**
+     * Producers are idle while capture is stopped, nothing to release
+     */
+    @Override
+    public void stop() {
+
+    }
+
+    /**
+     * A producer that captures on the slots given by the controller
+     */
+    private class Producer implements Runnable {
+
+        private final int index;
+        // A producer never runs concurrently with itself, it can reuse its raw frame
+        private final RawFrame rawFrame = new RawFrame();
+        private volatile boolean retired;
+        private long claimedSlot;
+        private boolean slotClaimed;
+
+        /**
+         * Constructor
+         * @param index index of the producer, zero based
+         */
+        Producer(int index) {
+
+            this.index = index;
+
+        }
+
+        @Override
+        public void run() {
+
+            if (retired) {
+                return;
+            }
+            long delayNanos;
+            try {
+                if (!FireflyLuciferin.RUNNING) {
+                    slotClaimed = false;
+                    delayNanos = TimeUnit.MILLISECONDS.toNanos(IDLE_DELAY_MILLIS);
+                } else {
+                    if (!slotClaimed) {
+                        claimedSlot = FrameRateController.claimSlot();
+                        slotClaimed = true;
+                    }
+                    delayNanos = claimedSlot - System.nanoTime();
+                    if (delayNanos <= 0) {
+                        slotClaimed = false;
+                        long captureStart = System.nanoTime();
+                        capture(index, rawFrame);
+                        recordCapture(System.nanoTime() - captureStart);
+                        delayNanos = 0;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Never kill the producer, a failed capture is just a lost frame
+                log.error(e.getMessage());
+                slotClaimed = false;
+                delayNanos = TimeUnit.MILLISECONDS.toNanos(IDLE_DELAY_MILLIS);
+            }
+            if (!retired && !executor.isShutdown()) {
+                executor.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            }
+
+        }
+
+    }
+
+}
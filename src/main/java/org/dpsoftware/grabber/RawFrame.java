@@ -0,0 +1,102 @@
+/*
+  RawFrame.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.LEDFrame;
+
+import java.nio.IntBuffer;
+
+/**
+ * Raw pixels produced by a FrameSource, before any LED processing.
+ * Pixels are not copied, a frame is valid only until the source captures again.
+ * Every source reuses its own instance, stamp() it when a capture starts and set() it once the pixels are available.
+ */
+@Getter
+public class RawFrame {
+
+    /**
+     * Pixel layout inside the buffer
+     */
+    public enum PixelFormat {
+        // One int per pixel packed as 0x..RRGGBB, highest byte ignored
+        XRGB
+    }
+
+    /**
+     * Coordinate space of the captured pixels, LED coordinates are converted to this space before sampling
+     */
+    public enum CoordinateSpace {
+        // Physical screen resolution
+        NATIVE,
+        // Logical resolution, physical resolution divided by the OS scaling
+        OS_SCALED,
+        // Physical resolution scaled by RESAMPLING_FACTOR inside the GPU
+        GPU_RESAMPLED
+    }
+
+    private IntBuffer pixels;
+    private int width;
+    private int height;
+    // Scanline stride in pixels
+    private int stride;
+    private PixelFormat pixelFormat;
+    private CoordinateSpace coordinateSpace;
+    // Sequence number and System.nanoTime() taken when the capture started
+    private long sequence;
+    private long captureTime;
+
+    /**
+     * Stamp the frame with a new sequence number and the current time, call it before capturing
+     * @return this frame
+     */
+    public RawFrame stamp() {
+
+        sequence = LEDFrame.nextSequence();
+        captureTime = System.nanoTime();
+        return this;
+
+    }
+
+    /**
+     * Set frame content
+     * @param pixels captured pixels, heap or native memory
+     * @param width frame width
+     * @param height frame height
+     * @param stride scanline stride in pixels
+     * @param pixelFormat pixel layout
+     * @param coordinateSpace coordinate space of the captured pixels
+     * @return this frame
+     */
+    public RawFrame set(IntBuffer pixels, int width, int height, int stride, PixelFormat pixelFormat, CoordinateSpace coordinateSpace) {
+
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.pixelFormat = pixelFormat;
+        this.coordinateSpace = coordinateSpace;
+        return this;
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+  ReplayFrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay raw frame dumps for headless benchmarking, frames go through the same processing used for GPU captures.
+ * The dump is memory mapped, frames are read from the page cache without copies.
+ * Dumps are written by FrameDumpWriter, see it for the file layout. Frames are replayed in a loop.
+ */
+@Slf4j
+public class ReplayFrameSource implements FrameSource {
+
+    private final int framerate;
+    private final RawFrame rawFrame = new RawFrame();
+    private int width;
+    private int height;
+    // One view for every frame, created once when the file is mapped
+    private IntBuffer[] frames;
+    private int frameIndex;
+
+    /**
+     * Constructor
+     */
+    public ReplayFrameSource() {
+
+        framerate = Math.max(1, FireflyLuciferin.config.getReplayFramerate());
+
+    }
+
+    /**
+     * Frame size of the mapped dump
+     * @return frame width
+     */
+    int getWidth() {
+
+        return width;
+
+    }
+
+    /**
+     * Frame size of the mapped dump
+     * @return frame height
+     */
+    int getHeight() {
+
+        return height;
+
+    }
+
+    /**
+     * Mapped frames
+     * @return one buffer for every frame, in dump order
+     */
+    IntBuffer[] getFrames() {
+
+        return frames;
+
+    }
+
+    /**
+     * Map the dump and start replaying it at the configured framerate
+     * @param scheduledExecutorService executor used by the replay
+     */
+    @Override
+    public void start(ScheduledExecutorService scheduledExecutorService) {
+
+        String replayFile = FireflyLuciferin.config.getReplayFile();
+        try {
+            mapFrames(Path.of(replayFile));
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(Constants.REPLAY_FILE_ERROR + replayFile + " " + e.getMessage());
+            return;
+        }
+        log.info(Constants.REPLAY_FILE_IN_USE + frames.length + " " + width + "x" + height + " " + replayFile);
+        scheduledExecutorService.scheduleAtFixedRate(() -> {
+            if (FireflyLuciferin.RUNNING) {
+                rawFrame.stamp();
+                FrameProcessor.process(rawFrame.set(frames[frameIndex], width, height, width,
+                        RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.GPU_RESAMPLED));
+                frameIndex = (frameIndex + 1) % frames.length;
+            }
+        }, 0, 1_000_000 / framerate, TimeUnit.MICROSECONDS);
+
+    }
+
+    /**
+     * Replay is idle while capture is stopped, mapped file is kept
+     */
+    @Override
+    public void stop() {
+
+    }
+
+    /**
+     * Memory map every frame in the dump, every frame is mapped on its own so files bigger than 2GB are supported
+     * @param replayFile raw frame dump
+     * @throws IOException can't read the file
+     */
+    void mapFrames(Path replayFile) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(replayFile, StandardOpenOption.READ)) {
+            IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FrameDumpWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            width = header.get(0);
+            height = header.get(1);
+            long frameSize = (long) width * height * Integer.BYTES;
+            if (width <= 0 || height <= 0 || frameSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("invalid frame size");
+            }
+            int frameNumber = (int) ((channel.size() - FrameDumpWriter.HEADER_SIZE) / frameSize);
+            if (frameNumber == 0) {
+                throw new IllegalArgumentException("no frames");
+            }
+            frames = new IntBuffer[frameNumber];
+            for (int i = 0; i < frameNumber; i++) {
+                MappedByteBuffer frame = channel.map(FileChannel.MapMode.READ_ONLY, FrameDumpWriter.HEADER_SIZE + (i * frameSize), frameSize);
+                frames[i] = frame.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+  RobotFrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CPU screen capture using AWT Robot, many producers poll the screen
+ * (you need a lot of threads to get a good framerate)
+ */
+@Slf4j
+public class RobotFrameSource extends PollingFrameSource {
+
+    // One AWT Robot instance every 3 producers seems to be the sweet spot for performance/memory.
+    private static final int PRODUCERS_PER_ROBOT = 3;
+
+    private final Robot[] robots;
+    // Border strips in use when capturing only the screen borders
+    private final AtomicReference<BorderStrips> borderStrips = new AtomicReference<>();
+
+    /**
+     * Constructor
+     * @param maxProducers max number of producers polling the screen
+     */
+    public RobotFrameSource(int maxProducers) {
+
+        super(maxProducers);
+        robots = new Robot[(Math.max(1, maxProducers) + PRODUCERS_PER_ROBOT - 1) / PRODUCERS_PER_ROBOT];
+
+    }
+
+    /**
+     * Create robots and start producers
+     * @param scheduledExecutorService executor used by producers
+     * @throws AWTException GUI exception
+     */
+    @Override
+    public void start(ScheduledExecutorService scheduledExecutorService) throws AWTException {
+
+        for (int i = 0; i < robots.length; i++) {
+            robots[i] = new Robot();
+            log.info(Constants.SPAWNING_ROBOTS);
+        }
+        super.start(scheduledExecutorService);
+
+    }
+
+    /**
+     * Capture a frame with the robot assigned to the producer
+     * @param producerIndex index of the producer, zero based
+     * @param rawFrame raw frame owned by the producer
+     */
+    @Override
+    protected void capture(int producerIndex, RawFrame rawFrame) {
+
+        Robot robot = robots[producerIndex / PRODUCERS_PER_ROBOT];
+        if (FireflyLuciferin.config.isBorderStripsCapture()) {
+            captureBorderStrips(robot);
+        } else {
+            capture(robot, rawFrame);
+        }
+
+    }
+
+    /**
+     * Capture the full screen
+     * @param robot an AWT Robot instance for screen capture.
+     *              One instance every three threads seems to be the hot spot for performance.
+     * @param rawFrame raw frame owned by the producer
+     */
+    private void capture(Robot robot, RawFrame rawFrame) {
+
+        rawFrame.stamp();
+        BufferedImage capturedImage = robot.createScreenCapture(ImageProcessor.rect);
+        //ImageIO.write(bi, "png", new java.io.File("screenshot.png"));
+        FrameProcessor.process(rawFrame.set(IntBuffer.wrap(ImageProcessor.getPixels(capturedImage)),
+                capturedImage.getWidth(), capturedImage.getHeight(), capturedImage.getWidth(),
+                RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.OS_SCALED));
+
+    }
+
+    /**
+     * Capture only the border strips under the LEDs
+     * @param robot an AWT Robot instance for screen capture.
+     */
+    private void captureBorderStrips(Robot robot) {
+
+        long sequence = LEDFrame.nextSequence();
+        long captureTime = System.nanoTime();
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrixInUse = FrameProcessor.getLedMatrix();
+        BorderStrips strips = borderStrips.get();
+        // Recompute strips when the aspect ratio changes
+        if (strips == null || strips.getLedMatrix() != ledMatrixInUse) {
+            strips = BorderStrips.compute(ledMatrixInUse, ImageProcessor.rect.width, ImageProcessor.rect.height,
+                    FireflyLuciferin.config.getOsScaling());
+            borderStrips.set(strips);
+        }
+        boolean detectBlackBars = FrameProcessor.isBlackBarsCheckDue();
+        FrameProcessor.process(strips, strips.capture(robot, detectBlackBars), detectBlackBars, sequence, captureTime);
+
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+  SamplingIndex.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.config.Constants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LED matrix compiled into a flat array of buffer offsets, one range of offsets for every LED.
+ * Offsets are resolved once per (LED matrix, frame width, frame height, stride), the per frame loop only sums pre resolved samples.
+ * Instances are immutable, swap them to change the active matrix. Indexes are bound to the matrix instance they are
+ * compiled from, a matrix rebuilt by a config change is compiled again and replaces the old index in the cache.
+ */
+@Getter
+public class SamplingIndex {
+
+    // Compiled indexes, key is aspect ratio + frame resolution, one index for every key
+    private static final Map<String, SamplingIndex> cache = new ConcurrentHashMap<>();
+
+    private final String aspectRatio;
+    // Matrix instance compiled in this index
+    private final LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
+    private final int width;
+    private final int height;
+    // Scanline stride in pixels
+    private final int stride;
+    // Buffer offsets of every sample for every LED
+    private final int[] offsets;
+    // LED i uses offsets from ledStart[i] (inclusive) to ledStart[i + 1] (exclusive)
+    private final int[] ledStart;
+
+    /**
+     * Constructor
+     * @param aspectRatio aspect ratio of the LED matrix
+     * @param ledMatrix compiled LED matrix
+     * @param width frame width
+     * @param height frame height
+     * @param stride scanline stride in pixels
+     * @param offsets buffer offsets
+     * @param ledStart offset ranges for every LED
+     */
+    private SamplingIndex(String aspectRatio, LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int width, int height, int stride,
+                          int[] offsets, int[] ledStart) {
+
+        this.aspectRatio = aspectRatio;
+        this.ledMatrix = ledMatrix;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.offsets = offsets;
+        this.ledStart = ledStart;
+
+    }
+
+    /**
+     * Get the compiled index from the cache, compile it if not present or compiled from another matrix instance
+     * @param aspectRatio aspect ratio of the LED matrix
+     * @param ledMatrix LED matrix to compile
+     * @param width frame width
+     * @param height frame height
+     * @param stride scanline stride in pixels
+     * @return compiled index
+     */
+    public static SamplingIndex getOrCompile(String aspectRatio, LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int width, int height, int stride) {
+
+        return cache.compute(aspectRatio + "_" + width + "x" + height + "_" + stride, (key, index) ->
+                index != null && index.ledMatrix == ledMatrix ? index : compile(aspectRatio, ledMatrix, width, height, stride));
+
+    }
+
+    /**
+     * Compile a LED matrix for a frame scaled by RESAMPLING_FACTOR inside the GPU
+     * @param aspectRatio aspect ratio of the LED matrix
+     * @param ledMatrix LED matrix to compile
+     * @param width frame width
+     * @param height frame height
+     * @param stride scanline stride in pixels
+     * @return compiled index
+     */
+    static SamplingIndex compile(String aspectRatio, LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int width, int height, int stride) {
+
+        int intBufferSize = (stride * height) - 1;
+        int ledCount = ledMatrix.size();
+        int[] ledStart = new int[ledCount + 1];
+        int[] pixelInUse = new int[ledCount];
+        int totalSamples = 0;
+        for (int led = 0; led < ledCount; led++) {
+            LEDCoordinate value = ledMatrix.get(led + 1);
+            // 6 pixel for X axis and 6 pixel for Y axis
+            int pixelToUse = (value.getDimension() / Constants.RESAMPLING_FACTOR) - 2;
+            pixelInUse[led] = pixelToUse <= 0 ? 1 : pixelToUse;
+            ledStart[led] = totalSamples;
+            totalSamples += pixelInUse[led] * pixelInUse[led];
+        }
+        ledStart[ledCount] = totalSamples;
+        int[] offsets = new int[totalSamples];
+        int k = 0;
+        for (int led = 0; led < ledCount; led++) {
+            LEDCoordinate value = ledMatrix.get(led + 1);
+            // Image grabbed has been scaled by RESAMPLING_FACTOR inside the GPU, convert coordinate to match this scale
+            int xCoordinate = (value.getX() / Constants.RESAMPLING_FACTOR) + 2;
+            int yCoordinate = (value.getY() / Constants.RESAMPLING_FACTOR) + 2;
+            for (int x = 0; x < pixelInUse[led]; x++) {
+                for (int y = 0; y < pixelInUse[led]; y++) {
+                    int offsetX = xCoordinate + x;
+                    int offsetY = yCoordinate + y;
+                    int bufferOffset = (Math.min(offsetX, width))
+                            + ((offsetY < height) ? (offsetY * stride) : (height * stride));
+                    offsets[k++] = Math.min(intBufferSize, bufferOffset);
+                }
+            }
+        }
+        return new SamplingIndex(aspectRatio, ledMatrix, width, height, stride, offsets, ledStart);
+
+    }
+
+    /**
+     * Check if this index has been compiled for the requested matrix and resolution
+     * @param ledMatrix LED matrix instance
+     * @param width frame width
+     * @param height frame height
+     * @param stride scanline stride in pixels
+     * @return true if the index can be used as is
+     */
+    public boolean isCompiledFor(LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int width, int height, int stride) {
+
+        return this.width == width && this.height == height && this.stride == stride && this.ledMatrix == ledMatrix;
+
+    }
+
+    /**
+     * Number of LEDs in the index
+     * @return LED count
+     */
+    public int getLedCount() {
+
+        return ledStart.length - 1;
+
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+  SyntheticFrameSource.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic test patterns for headless benchmarking, no display, GPU or capture library needed.
+ * Frames are generated at the GStreamer resolution (screen resolution scaled by RESAMPLING_FACTOR)
+ * and go through the same processing used for GPU captures.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+    /**
+     * Available test patterns
+     */
+    public enum Pattern {
+        // Horizontal hue gradient scrolling to the right
+        GRADIENT,
+        // Colored vertical bars moving to the right
+        MOVING_BARS,
+        // Moving bars with black bars on top and bottom
+        LETTERBOX,
+        // Moving bars with black bars on the left and on the right
+        PILLARBOX,
+        // Every pattern above, switched every SYNTHETIC_CYCLE_SECONDS, exercise aspect ratio switching
+        CYCLE
+    }
+
+    private static final int[] BAR_COLORS = {0xFF0000, 0x00FF00, 0x0000FF, 0xFFFF00, 0x00FFFF, 0xFF00FF, 0xFFFFFF};
+
+    private final Pattern pattern;
+    private final int framerate;
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final int[] row;
+    private final RawFrame rawFrame = new RawFrame();
+    private long frameNumber;
+
+    /**
+     * Constructor
+     */
+    public SyntheticFrameSource() {
+
+        pattern = Pattern.valueOf(FireflyLuciferin.config.getSyntheticPattern());
+        framerate = Math.max(1, FireflyLuciferin.config.getSyntheticFramerate());
+        width = FireflyLuciferin.config.getScreenResX() / Constants.RESAMPLING_FACTOR;
+        height = FireflyLuciferin.config.getScreenResY() / Constants.RESAMPLING_FACTOR;
+        pixels = new int[width * height];
+        row = new int[width];
+
+    }
+
+    /**
+     * Start generating frames at the configured framerate
+     * @param scheduledExecutorService executor used by the generator
+     */
+    @Override
+    public void start(ScheduledExecutorService scheduledExecutorService) {
+
+        scheduledExecutorService.scheduleAtFixedRate(() -> {
+            if (FireflyLuciferin.RUNNING) {
+                FrameProcessor.process(nextFrame());
+            }
+        }, 0, 1_000_000 / framerate, TimeUnit.MICROSECONDS);
+
+    }
+
+    /**
+     * Generator is idle while capture is stopped, nothing to release
+     */
+    @Override
+    public void stop() {
+
+    }
+
+    /**
+     * Stamp and draw the next frame, the frame is overwritten by the next call
+     * @return next frame of the pattern in use
+     */
+    RawFrame nextFrame() {
+
+        rawFrame.stamp();
+        generate();
+        return rawFrame.set(IntBuffer.wrap(pixels), width, height, width,
+                RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.GPU_RESAMPLED);
+
+    }
+
+    /**
+     * Draw the next frame of the pattern in use
+     */
+    private void generate() {
+
+        Pattern patternToDraw = pattern;
+        if (pattern == Pattern.CYCLE) {
+            long cycle = frameNumber / ((long) framerate * Constants.SYNTHETIC_CYCLE_SECONDS);
+            patternToDraw = Pattern.values()[(int) (cycle % Pattern.CYCLE.ordinal())];
+        }
+        switch (patternToDraw) {
+            case GRADIENT -> drawGradient();
+            case MOVING_BARS -> drawMovingBars(0, 0);
+            case LETTERBOX -> drawMovingBars(blackBarSize(Constants.AspectRatio.LETTERBOX), 0);
+            case PILLARBOX -> drawMovingBars(0, blackBarSize(Constants.AspectRatio.PILLARBOX));
+        }
+        frameNumber++;
+
+    }
+
+    /**
+     * Horizontal hue gradient, every row is equal so only one row is computed
+     */
+    private void drawGradient() {
+
+        float shift = (frameNumber % framerate) / (float) framerate;
+        for (int x = 0; x < width; x++) {
+            row[x] = Color.HSBtoRGB(((float) x / width) + shift, 1, 1) & 0xFFFFFF;
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(row, 0, pixels, y * width, width);
+        }
+
+    }
+
+    /**
+     * Moving vertical bars, optionally framed by black bars
+     * @param letterboxSize height of the black bars on top and bottom
+     * @param pillarboxSize width of the black bars on the left and on the right
+     */
+    private void drawMovingBars(int letterboxSize, int pillarboxSize) {
+
+        int barWidth = Math.max(1, width / BAR_COLORS.length);
+        int offset = (int) (frameNumber % width);
+        Arrays.fill(row, 0, Math.min(pillarboxSize, width), 0);
+        for (int x = pillarboxSize; x < width - pillarboxSize; x++) {
+            row[x] = BAR_COLORS[(((x + offset) % width) / barWidth) % BAR_COLORS.length];
+        }
+        Arrays.fill(row, Math.max(pillarboxSize, width - pillarboxSize), width, 0);
+        for (int y = 0; y < height; y++) {
+            if (y < letterboxSize || y >= height - letterboxSize) {
+                Arrays.fill(pixels, y * width, (y + 1) * width, 0);
+            } else {
+                System.arraycopy(row, 0, pixels, y * width, width);
+            }
+        }
+
+    }
+
+    /**
+     * Black bars size that triggers the black bars detection, the checked line plus a small margin
+     * @param aspectRatio Letterbox or Pillarbox
+     * @return black bar size in pixels
+     */
+    private int blackBarSize(Constants.AspectRatio aspectRatio) {
+
+        int size = ImageProcessor.calculateBorders(aspectRatio) + 2;
+        int maxSize = (aspectRatio == Constants.AspectRatio.LETTERBOX ? height : width) / 2 - 1;
+        return Math.max(0, Math.min(size, maxSize));
+
+    }
+
+}
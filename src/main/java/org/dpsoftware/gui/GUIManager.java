@@ -38,7 +38,7 @@ import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.LEDCoordinate;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.grabber.GStreamerGrabber;
+import org.dpsoftware.grabber.FrameProcessor;
 import org.dpsoftware.managers.MQTTManager;
 import org.dpsoftware.managers.PipelineManager;
 import org.dpsoftware.managers.UpgradeManager;
@@ -253,7 +253,7 @@ public class GUIManager extends JFrame {
                                 ((CheckboxMenuItem) popup.getItem(i)).setState(true);
                                 FireflyLuciferin.config.setDefaultLedMatrix(checkboxMenuItem.getLabel());
                                 log.info(Constants.CAPTURE_MODE_CHANGED + checkboxMenuItem.getLabel());
-                                GStreamerGrabber.ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(checkboxMenuItem.getLabel());
+                                FrameProcessor.switchLedMatrix(checkboxMenuItem.getLabel());
                                 FireflyLuciferin.config.setAutoDetectBlackBars(false);
                                 if (FireflyLuciferin.config.isMqttEnable()) {
                                     MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, checkboxMenuItem.getLabel());
@@ -34,6 +34,7 @@ import javafx.scene.input.InputEvent;
 import javafx.stage.Stage;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.grabber.FrameRateController;
 
 /**
  * FXML Info Controller
@@ -44,9 +45,11 @@ public class InfoController {
     @FXML private SplitPane splitPane;
     @FXML private Label producerLabel;
     @FXML private Label consumerLabel;
+    @FXML private Label serialLinkLabel;
     @FXML private Label version;
     @FXML private final StringProperty producerValue = new SimpleStringProperty("");
     @FXML private final StringProperty consumerValue = new SimpleStringProperty("");
+    @FXML private final StringProperty serialLinkValue = new SimpleStringProperty("");
     AnimationTimer animationTimer;
 
     @FXML
@@ -56,6 +59,7 @@ public class InfoController {
 
         producerLabel.textProperty().bind(producerValueProperty());
         consumerLabel.textProperty().bind(consumerValueProperty());
+        serialLinkLabel.textProperty().bind(serialLinkValueProperty());
         version.setText("by Davide Perini (VERSION)".replaceAll("VERSION", FireflyLuciferin.version));
         runLater();
         startAnimationTimer();
@@ -88,6 +92,10 @@ public class InfoController {
                 if (now - lastUpdate >= 1_000_000_000) {
                     setProducerValue("Producing @ " + FireflyLuciferin.FPS_PRODUCER + " FPS");
                     setConsumerValue("Consuming @ " + FireflyLuciferin.FPS_GW_CONSUMER + " FPS");
+                    if (FrameRateController.getSerialMaxFramerate() > 0) {
+                        setSerialLinkValue("USB max " + String.format("%.1f", FrameRateController.getSerialMaxFramerate()) + " FPS ("
+                                + Math.round(FrameRateController.getSerialHeadroom()) + "% headroom)");
+                    }
                 }
             }
         };
@@ -129,4 +137,12 @@ public class InfoController {
         this.consumerValue.set(consumerValue);
     }
 
+    public StringProperty serialLinkValueProperty() {
+        return serialLinkValue;
+    }
+
+    public void setSerialLinkValue(String serialLinkValue) {
+        this.serialLinkValue.set(serialLinkValue);
+    }
+
 }
@@ -44,9 +44,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.grabber.ImageProcessor;
 import org.dpsoftware.gui.elements.DisplayInfo;
 import org.dpsoftware.gui.elements.GlowWormDevice;
 import org.dpsoftware.managers.DisplayManager;
@@ -451,14 +453,13 @@ public class SettingsController {
      */
     void sendSerialParams() {
 
-        java.awt.Color[] leds = new java.awt.Color[1];
+        LEDFrame leds = LEDFrame.solid((int)(colorPicker.getValue().getRed() * 255),
+                (int)(colorPicker.getValue().getGreen() * 255),
+                (int)(colorPicker.getValue().getBlue() * 255));
         try {
-            leds[0] = new java.awt.Color((int)(colorPicker.getValue().getRed() * 255),
-                    (int)(colorPicker.getValue().getGreen() * 255),
-                    (int)(colorPicker.getValue().getBlue() * 255));
             FireflyLuciferin.sendColorsViaUSB(leds);
-        } catch (IOException e) {
-            log.error(e.getMessage());
+        } finally {
+            leds.release();
         }
 
     }
@@ -526,6 +527,7 @@ public class SettingsController {
                         CommonUtility.writeValueAsString(gammaDto));
             }
             FireflyLuciferin.config.setGamma(Double.parseDouble(gamma));
+            ImageProcessor.updateGamma(FireflyLuciferin.config.getGamma());
         });
         // White temperature can be changed on the fly
         whiteTemperature.valueProperty().addListener((ov, t, kelvin) -> {
@@ -1095,13 +1097,12 @@ public class SettingsController {
                 stateDto.setWhitetemp(FireflyLuciferin.config.getWhiteTemperature());
                 MQTTManager.publishToTopic(MQTTManager.getMqttTopic(Constants.MQTT_SET), CommonUtility.writeValueAsString(stateDto));
             } else {
-                java.awt.Color[] leds = new java.awt.Color[1];
+                LEDFrame leds = LEDFrame.solid(0, 0, 0);
                 try {
-                    leds[0] = new java.awt.Color(0, 0, 0);
                     FireflyLuciferin.usbBrightness = 0;
                     FireflyLuciferin.sendColorsViaUSB(leds);
-                } catch (IOException e) {
-                    log.error(e.getMessage());
+                } finally {
+                    leds.release();
                 }
             }
         }
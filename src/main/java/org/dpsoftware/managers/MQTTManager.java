@@ -21,15 +21,15 @@
 */
 package org.dpsoftware.managers;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import javafx.scene.control.Alert;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
-import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.grabber.ImageProcessor;
 import org.dpsoftware.gui.GUIManager;
 import org.dpsoftware.gui.SettingsController;
 import org.dpsoftware.gui.elements.GlowWormDevice;
@@ -40,7 +40,10 @@ import org.dpsoftware.utilities.CommonUtility;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
+import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
@@ -55,9 +58,31 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class MQTTManager implements MqttCallback {
 
     public static MqttClient client;
+    // Stream topic publisher, null if not streaming
+    public static MqttStreamPublisher streamPublisher;
     boolean connected = false;
     String mqttDeviceName;
     Date lastActivity;
+    // Readers are immutable and thread safe, shared by every handler
+    private static final ObjectReader jsonReader = new ObjectMapper().reader();
+    // Incoming messages are handled off the MQTT callback thread, in arrival order
+    private final ScheduledExecutorService messageExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, Constants.MQTT_MESSAGE_THREAD);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private MqttTopics routedTopics;
+    private Map<String, MessageHandler> router;
+
+    /**
+     * Handler for messages arriving on a topic
+     */
+    @FunctionalInterface
+    interface MessageHandler {
+
+        void handle(MqttMessage message) throws IOException;
+
+    }
 
     /**
      * Constructor
@@ -99,19 +124,9 @@ public class MQTTManager implements MqttCallback {
         mqttDeviceName += "_" + ThreadLocalRandom.current().nextInt();
         MemoryPersistence persistence = new MemoryPersistence();
         client = new MqttClient(FireflyLuciferin.config.getMqttServer(), mqttDeviceName, persistence);
-        MqttConnectOptions connOpts = new MqttConnectOptions();
-        connOpts.setAutomaticReconnect(true);
-        connOpts.setCleanSession(true);
-        connOpts.setConnectionTimeout(10);
-        connOpts.setMaxInflight(1000); // Default = 10
-        if (FireflyLuciferin.config.getMqttUsername() != null && !FireflyLuciferin.config.getMqttUsername().isEmpty()) {
-            connOpts.setUserName(FireflyLuciferin.config.getMqttUsername());
-        }
-        if (FireflyLuciferin.config.getMqttPwd() != null && !FireflyLuciferin.config.getMqttPwd().isEmpty()) {
-            connOpts.setPassword(FireflyLuciferin.config.getMqttPwd().toCharArray());
-        }
-        client.connect(connOpts);
+        client.connect(connectOptions(Constants.MQTT_MAX_INFLIGHT));
         client.setCallback(this);
+        connectStreamPublisher();
         if (firstConnection) {
             turnOnLEDs();
             GammaDto gammaDto = new GammaDto();
@@ -124,6 +139,69 @@ public class MQTTManager implements MqttCallback {
         
     }
 
+    /**
+     * Stop handling messages, scheduled handlers are cancelled, and close the control and the stream clients
+     */
+    public void disconnect() {
+
+        messageExecutor.shutdownNow();
+        connected = false;
+        if (streamPublisher != null) {
+            streamPublisher.close();
+            streamPublisher = null;
+        }
+        if (client != null) {
+            try {
+                if (client.isConnected()) {
+                    client.disconnect();
+                }
+                client.close();
+            } catch (MqttException e) {
+                log.error(Constants.MQTT_CANT_DISCONNECT);
+            }
+        }
+
+    }
+
+    /**
+     * Connection options shared by the control and the stream clients
+     * @param maxInflight max in flight messages of the client
+     * @return connection options
+     */
+    private MqttConnectOptions connectOptions(int maxInflight) {
+
+        MqttConnectOptions connOpts = new MqttConnectOptions();
+        connOpts.setAutomaticReconnect(true);
+        connOpts.setCleanSession(true);
+        connOpts.setConnectionTimeout(10);
+        connOpts.setMaxInflight(maxInflight);
+        if (FireflyLuciferin.config.getMqttUsername() != null && !FireflyLuciferin.config.getMqttUsername().isEmpty()) {
+            connOpts.setUserName(FireflyLuciferin.config.getMqttUsername());
+        }
+        if (FireflyLuciferin.config.getMqttPwd() != null && !FireflyLuciferin.config.getMqttPwd().isEmpty()) {
+            connOpts.setPassword(FireflyLuciferin.config.getMqttPwd().toCharArray());
+        }
+        return connOpts;
+
+    }
+
+    /**
+     * Connect the stream publisher when streaming over MQTT, the stream client failing doesn't fail the control
+     * connection, stream messages fall back to the control client
+     */
+    private void connectStreamPublisher() {
+
+        if (FireflyLuciferin.config.isMqttStream() && !FireflyLuciferin.config.isUdpStream() && streamPublisher == null) {
+            try {
+                streamPublisher = new MqttStreamPublisher(FireflyLuciferin.config.getMqttServer(),
+                        mqttDeviceName + Constants.MQTT_STREAM_CLIENT_SUFFIX, connectOptions(Constants.MQTT_STREAM_MAX_INFLIGHT));
+            } catch (MqttException e) {
+                log.error(Constants.MQTT_STREAM_CLIENT_ERROR);
+            }
+        }
+
+    }
+
     /**
      * Publish to a topic
      * @param topic where to publish the message
@@ -148,19 +226,64 @@ public class MQTTManager implements MqttCallback {
      */
     public static void stream(String msg) {
 
-        try {
-            // If multi display change stream topic
-            if (FireflyLuciferin.config.getMultiMonitor() > 1) {
-                client.publish(getMqttTopic(Constants.MQTT_SET) + Constants.MQTT_STREAM_TOPIC + JavaFXStarter.whoAmI, msg.getBytes(), 0, false);
-            } else {
-                client.publish(getMqttTopic(Constants.MQTT_SET) + Constants.MQTT_STREAM_TOPIC, msg.getBytes(), 0, false);
+        stream(msg.getBytes());
+
+    }
+
+    /**
+     * Stream a payload to the stream topic, the payload is copied so the caller can reuse it
+     * @param payload payload for the queue
+     */
+    public static void stream(byte[] payload) {
+
+        if (streamPublisher != null) {
+            streamPublisher.publish(getStreamTopic(), payload);
+        } else {
+            publishStream(payload);
+        }
+
+    }
+
+    /**
+     * Stream a frame split in parts to the stream topic, parts are copied so the caller can reuse them
+     * @param parts payloads of the frame, in order
+     */
+    public static void stream(byte[][] parts) {
+
+        if (streamPublisher != null) {
+            streamPublisher.publish(getStreamTopic(), parts);
+        } else {
+            for (byte[] part : parts) {
+                publishStream(part);
             }
+        }
+
+    }
+
+    /**
+     * Synchronous publish to the stream topic, used only if the stream publisher is not connected
+     * @param payload payload for the queue
+     */
+    private static void publishStream(byte[] payload) {
+
+        try {
+            client.publish(getStreamTopic(), payload, 0, false);
         } catch (MqttException e) {
             log.error(Constants.MQTT_CANT_SEND);
         }
 
     }
 
+    /**
+     * Stream topic, if multi display every instance has its own topic
+     * @return stream topic
+     */
+    private static String getStreamTopic() {
+
+        return MqttTopics.get().getStream();
+
+    }
+
     /**
      * Reconnect on connection lost
      * @param cause MQTT connection lost cause
@@ -207,115 +330,181 @@ public class MQTTManager implements MqttCallback {
     }
 
     /**
-     * Subscribe to the topic to START/STOP screen grabbing
+     * Route a message to its handler, handlers run on the message executor so the MQTT callback thread never blocks
      * @param topic MQTT topic where to publish/subscribe
      * @param message MQTT message to read
      */
     @Override
-    public void messageArrived(String topic, MqttMessage message) throws JsonProcessingException {
+    public void messageArrived(String topic, MqttMessage message) {
 
         lastActivity = new Date();
-        if (topic.equals(getMqttTopic(Constants.MQTT_EMPTY))) {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode mqttmsg = mapper.readTree(new String(message.getPayload()));
-            if (mqttmsg.get(Constants.STATE) != null) {
-                if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.STOP.name())) {
-                    FireflyLuciferin.guiManager.stopCapturingThreads(false);
-                } else if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.PLAY.name())) {
-                    FireflyLuciferin.guiManager.startCapturingThreads();
-                } else {
-                    if (mqttmsg.get(Constants.STATE).asText().equals(Constants.ON) && mqttmsg.get(Constants.EFFECT).asText().equals(Constants.SOLID)) {
-                        FireflyLuciferin.config.setToggleLed(true);
-                        if (mqttmsg.get(Constants.COLOR) != null) {
-                            FireflyLuciferin.config.setColorChooser(mqttmsg.get(Constants.COLOR).get("r") + "," + mqttmsg.get(Constants.COLOR).get("g") + ","
-                                    + mqttmsg.get(Constants.COLOR).get("b") + "," + mqttmsg.get(Constants.MQTT_BRIGHTNESS));
-                        }
+        MessageHandler handler = getRouter().get(topic);
+        if (handler != null) {
+            messageExecutor.execute(() -> {
+                try {
+                    handler.handle(message);
+                } catch (IOException | RuntimeException e) {
+                    log.error(e.getMessage());
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Topic to handler map, rebuilt only when the topics change
+     * @return router
+     */
+    private Map<String, MessageHandler> getRouter() {
+
+        MqttTopics topics = MqttTopics.get();
+        if (router == null || routedTopics != topics) {
+            Map<String, MessageHandler> handlers = new HashMap<>();
+            handlers.putIfAbsent(topics.getState(), this::handleState);
+            handlers.putIfAbsent(topics.getUpdateResult(), this::handleUpdateResult);
+            handlers.putIfAbsent(topics.getSet(), this::handleSet);
+            handlers.putIfAbsent(topics.getGamma(), this::handleGamma);
+            handlers.putIfAbsent(topics.getFps(), this::handleFps);
+            router = Map.copyOf(handlers);
+            routedTopics = topics;
+        }
+        return router;
+
+    }
+
+    /**
+     * Handle the state topic: START/STOP screen grabbing, solid color, framerate and devices
+     * @param message MQTT message to read
+     * @throws IOException can't parse the message
+     */
+    void handleState(MqttMessage message) throws IOException {
+
+        JsonNode mqttmsg = jsonReader.readTree(message.getPayload());
+        if (mqttmsg.get(Constants.STATE) != null) {
+            if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.STOP.name())) {
+                FireflyLuciferin.guiManager.stopCapturingThreads(false);
+            } else if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.PLAY.name())) {
+                FireflyLuciferin.guiManager.startCapturingThreads();
+            } else {
+                if (mqttmsg.get(Constants.STATE).asText().equals(Constants.ON) && mqttmsg.get(Constants.EFFECT).asText().equals(Constants.SOLID)) {
+                    FireflyLuciferin.config.setToggleLed(true);
+                    if (mqttmsg.get(Constants.COLOR) != null) {
+                        FireflyLuciferin.config.setColorChooser(mqttmsg.get(Constants.COLOR).get("r") + "," + mqttmsg.get(Constants.COLOR).get("g") + ","
+                                + mqttmsg.get(Constants.COLOR).get("b") + "," + mqttmsg.get(Constants.MQTT_BRIGHTNESS));
                     }
-                    if (mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE) != null) {
-                        String macToUpdate = mqttmsg.get(Constants.MAC).asText();
-                        SettingsController.deviceTableData.forEach(glowWormDevice -> {
-                            if (glowWormDevice.getMac().equals(macToUpdate)) {
-                                if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
-                                    FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText());
-                                }
+                }
+                if (mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE) != null) {
+                    String macToUpdate = mqttmsg.get(Constants.MAC).asText();
+                    SettingsController.deviceTableData.forEach(glowWormDevice -> {
+                        if (glowWormDevice.getMac().equals(macToUpdate)) {
+                            if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
+                                FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText());
                             }
-                        });
-                    }
+                        }
+                    });
                 }
             }
-            // Skip retained message, we want fresh data here
-            if (!message.isRetained()) {
-                if (mqttmsg.get(Constants.MQTT_DEVICE_NAME) != null) {
-                    String freshDeviceName = mqttmsg.get(Constants.MQTT_DEVICE_NAME).textValue();
-                    if (SettingsController.deviceTableData.isEmpty()) {
-                        addDevice(mqttmsg);
-                    } else {
-                        AtomicBoolean isDevicePresent = new AtomicBoolean(false);
-                        SettingsController.deviceTableData.forEach(glowWormDevice -> {
-                            if (glowWormDevice.getDeviceName().equals(freshDeviceName)) {
-                                isDevicePresent.set(true);
-                                glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
-                                if (mqttmsg.get(Constants.GPIO) != null) {
-                                    glowWormDevice.setGpio(mqttmsg.get(Constants.GPIO).textValue());
-                                }
-                                if (mqttmsg.get(Constants.DEVICE_VER) != null) {
-                                    glowWormDevice.setDeviceVersion(mqttmsg.get(Constants.DEVICE_VER).textValue());
-                                }
+        }
+        // Skip retained message, we want fresh data here
+        if (!message.isRetained()) {
+            if (mqttmsg.get(Constants.MQTT_DEVICE_NAME) != null) {
+                String freshDeviceName = mqttmsg.get(Constants.MQTT_DEVICE_NAME).textValue();
+                if (SettingsController.deviceTableData.isEmpty()) {
+                    addDevice(mqttmsg);
+                } else {
+                    AtomicBoolean isDevicePresent = new AtomicBoolean(false);
+                    SettingsController.deviceTableData.forEach(glowWormDevice -> {
+                        if (glowWormDevice.getDeviceName().equals(freshDeviceName)) {
+                            isDevicePresent.set(true);
+                            glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
+                            if (mqttmsg.get(Constants.GPIO) != null) {
+                                glowWormDevice.setGpio(mqttmsg.get(Constants.GPIO).textValue());
+                            }
+                            if (mqttmsg.get(Constants.DEVICE_VER) != null) {
+                                glowWormDevice.setDeviceVersion(mqttmsg.get(Constants.DEVICE_VER).textValue());
                             }
-                        });
-                        if (!isDevicePresent.get()) {
-                            addDevice(mqttmsg);
-                        }
-                    }
-                    if (UpgradeManager.deviceNameForSerialDevice.isEmpty()) {
-                        GlowWormDevice mqttDeviceInUse = CommonUtility.getDeviceToUse();
-                        if (mqttDeviceInUse != null) {
-                            UpgradeManager.deviceNameForSerialDevice = mqttDeviceInUse.getDeviceName();
                         }
+                    });
+                    if (!isDevicePresent.get()) {
+                        addDevice(mqttmsg);
                     }
                 }
-            }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_UPDATE_RES))) {
-            // If a new firmware version is detected, restart the screen capture.
-            if (UpgradeManager.deviceNameForSerialDevice.equals(message.toString())) {
-                log.debug("Update successfull=" + message);
-                javafx.application.Platform.runLater(() -> FireflyLuciferin.guiManager.showAlert(Constants.FIREFLY_LUCIFERIN,
-                        Constants.UPGRADE_SUCCESS, message + Constants.DEVICEUPGRADE_SUCCESS,
-                        Alert.AlertType.INFORMATION));
-                try {
-                    TimeUnit.SECONDS.sleep(60);
-                } catch (InterruptedException e) {
-                    log.error(e.getMessage());
+                if (UpgradeManager.deviceNameForSerialDevice.isEmpty()) {
+                    GlowWormDevice mqttDeviceInUse = CommonUtility.getDeviceToUse();
+                    if (mqttDeviceInUse != null) {
+                        UpgradeManager.deviceNameForSerialDevice = mqttDeviceInUse.getDeviceName();
+                    }
                 }
-                FireflyLuciferin.guiManager.startCapturingThreads();
             }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_SET))) {
-            if (message.toString().contains(Constants.MQTT_START)) {
-                FireflyLuciferin.guiManager.startCapturingThreads();
-            } else if (message.toString().contains(Constants.MQTT_STOP)) {
-                FireflyLuciferin.guiManager.pipelineManager.stopCapturePipeline();
-            }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_GAMMA))) {
-            ObjectMapper gammaMapper = new ObjectMapper();
-            JsonNode gammaObj = gammaMapper.readTree(new String(message.getPayload()));
-            if (gammaObj.get(Constants.MQTT_GAMMA) != null) {
-                FireflyLuciferin.config.setGamma(Double.parseDouble(gammaObj.get(Constants.MQTT_GAMMA).asText()));
-            }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_FPS))) {
-            ObjectMapper fpsMapper = new ObjectMapper();
-            JsonNode fpsTopicMsg = fpsMapper.readTree(new String(message.getPayload()));
-            String macToUpdate = fpsTopicMsg.get(Constants.MAC).textValue();
-            if (fpsTopicMsg.get(Constants.MAC) != null) {
-                SettingsController.deviceTableData.forEach(glowWormDevice -> {
-                    if (glowWormDevice.getMac().equals(macToUpdate)) {
-                        glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
-                        glowWormDevice.setNumberOfLEDSconnected(fpsTopicMsg.get(Constants.NUMBER_OF_LEDS).textValue());
-                        if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
-                            FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(fpsTopicMsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText());
-                        }
+        }
+
+    }
+
+    /**
+     * Handle the update result topic, if a new firmware version is detected restart the screen capture
+     * @param message MQTT message to read
+     */
+    void handleUpdateResult(MqttMessage message) {
+
+        if (UpgradeManager.deviceNameForSerialDevice.equals(message.toString())) {
+            log.debug("Update successfull=" + message);
+            javafx.application.Platform.runLater(() -> FireflyLuciferin.guiManager.showAlert(Constants.FIREFLY_LUCIFERIN,
+                    Constants.UPGRADE_SUCCESS, message + Constants.DEVICEUPGRADE_SUCCESS,
+                    Alert.AlertType.INFORMATION));
+            // Give the device time to reboot, never block the message thread
+            messageExecutor.schedule(() -> FireflyLuciferin.guiManager.startCapturingThreads(), 60, TimeUnit.SECONDS);
+        }
+
+    }
+
+    /**
+     * Handle the set topic, START/STOP screen grabbing
+     * @param message MQTT message to read
+     */
+    void handleSet(MqttMessage message) {
+
+        if (message.toString().contains(Constants.MQTT_START)) {
+            FireflyLuciferin.guiManager.startCapturingThreads();
+        } else if (message.toString().contains(Constants.MQTT_STOP)) {
+            FireflyLuciferin.guiManager.pipelineManager.stopCapturePipeline();
+        }
+
+    }
+
+    /**
+     * Handle the gamma topic
+     * @param message MQTT message to read
+     * @throws IOException can't parse the message
+     */
+    void handleGamma(MqttMessage message) throws IOException {
+
+        JsonNode gammaObj = jsonReader.readTree(message.getPayload());
+        if (gammaObj.get(Constants.MQTT_GAMMA) != null) {
+            FireflyLuciferin.config.setGamma(Double.parseDouble(gammaObj.get(Constants.MQTT_GAMMA).asText()));
+            ImageProcessor.updateGamma(FireflyLuciferin.config.getGamma());
+        }
+
+    }
+
+    /**
+     * Handle the FPS topic, update devices and the framerate of the device in use
+     * @param message MQTT message to read
+     * @throws IOException can't parse the message
+     */
+    void handleFps(MqttMessage message) throws IOException {
+
+        JsonNode fpsTopicMsg = jsonReader.readTree(message.getPayload());
+        String macToUpdate = fpsTopicMsg.get(Constants.MAC).textValue();
+        if (fpsTopicMsg.get(Constants.MAC) != null) {
+            SettingsController.deviceTableData.forEach(glowWormDevice -> {
+                if (glowWormDevice.getMac().equals(macToUpdate)) {
+                    glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
+                    glowWormDevice.setNumberOfLEDSconnected(fpsTopicMsg.get(Constants.NUMBER_OF_LEDS).textValue());
+                    if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
+                        FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(fpsTopicMsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText());
                     }
-                });
-            }
+                }
+            });
         }
 
     }
@@ -411,29 +600,7 @@ public class MQTTManager implements MqttCallback {
      */
     public static String getMqttTopic(String command) {
 
-        String topic = null;
-        String gwBaseTopic = Constants.MQTT_BASE_TOPIC;
-        String fireflyBaseTopic = Constants.MQTT_FIREFLY_BASE_TOPIC;
-
-        String defaultTopic = FireflyLuciferin.config.getMqttTopic();
-        String defaultFireflyTopic = fireflyBaseTopic + FireflyLuciferin.config.getMqttTopic();
-        if (Constants.DEFAULT_MQTT_TOPIC.equals(FireflyLuciferin.config.getMqttTopic())
-                || gwBaseTopic.equals(FireflyLuciferin.config.getMqttTopic())) {
-            defaultTopic = gwBaseTopic;
-            defaultFireflyTopic = fireflyBaseTopic;
-        }
-        switch (command) {
-            case Constants.MQTT_SET -> topic = Constants.DEFAULT_MQTT_TOPIC.replace(gwBaseTopic, defaultTopic);
-            case Constants.MQTT_EMPTY -> topic = Constants.DEFAULT_MQTT_STATE_TOPIC.replace(gwBaseTopic, defaultTopic);
-            case Constants.MQTT_UPDATE -> topic = Constants.UPDATE_MQTT_TOPIC.replace(gwBaseTopic, defaultTopic);
-            case Constants.MQTT_FPS -> topic = Constants.FPS_TOPIC.replace(gwBaseTopic, defaultTopic);
-            case Constants.MQTT_UPDATE_RES -> topic = Constants.UPDATE_RESULT_MQTT_TOPIC.replace(gwBaseTopic, defaultTopic);
-            case Constants.MQTT_FRAMERATE -> topic = Constants.FIREFLY_LUCIFERIN_FRAMERATE.replace(fireflyBaseTopic, defaultFireflyTopic);
-            case Constants.MQTT_GAMMA -> topic = Constants.FIREFLY_LUCIFERIN_GAMMA.replace(fireflyBaseTopic, defaultFireflyTopic);
-            case Constants.MQTT_FIRMWARE_CONFIG -> topic = Constants.GLOW_WORM_FIRM_CONFIG_TOPIC;
-            case Constants.MQTT_UNSUBSCRIBE -> topic = Constants.UNSUBSCRIBE_STREAM_TOPIC.replace(gwBaseTopic, defaultTopic);
-        }
-        return topic;
+        return MqttTopics.get().forCommand(command);
 
     }
 
@@ -0,0 +1,319 @@
+/*
+  MqttStreamPublisher.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous publisher for the stream topic, the consumer never waits for the network.
+ * Stream messages use their own connection, at most mqttInflightWindow messages are handed to the client
+ * and not yet written to the network, the window never exceeds the max in flight of the client.
+ * The others wait in a pending queue: a frame that has its first part handed to the client is always completed,
+ * firmware can't show half a frame, after it only the newest frame waits. When a new frame arrives the older
+ * waiting frame is dropped as a whole.
+ * Payloads are copied into recycled buffers so callers can reuse theirs as soon as publish returns.
+ * Control topics stay on the synchronous client in MQTTManager.
+ */
+@Slf4j
+public class MqttStreamPublisher implements IMqttActionListener {
+
+    private final MqttAsyncClient asyncClient;
+    private final int inflightWindow;
+    private int inFlight;
+    // Unsent parts of the frame in progress followed by the parts of the newest frame
+    private final ArrayDeque<StreamMessage> pending = new ArrayDeque<>();
+    // Parts at the end of the pending queue that belong to a frame not started yet
+    private int waitingParts;
+    // Recycled messages, one pool per payload size: parts are cut at the max payload and the last part is shorter
+    private final ArrayList<MessagePool> pools = new ArrayList<>();
+    // Stats since the last report
+    private long published;
+    private long latencyNanos;
+    private long maxLatencyNanos;
+    private long droppedFrames;
+    private long failed;
+
+    /**
+     * A stream message and the time it was handed to the client
+     */
+    private static class StreamMessage {
+
+        String topic;
+        byte[] payload;
+        long publishTime;
+
+    }
+
+    /**
+     * Recycled messages of a payload size, a frame uses two or three sizes so pools are searched linearly
+     * and lengths are never boxed
+     */
+    private static class MessagePool {
+
+        final int length;
+        final ArrayDeque<StreamMessage> free = new ArrayDeque<>();
+
+        /**
+         * Constructor
+         * @param length payload length of the messages in the pool
+         */
+        MessagePool(int length) {
+
+            this.length = length;
+
+        }
+
+    }
+
+    /**
+     * Constructor, connect the stream client
+     * @param server MQTT server
+     * @param clientId client id, it must be different from the control client id
+     * @param connOpts connection options
+     * @throws MqttException can't connect
+     */
+    public MqttStreamPublisher(String server, String clientId, MqttConnectOptions connOpts) throws MqttException {
+
+        this(new MqttAsyncClient(server, clientId, new MemoryPersistence()), connOpts.getMaxInflight());
+        try {
+            asyncClient.connect(connOpts).waitForCompletion();
+        } catch (MqttException e) {
+            asyncClient.close();
+            throw e;
+        }
+
+    }
+
+    /**
+     * Constructor on a client, the client must be connected before publishing
+     * @param asyncClient stream client
+     * @param maxInflight max in flight messages of the client, publishing more is refused by the client
+     */
+    MqttStreamPublisher(MqttAsyncClient asyncClient, int maxInflight) {
+
+        this.asyncClient = asyncClient;
+        inflightWindow = Math.max(1, Math.min(FireflyLuciferin.config.getMqttInflightWindow(), maxInflight));
+
+    }
+
+    /**
+     * Publish a frame, an older frame not started yet is dropped
+     * @param topic stream topic
+     * @param parts payloads of the frame, in order
+     */
+    public synchronized void publish(String topic, byte[][] parts) {
+
+        dropWaitingFrame();
+        for (byte[] part : parts) {
+            pending.add(copy(topic, part));
+        }
+        waitingParts = parts.length;
+        pump();
+
+    }
+
+    /**
+     * Publish a single part frame, an older frame not started yet is dropped
+     * @param topic stream topic
+     * @param payload payload of the frame
+     */
+    public synchronized void publish(String topic, byte[] payload) {
+
+        dropWaitingFrame();
+        pending.add(copy(topic, payload));
+        waitingParts = 1;
+        pump();
+
+    }
+
+    /**
+     * Drop the frame waiting for the frame in progress, it is older than the one arriving.
+     * Parts of the frame in progress stay in the queue.
+     */
+    private void dropWaitingFrame() {
+
+        if (waitingParts > 0) {
+            droppedFrames++;
+            while (waitingParts > 0) {
+                recycle(pending.pollLast());
+                waitingParts--;
+            }
+        }
+
+    }
+
+    /**
+     * Copy a payload into a recycled message
+     * @param topic topic
+     * @param payload payload to copy
+     * @return message
+     */
+    private StreamMessage copy(String topic, byte[] payload) {
+
+        StreamMessage message = pool(payload.length).free.poll();
+        if (message == null) {
+            message = new StreamMessage();
+            message.payload = new byte[payload.length];
+        }
+        System.arraycopy(payload, 0, message.payload, 0, payload.length);
+        message.topic = topic;
+        return message;
+
+    }
+
+    /**
+     * Hand pending messages to the client until the in flight window is full.
+     * A message refused by the client stays at the head of the queue and pumping stops, it is retried on the next
+     * completion or publish so the parts of a started frame are never skipped.
+     */
+    private void pump() {
+
+        while (inFlight < inflightWindow && !pending.isEmpty()) {
+            StreamMessage message = pending.peek();
+            message.publishTime = System.nanoTime();
+            try {
+                inFlight++;
+                asyncClient.publish(message.topic, message.payload, 0, false, message, this);
+            } catch (MqttException e) {
+                // Not connected or client busy, automatic reconnect will bring it back
+                inFlight--;
+                failed++;
+                return;
+            }
+            if (pending.size() == waitingParts) {
+                // First part of the waiting frame, from now on the frame is completed
+                waitingParts = 0;
+            }
+            pending.poll();
+        }
+
+    }
+
+    /**
+     * Message written to the network
+     * @param asyncActionToken token of the message
+     */
+    @Override
+    public synchronized void onSuccess(IMqttToken asyncActionToken) {
+
+        StreamMessage message = (StreamMessage) asyncActionToken.getUserContext();
+        long latency = System.nanoTime() - message.publishTime;
+        published++;
+        latencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        complete(message);
+
+    }
+
+    /**
+     * Message not sent
+     * @param asyncActionToken token of the message
+     * @param exception cause
+     */
+    @Override
+    public synchronized void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+
+        failed++;
+        complete((StreamMessage) asyncActionToken.getUserContext());
+
+    }
+
+    /**
+     * Free a slot of the in flight window and recycle the message
+     * @param message message no longer in flight
+     */
+    private void complete(StreamMessage message) {
+
+        inFlight--;
+        recycle(message);
+        pump();
+
+    }
+
+    /**
+     * Give a message back to the pool of its payload size
+     * @param message message no longer used
+     */
+    private void recycle(StreamMessage message) {
+
+        pool(message.payload.length).free.add(message);
+
+    }
+
+    /**
+     * Pool of a payload size, created on first use
+     * @param length payload length
+     * @return pool
+     */
+    private MessagePool pool(int length) {
+
+        // Indexed loop, an iterator would be allocated on every part
+        for (int i = 0; i < pools.size(); i++) {
+            if (pools.get(i).length == length) {
+                return pools.get(i);
+            }
+        }
+        MessagePool pool = new MessagePool(length);
+        pools.add(pool);
+        return pool;
+
+    }
+
+    /**
+     * Disconnect the stream client, messages not sent yet are dropped
+     */
+    public synchronized void close() {
+
+        pending.clear();
+        waitingParts = 0;
+        try {
+            asyncClient.disconnectForcibly(0, Constants.MQTT_STREAM_DISCONNECT_TIMEOUT);
+            asyncClient.close();
+        } catch (MqttException e) {
+            log.error(Constants.MQTT_CANT_DISCONNECT);
+        }
+
+    }
+
+    /**
+     * Publish stats since the last call, stats are reset
+     * @return human readable stats
+     */
+    public synchronized String report() {
+
+        String report = "MQTT stream published: " + published + ", avg latency "
+                + (published > 0 ? TimeUnit.NANOSECONDS.toMicros(latencyNanos / published) : 0) + "us, max "
+                + TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos) + "us, dropped frames: " + droppedFrames + ", failed: " + failed;
+        published = latencyNanos = maxLatencyNanos = droppedFrames = failed = 0;
+        return report;
+
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+  MqttTopics.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import lombok.Getter;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.JavaFXStarter;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+
+/**
+ * Immutable table of the MQTT topics in use, topics are resolved once from the configuration
+ * and the table is replaced only when the configuration or its MQTT topic change.
+ */
+@Getter
+public final class MqttTopics {
+
+    private static volatile MqttTopics current;
+
+    // Configuration used to resolve the topics
+    private final Configuration config;
+    private final String configTopic;
+    private final int multiMonitor;
+
+    private final String set;
+    private final String state;
+    private final String update;
+    private final String fps;
+    private final String updateResult;
+    private final String framerate;
+    private final String gamma;
+    private final String firmwareConfig;
+    private final String unsubscribe;
+    // If multi display every instance has its own stream topic
+    private final String stream;
+
+    /**
+     * Resolve every topic
+     * @param config configuration in use
+     */
+    private MqttTopics(Configuration config) {
+
+        this.config = config;
+        this.configTopic = config.getMqttTopic();
+        this.multiMonitor = config.getMultiMonitor();
+        String gwBaseTopic = Constants.MQTT_BASE_TOPIC;
+        String fireflyBaseTopic = Constants.MQTT_FIREFLY_BASE_TOPIC;
+        String defaultTopic = configTopic;
+        String defaultFireflyTopic = fireflyBaseTopic + configTopic;
+        if (Constants.DEFAULT_MQTT_TOPIC.equals(configTopic) || gwBaseTopic.equals(configTopic)) {
+            defaultTopic = gwBaseTopic;
+            defaultFireflyTopic = fireflyBaseTopic;
+        }
+        set = Constants.DEFAULT_MQTT_TOPIC.replace(gwBaseTopic, defaultTopic);
+        state = Constants.DEFAULT_MQTT_STATE_TOPIC.replace(gwBaseTopic, defaultTopic);
+        update = Constants.UPDATE_MQTT_TOPIC.replace(gwBaseTopic, defaultTopic);
+        fps = Constants.FPS_TOPIC.replace(gwBaseTopic, defaultTopic);
+        updateResult = Constants.UPDATE_RESULT_MQTT_TOPIC.replace(gwBaseTopic, defaultTopic);
+        framerate = Constants.FIREFLY_LUCIFERIN_FRAMERATE.replace(fireflyBaseTopic, defaultFireflyTopic);
+        gamma = Constants.FIREFLY_LUCIFERIN_GAMMA.replace(fireflyBaseTopic, defaultFireflyTopic);
+        firmwareConfig = Constants.GLOW_WORM_FIRM_CONFIG_TOPIC;
+        unsubscribe = Constants.UNSUBSCRIBE_STREAM_TOPIC.replace(gwBaseTopic, defaultTopic);
+        stream = multiMonitor > 1 ? set + Constants.MQTT_STREAM_TOPIC + JavaFXStarter.whoAmI : set + Constants.MQTT_STREAM_TOPIC;
+
+    }
+
+    /**
+     * Topics for the configuration in use, no string work unless the configuration changed
+     * @return topic table
+     */
+    public static MqttTopics get() {
+
+        MqttTopics topics = current;
+        Configuration config = FireflyLuciferin.config;
+        // Reference checks only, a new config or a new topic string means the user saved the settings
+        if (topics == null || topics.config != config || topics.configTopic != config.getMqttTopic()
+                || topics.multiMonitor != config.getMultiMonitor()) {
+            topics = new MqttTopics(config);
+            current = topics;
+        }
+        return topics;
+
+    }
+
+    /**
+     * Topic for an MQTT command
+     * @param command MQTT command
+     * @return MQTT topic, null for unknown commands
+     */
+    public String forCommand(String command) {
+
+        return switch (command) {
+            case Constants.MQTT_SET -> set;
+            case Constants.MQTT_EMPTY -> state;
+            case Constants.MQTT_UPDATE -> update;
+            case Constants.MQTT_FPS -> fps;
+            case Constants.MQTT_UPDATE_RES -> updateResult;
+            case Constants.MQTT_FRAMERATE -> framerate;
+            case Constants.MQTT_GAMMA -> gamma;
+            case Constants.MQTT_FIRMWARE_CONFIG -> firmwareConfig;
+            case Constants.MQTT_UNSUBSCRIBE -> unsubscribe;
+            default -> null;
+        };
+
+    }
+
+}
@@ -24,7 +24,6 @@ package org.dpsoftware.managers;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
-import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.gui.elements.GlowWormDevice;
 import org.dpsoftware.managers.dto.StateDto;
@@ -182,10 +181,8 @@ public class PipelineManager {
             FireflyLuciferin.guiManager.popup.remove(0);
             FireflyLuciferin.guiManager.popup.insert(FireflyLuciferin.guiManager.startItem, 0);
         }
-        if (FireflyLuciferin.pipe != null && ((FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.DDUPL.name()))
-                || (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.XIMAGESRC.name()))
-                || (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.AVFVIDEOSRC.name())))) {
-            FireflyLuciferin.pipe.stop();
+        if (FireflyLuciferin.frameSource != null) {
+            FireflyLuciferin.frameSource.stop();
         }
         FireflyLuciferin.FPS_PRODUCER_COUNTER = 0;
         FireflyLuciferin.FPS_CONSUMER_COUNTER = 0;
@@ -35,5 +35,10 @@ public class MqttFramerateDto {
 
     private String producing;
     private String consuming;
+    private String dropping;
+    private String dropped;
+    private String outOfOrder;
+    private String serialMaxFramerate;
+    private String serialHeadroom;
 
 }
\ No newline at end of file
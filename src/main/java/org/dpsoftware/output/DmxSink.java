@@ -0,0 +1,261 @@
+/*
+  DmxSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.LEDOutputMap;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * E1.31 (sACN) and Art-Net output for standard pixel controllers.
+ * The frame is mapped on consecutive DMX universes starting from the configured one, 170 RGB pixels per universe.
+ * Packets are allocated with their universe headers when the config or the LED number changes,
+ * every frame only rewrites sequence numbers and DMX data, sending through a datagram channel allocates nothing.
+ */
+@Slf4j
+public class DmxSink implements OutputSink {
+
+    // E1.31 root, framing and DMP layer sizes, DMX data starts after the start code
+    private static final int E131_HEADER_SIZE = 126;
+    private static final int E131_FRAMING_LAYER = 38;
+    private static final int E131_DMP_LAYER = 115;
+    private static final int E131_SEQUENCE = 111;
+    private static final byte[] E131_PACKET_IDENTIFIER = "ASC-E1.17\0\0\0".getBytes(StandardCharsets.US_ASCII);
+    // Art-Net ArtDmx header size, DMX data follows
+    private static final int ARTNET_HEADER_SIZE = 18;
+    private static final int ARTNET_SEQUENCE = 12;
+    private static final byte[] ARTNET_ID = "Art-Net\0".getBytes(StandardCharsets.US_ASCII);
+
+    private final DatagramChannel channel;
+    // Component identifier sent in E1.31 packets, unique for every run
+    private final byte[] cid = new byte[16];
+    private ByteBuffer[] packets = new ByteBuffer[0];
+    private InetSocketAddress[] targets = new InetSocketAddress[0];
+    private int headerSize;
+    private int sequenceOffset;
+    private int sequence;
+    // Config used to build the packets
+    private String protocol;
+    private String address;
+    private int startUniverse;
+    private int ledCount = -1;
+
+    /**
+     * Constructor
+     * @throws IOException can't open a datagram channel
+     */
+    public DmxSink() throws IOException {
+
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer.wrap(cid).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+
+    }
+
+    /**
+     * Send a frame on the DMX universes
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     */
+    @Override
+    public void send(LEDFrame leds, int ledNumber) {
+
+        Configuration config = FireflyLuciferin.config;
+        if (ledNumber != ledCount || config.getDmxStartUniverse() != startUniverse
+                || !config.getDmxProtocol().equals(protocol) || !config.getDmxAddress().equals(address)) {
+            allocatePackets(config, ledNumber);
+        }
+        // Sequence 0 disables reordering on Art-Net receivers
+        sequence = sequence == 0xFF ? 1 : sequence + 1;
+        int[] outputMap = LEDOutputMap.get(ledNumber);
+        int i = 0;
+        for (int u = 0; u < packets.length; u++) {
+            byte[] data = packets[u].array();
+            data[sequenceOffset] = (byte) sequence;
+            int j = headerSize;
+            int end = Math.min(ledNumber, i + Constants.DMX_PIXELS_PER_UNIVERSE);
+            while (i < end) {
+                int rgb = leds.getRGB(outputMap[i++]);
+                data[j++] = (byte) (rgb >> 16);
+                data[j++] = (byte) (rgb >> 8);
+                data[j++] = (byte) rgb;
+            }
+            try {
+                packets[u].clear();
+                channel.send(packets[u], targets[u]);
+            } catch (IOException e) {
+                log.error(e.getMessage());
+                return;
+            }
+        }
+
+    }
+
+    /**
+     * Allocate a packet for every universe and write its header.
+     * The config is recorded only if every target resolves, otherwise nothing is sent and the next frame retries.
+     * @param config configuration in use
+     * @param ledNumber number of LEDs on the strip
+     */
+    private void allocatePackets(Configuration config, int ledNumber) {
+
+        String protocolToUse = config.getDmxProtocol();
+        String addressToUse = config.getDmxAddress();
+        int startUniverseToUse = config.getDmxStartUniverse();
+        Constants.DmxProtocol dmxProtocol = Constants.DmxProtocol.valueOf(protocolToUse);
+        boolean e131 = dmxProtocol == Constants.DmxProtocol.E131;
+        int universes = Math.max(1, (ledNumber + Constants.DMX_PIXELS_PER_UNIVERSE - 1) / Constants.DMX_PIXELS_PER_UNIVERSE);
+        ByteBuffer[] allocated = new ByteBuffer[universes];
+        InetSocketAddress[] allocatedTargets = new InetSocketAddress[universes];
+        try {
+            InetAddress unicast = addressToUse.isEmpty() ? null : InetAddress.getByName(addressToUse);
+            for (int u = 0; u < universes; u++) {
+                int universe = startUniverseToUse + u;
+                int slots = Math.max(0, Math.min(Constants.DMX_PIXELS_PER_UNIVERSE, ledNumber - (u * Constants.DMX_PIXELS_PER_UNIVERSE))) * 3;
+                byte[] data;
+                InetAddress target;
+                if (e131) {
+                    data = new byte[E131_HEADER_SIZE + slots];
+                    writeE131Header(data, universe, slots);
+                    target = unicast != null ? unicast
+                            : InetAddress.getByName(Constants.DMX_MULTICAST_PREFIX + ((universe >> 8) & 0xFF) + "." + (universe & 0xFF));
+                } else {
+                    // ArtDmx length must be even
+                    int length = Math.max(2, slots + (slots & 1));
+                    data = new byte[ARTNET_HEADER_SIZE + length];
+                    writeArtNetHeader(data, universe, length);
+                    target = unicast != null ? unicast : InetAddress.getByName(Constants.DMX_BROADCAST_ADDRESS);
+                }
+                allocated[u] = ByteBuffer.wrap(data);
+                allocatedTargets[u] = new InetSocketAddress(target, dmxProtocol.getPort());
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            packets = new ByteBuffer[0];
+            targets = new InetSocketAddress[0];
+            return;
+        }
+        packets = allocated;
+        targets = allocatedTargets;
+        headerSize = e131 ? E131_HEADER_SIZE : ARTNET_HEADER_SIZE;
+        sequenceOffset = e131 ? E131_SEQUENCE : ARTNET_SEQUENCE;
+        protocol = protocolToUse;
+        address = addressToUse;
+        startUniverse = startUniverseToUse;
+        ledCount = ledNumber;
+
+    }
+
+    /**
+     * Write the E1.31 root, framing and DMP layers
+     * @param data packet
+     * @param universe DMX universe
+     * @param slots number of DMX slots
+     */
+    private void writeE131Header(byte[] data, int universe, int slots) {
+
+        int length = data.length;
+        // Root layer
+        data[1] = 0x10;
+        System.arraycopy(E131_PACKET_IDENTIFIER, 0, data, 4, E131_PACKET_IDENTIFIER.length);
+        writeFlagsAndLength(data, 16, length - 16);
+        data[21] = 0x04;
+        System.arraycopy(cid, 0, data, 22, cid.length);
+        // Framing layer
+        writeFlagsAndLength(data, E131_FRAMING_LAYER, length - E131_FRAMING_LAYER);
+        data[43] = 0x02;
+        byte[] sourceName = Constants.FIREFLY_LUCIFERIN.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(sourceName, 0, data, 44, Math.min(sourceName.length, 63));
+        data[108] = (byte) Constants.DMX_PRIORITY;
+        data[113] = (byte) (universe >> 8);
+        data[114] = (byte) universe;
+        // DMP layer
+        writeFlagsAndLength(data, E131_DMP_LAYER, length - E131_DMP_LAYER);
+        data[117] = 0x02;
+        data[118] = (byte) 0xA1;
+        data[122] = 0x01;
+        data[123] = (byte) ((slots + 1) >> 8);
+        data[124] = (byte) (slots + 1);
+
+    }
+
+    /**
+     * Write the Art-Net ArtDmx header
+     * @param data packet
+     * @param universe 15 bit port address
+     * @param length DMX data length
+     */
+    private void writeArtNetHeader(byte[] data, int universe, int length) {
+
+        System.arraycopy(ARTNET_ID, 0, data, 0, ARTNET_ID.length);
+        // OpDmx, little endian
+        data[9] = 0x50;
+        // Protocol version 14
+        data[11] = 0x0E;
+        data[14] = (byte) universe;
+        data[15] = (byte) ((universe >> 8) & 0x7F);
+        data[16] = (byte) (length >> 8);
+        data[17] = (byte) length;
+
+    }
+
+    /**
+     * Write an ACN PDU flags and length field
+     * @param data packet
+     * @param offset field offset
+     * @param length PDU length
+     */
+    private static void writeFlagsAndLength(byte[] data, int offset, int length) {
+
+        data[offset] = (byte) (0x70 | ((length >> 8) & 0x0F));
+        data[offset + 1] = (byte) length;
+
+    }
+
+    /**
+     * Close the datagram channel
+     */
+    @Override
+    public void close() {
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+
+    }
+
+}
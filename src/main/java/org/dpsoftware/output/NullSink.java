@@ -0,0 +1,41 @@
+/*
+  NullSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.LEDFrame;
+
+/**
+ * Discard every frame, used to benchmark the capture pipeline without a device
+ */
+public class NullSink implements OutputSink {
+
+    /**
+     * Discard the frame
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     */
+    @Override
+    public void send(LEDFrame leds, int ledNumber) {
+
+    }
+
+}
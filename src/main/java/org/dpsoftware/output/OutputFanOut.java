@@ -0,0 +1,133 @@
+/*
+  OutputFanOut.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Send every frame to all the output sinks in use, in parallel.
+ * Every sink runs on its own SinkRunner, the consumer only copies the frame in the sink hand-off slots.
+ */
+@Slf4j
+public class OutputFanOut {
+
+    private final SinkRunner[] sinkRunners;
+
+    /**
+     * Create and start the sinks in use
+     * @param config configuration in use
+     */
+    public OutputFanOut(Configuration config) {
+
+        List<SinkRunner> runners = new ArrayList<>();
+        List<Constants.OutputSinkType> sinkTypes = getSinkTypes(config);
+        for (Constants.OutputSinkType sinkType : sinkTypes) {
+            try {
+                runners.add(new SinkRunner(sinkType, OutputSink.create(sinkType)));
+            } catch (IOException e) {
+                log.error(Constants.OUTPUT_SINK_ERROR + sinkType.name() + " " + e.getMessage());
+            }
+        }
+        sinkRunners = runners.toArray(new SinkRunner[0]);
+        log.info(Constants.OUTPUT_SINKS_IN_USE + sinkTypes);
+
+    }
+
+    /**
+     * Outputs in use, the outputSinks list if set,
+     * the serial port or the wireless stream (UDP or MQTT) otherwise, plus DMX if enabled
+     * @param config configuration in use
+     * @return outputs in use
+     */
+    public static List<Constants.OutputSinkType> getSinkTypes(Configuration config) {
+
+        List<Constants.OutputSinkType> sinkTypes = new ArrayList<>();
+        if (config.getOutputSinks() != null && !config.getOutputSinks().isEmpty()) {
+            for (String outputSink : config.getOutputSinks()) {
+                try {
+                    Constants.OutputSinkType sinkType = Constants.OutputSinkType.valueOf(outputSink.trim().toUpperCase());
+                    if (!sinkTypes.contains(sinkType)) {
+                        sinkTypes.add(sinkType);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.error(Constants.OUTPUT_SINK_ERROR + outputSink);
+                }
+            }
+        } else {
+            if (config.isMqttEnable() && config.isMqttStream()) {
+                sinkTypes.add(config.isUdpStream() ? Constants.OutputSinkType.UDP : Constants.OutputSinkType.MQTT);
+            } else {
+                sinkTypes.add(Constants.OutputSinkType.SERIAL);
+            }
+            if (config.isDmxEnable()) {
+                sinkTypes.add(Constants.OutputSinkType.DMX);
+            }
+        }
+        return sinkTypes;
+
+    }
+
+    /**
+     * Hand off a frame to every sink, the frame is copied so the caller keeps ownership
+     * @param leds frame with colors
+     */
+    public void publish(LEDFrame leds) {
+
+        for (SinkRunner sinkRunner : sinkRunners) {
+            sinkRunner.offer(leds);
+        }
+
+    }
+
+    /**
+     * Close every sink
+     */
+    public void close() {
+
+        for (SinkRunner sinkRunner : sinkRunners) {
+            sinkRunner.close();
+        }
+
+    }
+
+    /**
+     * Stats of every sink since the last call, stats are reset
+     * @return human readable stats
+     */
+    public String report() {
+
+        StringBuilder report = new StringBuilder();
+        for (SinkRunner sinkRunner : sinkRunners) {
+            report.append(" --* ").append(sinkRunner.report()).append(" *-- ");
+        }
+        return report.toString();
+
+    }
+
+}
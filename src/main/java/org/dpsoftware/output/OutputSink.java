@@ -0,0 +1,90 @@
+/*
+  OutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+
+/**
+ * Destination of the captured frames, there is one implementation for every output.
+ * Every sink in use runs on its own thread behind a SinkRunner, a slow sink never throttles the others.
+ * Sinks get frames in capture order, orientation and start offset are applied through the LED output map.
+ */
+public interface OutputSink {
+
+    /**
+     * Send a frame, the frame is owned by the caller and must not be kept after returning
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     */
+    void send(LEDFrame leds, int ledNumber);
+
+    /**
+     * Max framerate this sink can handle, frames coming faster are skipped and only the newest is sent
+     * @return max framerate, 0 means no limit
+     */
+    default float getMaxFramerate() {
+
+        return 0;
+
+    }
+
+    /**
+     * Sinks that keep the newest frame for their own writer thread are fed directly on the consumer thread,
+     * a SinkRunner slot in front of them would buffer every frame twice
+     * @return true if send only hands the frame off to a writer thread owned by the sink
+     */
+    default boolean hasOwnWriter() {
+
+        return false;
+
+    }
+
+    /**
+     * Release what the sink holds, the sink is not used anymore
+     */
+    default void close() {
+
+    }
+
+    /**
+     * Create the sink for an output
+     * @param sinkType output in use
+     * @return output sink
+     * @throws IOException can't open the output
+     */
+    static OutputSink create(Constants.OutputSinkType sinkType) throws IOException {
+
+        return switch (sinkType) {
+            case SERIAL -> new SerialSink();
+            case MQTT -> new MqttSink();
+            case UDP -> new UdpSink();
+            case DMX -> new DmxSink();
+            case RECORDER -> new RecorderSink();
+            case NULL -> new NullSink();
+        };
+
+    }
+
+}
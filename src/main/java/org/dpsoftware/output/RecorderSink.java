@@ -0,0 +1,130 @@
+/*
+  RecorderSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.LEDOutputMap;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Record the frames sent to the LEDs, used to compare outputs and to debug without a device.
+ * File layout, little endian: LED number (int), then frames one after the other,
+ * LED number ints packed as 0x..RRGGBB in strip order for every frame.
+ * The file is truncated when the sink is created, the frame buffer is reused between frames.
+ */
+@Slf4j
+public class RecorderSink implements OutputSink {
+
+    private final String recordFile;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    // Recording stops on the first error, the error is logged once
+    private boolean failed;
+
+    /**
+     * Constructor
+     */
+    public RecorderSink() {
+
+        recordFile = FireflyLuciferin.config.getRecordFile();
+
+    }
+
+    /**
+     * Append the frame to the record file, the file is opened with the first frame
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     */
+    @Override
+    public void send(LEDFrame leds, int ledNumber) {
+
+        if (failed) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                open(ledNumber);
+            }
+            if (ledNumber * Integer.BYTES != buffer.capacity()) {
+                // Frames of a different size can't be replayed from the same file
+                return;
+            }
+            int[] outputMap = LEDOutputMap.get(ledNumber);
+            buffer.clear();
+            for (int i = 0; i < ledNumber; i++) {
+                buffer.putInt(leds.getRGB(outputMap[i]));
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            log.error(Constants.RECORD_FILE_ERROR + recordFile + " " + e.getMessage());
+            failed = true;
+            close();
+        }
+
+    }
+
+    /**
+     * Open the record file and write the header
+     * @param ledNumber number of LEDs on the strip
+     * @throws IOException can't write the file
+     */
+    private void open(int ledNumber) throws IOException {
+
+        channel = FileChannel.open(Path.of(recordFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(ledNumber * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(ledNumber);
+        header.flip();
+        channel.write(header);
+        log.info(Constants.RECORD_FILE_IN_USE + recordFile);
+
+    }
+
+    /**
+     * Close the record file
+     */
+    @Override
+    public void close() {
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error(e.getMessage());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+  SinkRunner.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated thread for an output sink, frames are handed off through a single slot that keeps only the newest frame.
+ * Every sink has its own rate limiter and drop counters, a slow sink drops its own frames and never throttles the others.
+ * Sinks with their own writer thread get the frame directly, they keep the newest frame and limit their rate themselves.
+ */
+@Slf4j
+public class SinkRunner {
+
+    private final Constants.OutputSinkType sinkType;
+    private final OutputSink sink;
+    // Single slot hand-off, the sink always gets the newest frame
+    private final BlockingQueue<LEDFrame> handOff = new ArrayBlockingQueue<>(1);
+    private long lastSend = System.nanoTime() - TimeUnit.SECONDS.toNanos(1);
+    // Stats since the last report
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong limitedFrames = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+
+    /**
+     * Start the sink thread
+     * @param sinkType output in use
+     * @param sink output sink
+     */
+    public SinkRunner(Constants.OutputSinkType sinkType, OutputSink sink) {
+
+        this.sinkType = sinkType;
+        this.sink = sink;
+        if (!sink.hasOwnWriter()) {
+            Thread thread = new Thread(this::sendLoop, Constants.OUTPUT_SINK_THREAD + sinkType.name());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+    }
+
+    /**
+     * Hand off a frame to the sink, the frame is copied so the caller keeps ownership
+     * @param leds frame with colors
+     */
+    public void offer(LEDFrame leds) {
+
+        if (sink.hasOwnWriter()) {
+            send(leds);
+            return;
+        }
+        LEDFrame frame = LEDFrame.copyOf(leds);
+        while (!handOff.offer(frame)) {
+            // Sink is busy, the frame waiting for it is stale
+            LEDFrame stale = handOff.poll();
+            if (stale != null) {
+                stale.release();
+                droppedFrames.incrementAndGet();
+            }
+        }
+
+    }
+
+    /**
+     * Sink loop, waits for the rate limiter and sends the newest frame
+     */
+    private void sendLoop() {
+
+        while (true) {
+            LEDFrame frame;
+            try {
+                frame = handOff.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            float maxFramerate = sink.getMaxFramerate();
+            if (maxFramerate > 0) {
+                long wait = lastSend + (long) (TimeUnit.SECONDS.toNanos(1) / maxFramerate) - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    // Send the newest frame received while waiting
+                    LEDFrame newer = handOff.poll();
+                    if (newer != null) {
+                        frame.release();
+                        frame = newer;
+                        limitedFrames.incrementAndGet();
+                    }
+                }
+            }
+            try {
+                send(frame);
+            } finally {
+                frame.release();
+            }
+        }
+
+    }
+
+    /**
+     * Send a frame and record the time spent
+     * @param frame frame with colors, owned by the caller
+     */
+    private void send(LEDFrame frame) {
+
+        long start = System.nanoTime();
+        try {
+            sink.send(frame, FireflyLuciferin.ledNumber);
+        } catch (RuntimeException e) {
+            log.error(e.getMessage());
+        }
+        lastSend = start;
+        sentFrames.incrementAndGet();
+        maxSendNanos.accumulateAndGet(System.nanoTime() - start, Math::max);
+
+    }
+
+    /**
+     * Close the sink
+     */
+    public void close() {
+
+        sink.close();
+
+    }
+
+    /**
+     * Sink stats since the last call, stats are reset
+     * @return human readable stats
+     */
+    public String report() {
+
+        return sinkType.name() + " sent: " + sentFrames.getAndSet(0) + ", dropped: " + droppedFrames.getAndSet(0)
+                + ", rate limited: " + limitedFrames.getAndSet(0) + ", max send "
+                + TimeUnit.NANOSECONDS.toMicros(maxSendNanos.getAndSet(0)) + "us";
+
+    }
+
+}
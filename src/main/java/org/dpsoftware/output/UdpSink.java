@@ -0,0 +1,171 @@
+/*
+  UdpSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.LEDOutputMap;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.utilities.CommonUtility;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Realtime stream sent straight to the Glow Worm Luciferin device over UDP, MQTT is used for control only.
+ * Datagrams are reused between frames, a frame is split in as many datagrams as needed to avoid IP fragmentation.
+ * Datagram: UDP stream marker, sequence hi, sequence lo, LED count hi, LED count lo, offset hi, offset lo,
+ * then RGB for the LEDs of the datagram following the LED output map. Every datagram of a frame has the same
+ * sequence number, the device drops datagrams older than the last frame it displayed.
+ */
+@Slf4j
+public class UdpSink implements OutputSink {
+
+    public static final int HEADER_SIZE = 7;
+    public static final byte UDP_STREAM_MARKER = (byte) 0xD6;
+
+    private final DatagramSocket socket;
+    private DatagramPacket[] datagrams = new DatagramPacket[0];
+    private int ledCount = -1;
+    private int sequence;
+    // Device address, resolved again only when the device IP changes
+    private String deviceIP;
+    private InetAddress deviceAddress;
+    private long lastResolve;
+
+    /**
+     * Constructor
+     * @throws SocketException can't open a socket
+     */
+    public UdpSink() throws SocketException {
+
+        socket = new DatagramSocket();
+
+    }
+
+    /**
+     * Send a frame to the device in use, nothing is sent until the device IP is known
+     * @param leds frame with colors
+     * @param ledNumber number of LEDs on the strip
+     */
+    @Override
+    public void send(LEDFrame leds, int ledNumber) {
+
+        InetAddress address = getDeviceAddress();
+        if (address == null) {
+            return;
+        }
+        if (ledNumber != ledCount) {
+            allocateDatagrams(ledNumber);
+        }
+        sequence = (sequence + 1) & 0xFFFF;
+        int[] outputMap = LEDOutputMap.get(ledNumber);
+        int i = 0;
+        for (DatagramPacket datagram : datagrams) {
+            byte[] payload = datagram.getData();
+            int j = -1;
+            payload[++j] = UDP_STREAM_MARKER;
+            payload[++j] = (byte) (sequence >> 8);
+            payload[++j] = (byte) sequence;
+            payload[++j] = (byte) (ledNumber >> 8);
+            payload[++j] = (byte) ledNumber;
+            payload[++j] = (byte) (i >> 8);
+            payload[++j] = (byte) i;
+            while (j < payload.length - 1) {
+                int rgb = leds.getRGB(outputMap[i++]);
+                payload[++j] = (byte) (rgb >> 16);
+                payload[++j] = (byte) (rgb >> 8);
+                payload[++j] = (byte) rgb;
+            }
+            datagram.setAddress(address);
+            try {
+                socket.send(datagram);
+            } catch (IOException e) {
+                log.error(e.getMessage());
+                return;
+            }
+        }
+
+    }
+
+    /**
+     * Allocate datagrams for a LED number, every datagram fits a single Ethernet frame
+     * @param ledNumber number of LEDs on the strip
+     */
+    private void allocateDatagrams(int ledNumber) {
+
+        int ledsPerDatagram = (Constants.UDP_MAX_PAYLOAD - HEADER_SIZE) / 3;
+        datagrams = new DatagramPacket[Math.max(1, (ledNumber + ledsPerDatagram - 1) / ledsPerDatagram)];
+        for (int i = 0; i < datagrams.length; i++) {
+            int datagramLeds = Math.max(0, Math.min(ledsPerDatagram, ledNumber - (i * ledsPerDatagram)));
+            byte[] payload = new byte[HEADER_SIZE + (datagramLeds * 3)];
+            datagrams[i] = new DatagramPacket(payload, payload.length);
+            datagrams[i].setPort(FireflyLuciferin.config.getUdpPort());
+        }
+        ledCount = ledNumber;
+
+    }
+
+    /**
+     * Address of the device in use, looked up once per second
+     * @return device address, null if unknown
+     */
+    private InetAddress getDeviceAddress() {
+
+        long now = System.nanoTime();
+        if (now - lastResolve > TimeUnit.SECONDS.toNanos(1)) {
+            lastResolve = now;
+            GlowWormDevice device = CommonUtility.getDeviceToUse();
+            String ip = device != null ? device.getDeviceIP() : null;
+            if (ip == null || ip.isEmpty() || Constants.DASH.equals(ip)) {
+                deviceAddress = null;
+            } else if (!ip.equals(deviceIP)) {
+                try {
+                    deviceAddress = InetAddress.getByName(ip);
+                } catch (IOException e) {
+                    log.error(e.getMessage());
+                    deviceAddress = null;
+                }
+            }
+            deviceIP = ip;
+        }
+        return deviceAddress;
+
+    }
+
+    /**
+     * Close the socket
+     */
+    @Override
+    public void close() {
+
+        socket.close();
+
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+  Benchmark.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+/**
+ * Timing harness shared by benchmarks, a task is run once to warm up the JIT and then measured on a second run
+ */
+public class Benchmark {
+
+    /**
+     * Time of a task and the value it computed
+     * @param nanosPerIteration nanoseconds spent on every iteration of the timed run
+     * @param result value returned by the timed run
+     */
+    public record Measurement(long nanosPerIteration, long result) {
+    }
+
+    /**
+     * Warm up and time a task, the task returns a value computed from its work so the JIT can't drop it
+     * @param iterations number of iterations done by the task, frames or packets
+     * @param task task to time
+     * @return time per iteration and value returned by the timed run
+     */
+    public static Measurement measure(int iterations, LongSupplier task) {
+
+        task.getAsLong();
+        long start = System.nanoTime();
+        long result = task.getAsLong();
+        return new Measurement((System.nanoTime() - start) / iterations, result);
+
+    }
+
+    /**
+     * Warm up a task and measure the heap it allocates on the calling thread
+     * @param iterations number of iterations done by the task, frames or packets
+     * @param task task to measure
+     * @return bytes allocated on every iteration of the measured run
+     */
+    public static long allocatedBytes(int iterations, Runnable task) {
+
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        task.run();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        task.run();
+        return (threadBean.getThreadAllocatedBytes(threadId) - start) / iterations;
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+  LEDFrameTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Packed colors, copies and pool ownership of LED frames
+ */
+class LEDFrameTest {
+
+    @Test
+    void channelsArePacked() {
+
+        LEDFrame frame = LEDFrame.acquire(2);
+        frame.setRGB(0, 0x12, 0x34, 0x56);
+        frame.setRGB(1, 0xFFABCDEF);
+        assertEquals(0x123456, frame.getRGB(0));
+        assertEquals(0x12, frame.getRed(0));
+        assertEquals(0x34, frame.getGreen(0));
+        assertEquals(0x56, frame.getBlue(0));
+        assertEquals(0xABCDEF, frame.getRGB(1));
+        frame.release();
+
+    }
+
+    @Test
+    void copyKeepsColorsSequenceAndCaptureTime() {
+
+        LEDFrame frame = LEDFrame.acquire(3);
+        frame.setRGB(2, 0x010203);
+        frame.stamp(42, 1000);
+        LEDFrame copy = LEDFrame.copyOf(frame);
+        assertNotSame(frame, copy);
+        assertEquals(3, copy.getLedCount());
+        assertEquals(0x010203, copy.getRGB(2));
+        assertEquals(42, copy.getSequence());
+        assertEquals(1000, copy.getCaptureTime());
+        frame.release();
+        copy.release();
+
+    }
+
+    @Test
+    void acquireStampsIncreasingSequences() {
+
+        LEDFrame first = LEDFrame.acquire(1);
+        LEDFrame second = LEDFrame.acquire(1);
+        assertTrue(second.getSequence() > first.getSequence());
+        first.release();
+        second.release();
+
+    }
+
+    @Test
+    void doubleReleaseFailsFast() {
+
+        LEDFrame frame = LEDFrame.acquire(10);
+        frame.release();
+        assertThrows(IllegalStateException.class, frame::release);
+        // The frame is in the pool once, it can be acquired and released again
+        LEDFrame reused = LEDFrame.acquire(10);
+        reused.release();
+
+    }
+
+}
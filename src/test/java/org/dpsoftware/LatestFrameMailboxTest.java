@@ -0,0 +1,89 @@
+/*
+  LatestFrameMailboxTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mailbox keeps the freshest frames, overwritten frames go back to the pool and are counted as dropped
+ */
+class LatestFrameMailboxTest {
+
+    @Test
+    void latestFrameWins() {
+
+        LatestFrameMailbox mailbox = new LatestFrameMailbox(1);
+        LEDFrame first = LEDFrame.acquire(3);
+        LEDFrame second = LEDFrame.acquire(3);
+        LEDFrame third = LEDFrame.acquire(3);
+        assertTrue(mailbox.offer(first));
+        assertTrue(mailbox.offer(second));
+        assertTrue(mailbox.offer(third));
+        assertEquals(1, mailbox.size());
+        assertSame(third, mailbox.poll());
+        assertNull(mailbox.poll());
+        third.release();
+
+    }
+
+    @Test
+    void oldestFrameIsOverwritten() {
+
+        LatestFrameMailbox mailbox = new LatestFrameMailbox(2);
+        LEDFrame first = LEDFrame.acquire(3);
+        LEDFrame second = LEDFrame.acquire(3);
+        LEDFrame third = LEDFrame.acquire(3);
+        mailbox.offer(first);
+        mailbox.offer(second);
+        mailbox.offer(third);
+        assertSame(second, mailbox.poll());
+        assertSame(third, mailbox.poll());
+        second.release();
+        third.release();
+
+    }
+
+    @Test
+    void overwrittenFramesAreReleasedAndCounted() {
+
+        LatestFrameMailbox mailbox = new LatestFrameMailbox(1);
+        long droppedFrames = FireflyLuciferin.DROPPED_FRAMES_COUNTER.get();
+        LEDFrame first = LEDFrame.acquire(3);
+        LEDFrame second = LEDFrame.acquire(3);
+        LEDFrame third = LEDFrame.acquire(3);
+        mailbox.offer(first);
+        mailbox.offer(second);
+        mailbox.offer(third);
+        assertEquals(droppedFrames + 2, FireflyLuciferin.DROPPED_FRAMES_COUNTER.get());
+        // Overwritten frames are already back in the pool, releasing them again fails fast
+        assertThrows(IllegalStateException.class, first::release);
+        assertThrows(IllegalStateException.class, second::release);
+        LEDFrame kept = mailbox.poll();
+        assertSame(third, kept);
+        kept.release();
+        assertEquals(droppedFrames + 2, FireflyLuciferin.DROPPED_FRAMES_COUNTER.get());
+
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+  MqttStreamBuilderTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Binary stream parts decoded by the reference decoder must give back the frame sent,
+ * the text stream must be the one sent before the binary stream existed
+ */
+class MqttStreamBuilderTest {
+
+    private final MqttStreamBuilder mqttStreamBuilder = new MqttStreamBuilder();
+    private final MqttStreamDecoder mqttStreamDecoder = new MqttStreamDecoder();
+    private final Random random = new Random(1);
+    private Configuration config;
+
+    @BeforeEach
+    void setUp() {
+
+        config = TestUtility.initConfig();
+        FireflyLuciferin.ledNumber = 300;
+
+    }
+
+    @Test
+    void binaryPayloadLayout() {
+
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        frame.setRGB(LEDOutputMap.get(300)[0], 0x123456);
+        byte[][] parts = mqttStreamBuilder.build(frame, 300);
+        // 300 LEDs fit in the default max payload
+        assertEquals(1, parts.length);
+        byte[] payload = parts[0];
+        assertEquals(MqttStreamBuilder.HEADER_SIZE + (300 * 3), payload.length);
+        assertEquals(MqttStreamBuilder.BINARY_STREAM_MARKER, payload[0]);
+        assertEquals(1, payload[1]);
+        // LED count and offset, big endian
+        assertArrayEquals(new byte[] {0x01, 0x2C, 0x00, 0x00}, new byte[] {payload[2], payload[3], payload[4], payload[5]});
+        // First LED on the strip
+        assertArrayEquals(new byte[] {0x12, 0x34, 0x56}, new byte[] {payload[6], payload[7], payload[8]});
+        assertArrayEquals(TestUtility.stripOrder(frame), mqttStreamDecoder.decode(parts));
+        frame.release();
+
+    }
+
+    @Test
+    void partsSplitAtTheConfiguredSize() {
+
+        // 64 LEDs per part
+        config.setMqttMaxPayload(MqttStreamBuilder.HEADER_SIZE + (64 * 3) + 2);
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        byte[][] parts = mqttStreamBuilder.build(frame, 300);
+        assertEquals(5, parts.length);
+        for (byte[] part : parts) {
+            assertTrue(part.length <= config.getMqttMaxPayload());
+        }
+        assertEquals(MqttStreamBuilder.HEADER_SIZE + ((300 - (4 * 64)) * 3), parts[4].length);
+        assertArrayEquals(TestUtility.stripOrder(frame), mqttStreamDecoder.decode(parts));
+        assertArrayEquals(new int[] {0, 64, 128, 192, 256}, mqttStreamDecoder.getOffsets());
+        assertEquals(300, mqttStreamDecoder.getLedCount());
+        int frameId = mqttStreamDecoder.getFrameId();
+        // Next frame, every part carries the next frame id
+        frame.setRGB(7, 0xFFFFFF);
+        parts = mqttStreamBuilder.build(frame, 300);
+        assertArrayEquals(TestUtility.stripOrder(frame), mqttStreamDecoder.decode(parts));
+        assertEquals((frameId + 1) & 0xFF, mqttStreamDecoder.getFrameId());
+        frame.release();
+
+    }
+
+    @Test
+    void frameIdWrapsAndPartsFollowLedCount() {
+
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        for (int i = 0; i < 256; i++) {
+            mqttStreamBuilder.build(frame, 300);
+        }
+        mqttStreamDecoder.decode(mqttStreamBuilder.build(frame, 300));
+        assertEquals(1, mqttStreamDecoder.getFrameId());
+        frame.release();
+        // More LEDs than a part can carry
+        FireflyLuciferin.ledNumber = 500;
+        frame = TestUtility.randomFrame(500, random);
+        byte[][] parts = mqttStreamBuilder.build(frame, 500);
+        assertEquals(2, parts.length);
+        assertArrayEquals(TestUtility.stripOrder(frame), mqttStreamDecoder.decode(parts));
+        assertArrayEquals(new int[] {0, (config.getMqttMaxPayload() - MqttStreamBuilder.HEADER_SIZE) / 3}, mqttStreamDecoder.getOffsets());
+        frame.release();
+
+    }
+
+    @Test
+    void textPayloadMatchesTheBaselineFormat() {
+
+        FireflyLuciferin.ledNumber = 3;
+        LEDFrame frame = LEDFrame.acquire(3);
+        int[] outputMap = LEDOutputMap.get(3);
+        frame.setRGB(outputMap[0], 0x000000);
+        frame.setRGB(outputMap[1], 0xFF8000);
+        frame.setRGB(outputMap[2], 0xFFFFFF);
+        List<String> payloads = new ArrayList<>();
+        mqttStreamBuilder.buildText(frame, 3, payloads::add);
+        // LED count, java.awt.Color.getRGB() of every LED and a trailing 0, as sent before LED frames
+        assertEquals(List.of("3," + new Color(0, 0, 0).getRGB() + "," + new Color(255, 128, 0).getRGB() + ","
+                + new Color(255, 255, 255).getRGB() + ",0"), payloads);
+        assertEquals(List.of("3,-16777216,-32768,-1,0"), payloads);
+        frame.release();
+
+    }
+
+    @Test
+    void textPayloadIsCappedToMaxChunk() {
+
+        int ledNumber = Constants.MAX_CHUNK + 10;
+        FireflyLuciferin.ledNumber = ledNumber;
+        LEDFrame frame = TestUtility.randomFrame(ledNumber, random);
+        List<String> payloads = new ArrayList<>();
+        mqttStreamBuilder.buildText(frame, ledNumber, payloads::add);
+        assertEquals(1, payloads.size());
+        String[] fields = payloads.get(0).split(",");
+        assertEquals(Constants.MAX_CHUNK + 2, fields.length);
+        assertEquals(String.valueOf(ledNumber), fields[0]);
+        assertEquals("0", fields[fields.length - 1]);
+        int[] strip = TestUtility.stripOrder(frame);
+        for (int i = 0; i < Constants.MAX_CHUNK; i++) {
+            assertEquals(strip[i] | 0xFF000000, Integer.parseInt(fields[i + 1]), "LED " + i);
+        }
+        frame.release();
+
+    }
+
+}
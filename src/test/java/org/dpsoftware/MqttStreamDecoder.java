@@ -0,0 +1,135 @@
+/*
+  MqttStreamDecoder.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+/**
+ * Reference decoder of the binary MQTT stream built by MqttStreamBuilder, it reassembles parts like the firmware does.
+ * Decoding fails on anything the firmware would discard: bad marker, parts of different frames or LED counts,
+ * parts out of order, incomplete frames.
+ */
+public class MqttStreamDecoder {
+
+    // Fields of the last decoded frame
+    private int frameId = -1;
+    private int ledCount;
+    private int[] offsets = new int[0];
+
+    /**
+     * Reassemble the parts of a frame
+     * @param parts parts in publish order
+     * @return colors on the strip, packed as 0xRRGGBB in strip order
+     */
+    public int[] decode(byte[][] parts) {
+
+        check(parts.length > 0, "no parts");
+        frameId = u8(parts[0], 1);
+        ledCount = u16(parts[0], 2);
+        offsets = new int[parts.length];
+        int[] strip = new int[ledCount];
+        int nextLed = 0;
+        for (int part = 0; part < parts.length; part++) {
+            byte[] payload = parts[part];
+            check(payload.length >= MqttStreamBuilder.HEADER_SIZE, "part length");
+            check(payload[0] == MqttStreamBuilder.BINARY_STREAM_MARKER, "marker");
+            check(u8(payload, 1) == frameId, "frame id");
+            check(u16(payload, 2) == ledCount, "LED count");
+            offsets[part] = u16(payload, 4);
+            check(offsets[part] == nextLed, "part offset");
+            int colorBytes = payload.length - MqttStreamBuilder.HEADER_SIZE;
+            check(colorBytes % 3 == 0 && nextLed + (colorBytes / 3) <= ledCount, "part outside of the strip");
+            for (int position = MqttStreamBuilder.HEADER_SIZE; position < payload.length; position += 3) {
+                strip[nextLed++] = (u8(payload, position) << 16) | (u8(payload, position + 1) << 8) | u8(payload, position + 2);
+            }
+        }
+        check(nextLed == ledCount, "incomplete frame");
+        return strip;
+
+    }
+
+    /**
+     * Frame id of the last decoded frame
+     * @return frame id, 0 to 255
+     */
+    public int getFrameId() {
+
+        return frameId;
+
+    }
+
+    /**
+     * LED count of the last decoded frame
+     * @return LED count
+     */
+    public int getLedCount() {
+
+        return ledCount;
+
+    }
+
+    /**
+     * First LED of every part of the last decoded frame
+     * @return offsets in part order
+     */
+    public int[] getOffsets() {
+
+        return offsets;
+
+    }
+
+    /**
+     * Read an unsigned byte
+     * @param payload payload bytes
+     * @param position byte to read
+     * @return value, 0 to 255
+     */
+    private static int u8(byte[] payload, int position) {
+
+        return payload[position] & 0xFF;
+
+    }
+
+    /**
+     * Read an unsigned big endian short
+     * @param payload payload bytes
+     * @param position first byte to read
+     * @return value, 0 to 65535
+     */
+    private static int u16(byte[] payload, int position) {
+
+        return (u8(payload, position) << 8) | u8(payload, position + 1);
+
+    }
+
+    /**
+     * Fail if the payload would be discarded by the firmware
+     * @param condition condition to check
+     * @param what what is checked
+     */
+    private static void check(boolean condition, String what) {
+
+        if (!condition) {
+            throw new IllegalStateException("Invalid stream: " + what);
+        }
+
+    }
+
+}
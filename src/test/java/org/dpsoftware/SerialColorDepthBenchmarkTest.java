@@ -0,0 +1,83 @@
+/*
+  SerialColorDepthBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * Max framerate of the serial link for every color depth and baud rate, plus the cost of building a packet
+ */
+@Slf4j
+@Tag("benchmark")
+class SerialColorDepthBenchmarkTest {
+
+    private static final int LED_NUMBER = 500;
+    private static final int FRAMES = 5000;
+
+    @AfterEach
+    void tearDown() {
+
+        FireflyLuciferin.serialCapabilities = 0;
+
+    }
+
+    @Test
+    void framerateGainedPerBaudRate() {
+
+        Configuration config = TestUtility.initConfig();
+        FireflyLuciferin.serialCapabilities = Constants.ColorDepth.RGB565.getCapability() | Constants.ColorDepth.RGB444.getCapability();
+        TestUtility.setLedNumber(LED_NUMBER);
+        LEDFrame frame = TestUtility.randomFrame(LED_NUMBER, new Random(1));
+        int[] packetLengths = new int[Constants.ColorDepth.values().length];
+        for (Constants.ColorDepth colorDepth : Constants.ColorDepth.values()) {
+            config.setSerialColorDepth(colorDepth.name());
+            SerialPacketBuilder serialPacketBuilder = new SerialPacketBuilder();
+            Benchmark.Measurement build = Benchmark.measure(FRAMES, () -> {
+                for (int i = 0; i < FRAMES; i++) {
+                    serialPacketBuilder.build(frame, LED_NUMBER);
+                }
+                return serialPacketBuilder.getPacketLength();
+            });
+            packetLengths[colorDepth.ordinal()] = (int) build.result();
+            log.info(colorDepth + ", " + LED_NUMBER + " LEDs: " + build.result() + " bytes, built in " + build.nanosPerIteration() + " ns");
+        }
+        for (Constants.BaudRate baudRate : Constants.BaudRate.values()) {
+            StringBuilder framerates = new StringBuilder(baudRate.getBaudRate() + " baud:");
+            for (Constants.ColorDepth colorDepth : Constants.ColorDepth.values()) {
+                float framerate = Float.parseFloat(baudRate.getBaudRate())
+                        / (packetLengths[colorDepth.ordinal()] * Constants.SERIAL_BITS_PER_BYTE);
+                framerates.append(" ").append(colorDepth).append(String.format(" %.1f FPS", framerate));
+            }
+            log.info(framerates.toString());
+        }
+        frame.release();
+
+    }
+
+}
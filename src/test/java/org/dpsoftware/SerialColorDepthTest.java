@@ -0,0 +1,152 @@
+/*
+  SerialColorDepthTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RGB565 and RGB444 packets decoded by the reference decoder, keyframes and delta runs, even and odd LED counts
+ */
+class SerialColorDepthTest extends SerialPacketFixture {
+
+    @BeforeEach
+    void setUp() {
+
+        config.setSerialDithering(false);
+        FireflyLuciferin.serialCapabilities = Constants.SERIAL_CAPABILITY_DELTA
+                | Constants.ColorDepth.RGB565.getCapability() | Constants.ColorDepth.RGB444.getCapability();
+
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Constants.ColorDepth.class, names = {"RGB565", "RGB444"})
+    void keyframesWithEvenAndOddLedCounts(Constants.ColorDepth colorDepth) {
+
+        config.setSerialColorDepth(colorDepth.name());
+        for (int ledNumber : new int[] {1, 2, 3, 300, 301}) {
+            TestUtility.setLedNumber(ledNumber);
+            LEDFrame frame = TestUtility.randomFrame(ledNumber, random);
+            send(frame, colorDepth);
+            assertEquals(colorDepth, serialPacketDecoder.getColorDepth());
+            assertEquals(SerialPacketBuilder.HEADER_SIZE + (((ledNumber * colorDepth.getBitsPerLed()) + 7) / 8),
+                    serialPacketDecoder.getLength());
+            assertEquals(serialPacketDecoder.getLength(), SerialPacketBuilder.getFullFrameSize(ledNumber));
+            frame.release();
+        }
+
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Constants.ColorDepth.class, names = {"RGB565", "RGB444"})
+    void deltaRunsCarryPackedColors(Constants.ColorDepth colorDepth) {
+
+        config.setSerialColorDepth(colorDepth.name());
+        config.setSerialDeltaEncoding(true);
+        TestUtility.setLedNumber(301);
+        LEDFrame frame = TestUtility.randomFrame(301, random);
+        send(frame, colorDepth);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        // Runs of odd and even length, the last one ends on the last LED
+        frame.setRGB(LEDOutputMap.get(301)[5], 0xFFFFFF);
+        for (int i = 40; i < 44; i++) {
+            frame.setRGB(LEDOutputMap.get(301)[i], 0x102030);
+        }
+        for (int i = 298; i < 301; i++) {
+            frame.setRGB(LEDOutputMap.get(301)[i], 0x000000);
+        }
+        send(frame, colorDepth);
+        assertTrue(serialPacketDecoder.isDelta());
+        int runBytes = 0;
+        for (int runLength : new int[] {1, 4, 3}) {
+            runBytes += 3 + (((runLength * colorDepth.getBitsPerLed()) + 7) / 8);
+        }
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + 2 + runBytes, serialPacketDecoder.getLength());
+        frame.release();
+
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Constants.ColorDepth.class, names = {"RGB565", "RGB444"})
+    void ditheringKeepsTheMeanColor(Constants.ColorDepth colorDepth) {
+
+        config.setSerialColorDepth(colorDepth.name());
+        int ledNumber = 160;
+        TestUtility.setLedNumber(ledNumber);
+        for (int channel = 0; channel < 240; channel += 7) {
+            LEDFrame frame = LEDFrame.acquire(ledNumber);
+            for (int i = 0; i < ledNumber; i++) {
+                frame.setRGB(i, channel, channel, channel);
+            }
+            config.setSerialDithering(true);
+            int[] dithered = serialPacketDecoder.decode(serialPacketBuilder.build(frame, ledNumber), serialPacketBuilder.getPacketLength());
+            double mean = 0;
+            for (int rgb : dithered) {
+                mean += (rgb >> 16) & 0xFF;
+            }
+            mean /= ledNumber;
+            // Error of the mean is below a sixteenth of a quantization step, rounding alone can be half a step off
+            int step = 1 << (8 - (colorDepth == Constants.ColorDepth.RGB565 ? 5 : 4));
+            assertEquals(channel, mean, (step / 16.0) + 0.01, colorDepth + " channel " + channel);
+            frame.release();
+        }
+
+    }
+
+    /**
+     * Build a packet, decode it and check that the strip shows the frame rounded to the color depth
+     * @param frame frame to send
+     * @param colorDepth color depth in use
+     */
+    private void send(LEDFrame frame, Constants.ColorDepth colorDepth) {
+
+        int[] strip = buildAndDecode(frame);
+        int[] sent = TestUtility.stripOrder(frame);
+        int[] redGreenBlueBits = colorDepth == Constants.ColorDepth.RGB565 ? new int[] {5, 6, 5} : new int[] {4, 4, 4};
+        for (int i = 0; i < strip.length; i++) {
+            int rgb = sent[i];
+            int expected = (round(rgb >> 16, redGreenBlueBits[0]) << 16) | (round(rgb >> 8, redGreenBlueBits[1]) << 8)
+                    | round(rgb, redGreenBlueBits[2]);
+            assertEquals(expected, strip[i], "LED " + i);
+        }
+
+    }
+
+    /**
+     * Round a channel to the nearest level a reduced depth can carry, saturated at the top level
+     * @param channel 8 bit channel, higher bits are ignored
+     * @param bits bits kept
+     * @return rounded channel, dropped bits are zero
+     */
+    private static int round(int channel, int bits) {
+
+        int step = 1 << (8 - bits);
+        int level = Math.min((1 << bits) - 1, ((channel & 0xFF) + (step / 2)) / step);
+        return level * step;
+
+    }
+
+}
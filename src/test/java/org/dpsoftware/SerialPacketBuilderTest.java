@@ -0,0 +1,180 @@
+/*
+  SerialPacketBuilderTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Packets built by SerialPacketBuilder decoded by the reference decoder must give back the frame sent
+ */
+class SerialPacketBuilderTest extends SerialPacketFixture {
+
+    @BeforeEach
+    void setUp() {
+
+        config.setSerialDeltaEncoding(true);
+        FireflyLuciferin.serialCapabilities = Constants.SERIAL_CAPABILITY_DELTA;
+        TestUtility.setLedNumber(300);
+
+    }
+
+    @Test
+    void keyframeDeltaLedCountChangeAndReconnect() {
+
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + (300 * 3), serialPacketDecoder.getLength());
+
+        // A gap of one unchanged LED is merged, a change longer than 255 LEDs is split in two runs
+        frame.setRGB(10, 0x010203);
+        frame.setRGB(12, 0x040506);
+        for (int i = 20; i < 291; i++) {
+            frame.setRGB(i, frame.getRGB(i) ^ 0x808080);
+        }
+        send(frame);
+        assertTrue(serialPacketDecoder.isDelta());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + 2 + (3 + (3 * 3)) + (3 + (255 * 3)) + (3 + (16 * 3)),
+                serialPacketDecoder.getLength());
+
+        // Nothing changed, only the run count is sent
+        send(frame);
+        assertTrue(serialPacketDecoder.isDelta());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + 2, serialPacketDecoder.getLength());
+        frame.release();
+
+        // LED count change
+        TestUtility.setLedNumber(120);
+        frame = TestUtility.randomFrame(120, random);
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + (120 * 3), serialPacketDecoder.getLength());
+        frame.setRGB(119, 0xFFFFFF);
+        send(frame);
+        assertTrue(serialPacketDecoder.isDelta());
+
+        // Reconnection, the firmware lost its reference frame
+        serialPacketBuilder.requestKeyframe();
+        serialPacketDecoder.reset();
+        frame.setRGB(0, 0);
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        frame.setRGB(1, 0);
+        send(frame);
+        assertTrue(serialPacketDecoder.isDelta());
+        frame.release();
+
+    }
+
+    @Test
+    void keyframeIsForcedPeriodically() {
+
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        int deltas = 0;
+        while (true) {
+            frame.setRGB(random.nextInt(300), random.nextInt() & 0xFFFFFF);
+            send(frame);
+            if (serialPacketDecoder.isKeyframe()) {
+                break;
+            }
+            assertTrue(serialPacketDecoder.isDelta());
+            deltas++;
+        }
+        assertEquals(Constants.SERIAL_KEYFRAME_INTERVAL, deltas);
+        frame.release();
+
+    }
+
+    @Test
+    void keyframeWhenDeltaIsNotSmaller() {
+
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        send(frame);
+        for (int i = 0; i < 300; i++) {
+            frame.setRGB(i, frame.getRGB(i) ^ 0x010101);
+        }
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        // Every other LED changed, merged runs cost more than a keyframe
+        for (int i = 0; i < 300; i += 2) {
+            frame.setRGB(i, frame.getRGB(i) ^ 0x010101);
+        }
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        frame.release();
+
+    }
+
+    @Test
+    void fullFramesWhenFirmwareDoesNotSupportDelta() {
+
+        FireflyLuciferin.serialCapabilities = 0;
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        for (int i = 0; i < 3; i++) {
+            send(frame);
+            assertFalse(serialPacketDecoder.isKeyframe());
+            assertFalse(serialPacketDecoder.isDelta());
+            assertEquals(SerialPacketBuilder.HEADER_SIZE + (300 * 3), serialPacketDecoder.getLength());
+        }
+        frame.release();
+
+    }
+
+    @Test
+    void averagePacketSizeBelongsToTheBuilder() {
+
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        assertEquals(0, serialPacketBuilder.getAveragePacketSize());
+        send(frame);
+        int keyframeSize = SerialPacketBuilder.HEADER_SIZE + (300 * 3);
+        assertEquals(keyframeSize, serialPacketBuilder.getAveragePacketSize(), 0.01);
+        assertEquals(keyframeSize, SerialPacketBuilder.getFullFrameSize(300));
+        // Nothing changed, the delta frame carries only the run count
+        send(frame);
+        int deltaSize = SerialPacketBuilder.HEADER_SIZE + 2;
+        assertEquals((keyframeSize * 0.9F) + (deltaSize * 0.1F), serialPacketBuilder.getAveragePacketSize(), 0.01);
+        // Another builder, like a new serial writer generation, starts from scratch
+        SerialPacketBuilder otherBuilder = new SerialPacketBuilder();
+        assertEquals(0, otherBuilder.getAveragePacketSize());
+        otherBuilder.build(frame, 300);
+        assertEquals(keyframeSize, otherBuilder.getAveragePacketSize(), 0.01);
+        frame.release();
+
+    }
+
+    /**
+     * Build a packet, decode it and check that the strip shows the frame
+     * @param frame frame to send
+     */
+    private void send(LEDFrame frame) {
+
+        assertArrayEquals(TestUtility.stripOrder(frame), buildAndDecode(frame));
+
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+  SerialPacketDecoder.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.utilities.Crc16;
+
+/**
+ * Reference decoder of the serial packets built by SerialPacketBuilder, it keeps the strip state like the firmware does.
+ * Reduced color depths are expanded by shifting the channels back to 8 bits, without filling the dropped bits.
+ * Protocol v1 and v2 are told apart by the byte after the magic, as the firmware does.
+ * Decoding fails on anything the firmware would reject: bad magic, bad checksum or CRC, wrong payload length,
+ * delta frame without a reference, runs outside of the strip.
+ */
+public class SerialPacketDecoder {
+
+    // Colors on the strip, packed as 0xRRGGBB in strip order
+    private int[] strip = new int[0];
+    private boolean referenceValid;
+    // Fields of the last decoded packet
+    private int version;
+    private int flags;
+    private int length;
+    private Constants.ColorDepth colorDepth = Constants.ColorDepth.RGB888;
+
+    /**
+     * Decode a packet and apply it to the strip
+     * @param packet packet bytes
+     * @param packetLength packet length
+     * @return colors on the strip after the packet, packed as 0xRRGGBB in strip order
+     */
+    public int[] decode(byte[] packet, int packetLength) {
+
+        check(packet[0] == 'D' && packet[1] == 'P' && packet[2] == 's' && packet[3] == 'o' && packet[4] == 'f' && packet[5] == 't', "magic");
+        int ledCount;
+        int position;
+        int payloadEnd;
+        // v1 LED count hi is always 0, protocol v2 has the version in the same byte
+        version = u8(packet, 6) == SerialPacketBuilder.PROTOCOL_VERSION_2 ? SerialPacketBuilder.PROTOCOL_VERSION_2 : 1;
+        if (version == SerialPacketBuilder.PROTOCOL_VERSION_2) {
+            ledCount = u16(packet, 7);
+            flags = u8(packet, 9);
+            position = SerialPacketBuilder.HEADER_SIZE_V2;
+            payloadEnd = position + u16(packet, 15);
+            check(payloadEnd + 2 == packetLength, "payload length");
+            int crc = Crc16.update(Crc16.INITIAL_VALUE, packet, 6, payloadEnd - 6);
+            check(crc == u16(packet, payloadEnd), "CRC");
+        } else {
+            ledCount = (((u8(packet, 6) << 8) | u8(packet, 7)) + 1) + u8(packet, 8);
+            int checksum = u8(packet, 6) ^ u8(packet, 7) ^ u8(packet, 8) ^ u8(packet, 9) ^ u8(packet, 10)
+                    ^ u8(packet, 11) ^ u8(packet, 12) ^ u8(packet, 13) ^ 0x55;
+            check(checksum == u8(packet, 14), "checksum");
+            flags = u8(packet, 13);
+            position = SerialPacketBuilder.HEADER_SIZE;
+            payloadEnd = packetLength;
+        }
+        colorDepth = toColorDepth(flags);
+        if (ledCount != strip.length) {
+            strip = new int[ledCount];
+            referenceValid = false;
+        }
+        if ((flags & SerialPacketBuilder.DELTA_FLAG) != 0) {
+            check(referenceValid, "delta frame without a reference frame");
+            int runCount = u16(packet, position);
+            position += 2;
+            for (int run = 0; run < runCount; run++) {
+                int start = u16(packet, position);
+                int runLength = u8(packet, position + 2);
+                position += 3;
+                check(runLength > 0 && start + runLength <= ledCount, "run outside of the strip");
+                position = readColors(packet, position, start, runLength);
+            }
+        } else {
+            position = readColors(packet, position, 0, ledCount);
+            referenceValid = true;
+        }
+        check(position == payloadEnd, "packet length");
+        length = packetLength;
+        return strip.clone();
+
+    }
+
+    /**
+     * Read packed colors of a run of positions
+     * @param packet packet bytes
+     * @param position first byte
+     * @param start first position on the strip
+     * @param count number of positions
+     * @return next byte to read
+     */
+    private int readColors(byte[] packet, int position, int start, int count) {
+
+        int end = start + count;
+        switch (colorDepth) {
+            case RGB888 -> {
+                for (int i = start; i < end; i++) {
+                    strip[i] = (u8(packet, position) << 16) | (u8(packet, position + 1) << 8) | u8(packet, position + 2);
+                    position += 3;
+                }
+            }
+            case RGB565 -> {
+                for (int i = start; i < end; i++) {
+                    int code = u16(packet, position);
+                    strip[i] = ((code >> 11) << 19) | (((code >> 5) & 0x3F) << 10) | ((code & 0x1F) << 3);
+                    position += 2;
+                }
+            }
+            case RGB444 -> {
+                // Two LEDs in three bytes, an odd LED at the end of the run uses two bytes
+                for (int i = start; i < end; i += 2) {
+                    int first = (u8(packet, position) << 4) | (u8(packet, position + 1) >> 4);
+                    strip[i] = expand444(first);
+                    if (i + 1 < end) {
+                        strip[i + 1] = expand444(((u8(packet, position + 1) & 0xF) << 8) | u8(packet, position + 2));
+                        position += 3;
+                    } else {
+                        check((u8(packet, position + 1) & 0xF) == 0, "RGB444 padding");
+                        position += 2;
+                    }
+                }
+            }
+        }
+        return position;
+
+    }
+
+    /**
+     * Expand a RGB444 code to 0xRRGGBB
+     * @param code 12 bit code
+     * @return color
+     */
+    private static int expand444(int code) {
+
+        return ((code >> 8) << 20) | (((code >> 4) & 0xF) << 12) | ((code & 0xF) << 4);
+
+    }
+
+    /**
+     * Color depth signalled in the encoding flags
+     * @param flags encoding flags
+     * @return color depth
+     */
+    private static Constants.ColorDepth toColorDepth(int flags) {
+
+        for (Constants.ColorDepth depth : Constants.ColorDepth.values()) {
+            if (depth.getHeaderFlag() == (flags & 0x30)) {
+                return depth;
+            }
+        }
+        throw new IllegalStateException("Invalid packet: color depth");
+
+    }
+
+    /**
+     * Firmware lost its reference frame, as after a reconnection
+     */
+    public void reset() {
+
+        referenceValid = false;
+
+    }
+
+    /**
+     * Check if the last packet was a delta frame
+     * @return true if delta frame
+     */
+    public boolean isDelta() {
+
+        return (flags & SerialPacketBuilder.DELTA_FLAG) != 0;
+
+    }
+
+    /**
+     * Check if the last packet was a keyframe of a delta encoded stream
+     * @return true if keyframe
+     */
+    public boolean isKeyframe() {
+
+        return (flags & SerialPacketBuilder.KEYFRAME_FLAG) != 0;
+
+    }
+
+    /**
+     * Protocol version of the last packet
+     * @return 1 or 2
+     */
+    public int getVersion() {
+
+        return version;
+
+    }
+
+    /**
+     * Color depth of the last packet
+     * @return color depth
+     */
+    public Constants.ColorDepth getColorDepth() {
+
+        return colorDepth;
+
+    }
+
+    /**
+     * Length of the last packet
+     * @return bytes decoded
+     */
+    public int getLength() {
+
+        return length;
+
+    }
+
+    /**
+     * Read an unsigned byte
+     * @param packet packet bytes
+     * @param index byte index
+     * @return unsigned value
+     */
+    private static int u8(byte[] packet, int index) {
+
+        return packet[index] & 0xFF;
+
+    }
+
+    /**
+     * Read a big endian unsigned 16 bit value
+     * @param packet packet bytes
+     * @param index index of the high byte
+     * @return unsigned value
+     */
+    private static int u16(byte[] packet, int index) {
+
+        return (u8(packet, index) << 8) | u8(packet, index + 1);
+
+    }
+
+    /**
+     * Reject the packet
+     * @param condition condition the packet must meet
+     * @param error error description
+     */
+    private static void check(boolean condition, String error) {
+
+        if (!condition) {
+            throw new IllegalStateException("Invalid packet: " + error);
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+  SerialPacketFixture.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.util.Random;
+
+/**
+ * Shared fixture for serial packet tests, packets are built by a SerialPacketBuilder and read back by the reference decoder.
+ * Subclasses set the capabilities announced by the firmware, they are reset after every test.
+ */
+abstract class SerialPacketFixture {
+
+    final SerialPacketBuilder serialPacketBuilder = new SerialPacketBuilder();
+    final SerialPacketDecoder serialPacketDecoder = new SerialPacketDecoder();
+    final Random random = new Random(1);
+    Configuration config;
+
+    @BeforeEach
+    void initFixture() {
+
+        config = TestUtility.initConfig();
+
+    }
+
+    @AfterEach
+    void resetCapabilities() {
+
+        FireflyLuciferin.serialCapabilities = 0;
+
+    }
+
+    /**
+     * Build a packet for the LED number in use and decode it
+     * @param frame frame to send
+     * @return colors shown by the strip, in strip order
+     */
+    int[] buildAndDecode(LEDFrame frame) {
+
+        byte[] packet = serialPacketBuilder.build(frame, FireflyLuciferin.ledNumber);
+        return serialPacketDecoder.decode(packet, serialPacketBuilder.getPacketLength());
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+  SerialProtocolBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.utilities.Crc16;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+/**
+ * Throughput of protocol v1 and v2: packet build time, bytes on the wire and max framerate of the serial link,
+ * for full frames and for a delta stream. The CRC computed while writing is compared with a second pass over the packet.
+ */
+@Slf4j
+@Tag("benchmark")
+class SerialProtocolBenchmarkTest {
+
+    private static final int FRAMES = 5000;
+    private static final float BAUD_RATE = 500000;
+    // LEDs changed in every frame of the delta stream
+    private static final int CHANGED_LEDS = 20;
+
+    @AfterEach
+    void tearDown() {
+
+        FireflyLuciferin.serialCapabilities = 0;
+
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {300, 1000})
+    void protocolV1VersusV2(int ledNumber) {
+
+        TestUtility.setLedNumber(ledNumber);
+        for (boolean deltaEncoding : new boolean[] {false, true}) {
+            for (int protocolCapability : new int[] {0, Constants.SERIAL_CAPABILITY_V2}) {
+                Configuration config = TestUtility.initConfig();
+                config.setSerialDeltaEncoding(deltaEncoding);
+                FireflyLuciferin.serialCapabilities = protocolCapability | Constants.SERIAL_CAPABILITY_DELTA;
+                String protocol = protocolCapability == 0 ? "v1" : "v2";
+                String stream = deltaEncoding ? "delta stream" : "full frames";
+                run(ledNumber, protocol + ", " + stream);
+            }
+        }
+        FireflyLuciferin.serialCapabilities = Constants.SERIAL_CAPABILITY_V2;
+        TestUtility.initConfig();
+        SerialPacketBuilder serialPacketBuilder = new SerialPacketBuilder();
+        LEDFrame frame = TestUtility.randomFrame(ledNumber, new Random(1));
+        byte[] packet = serialPacketBuilder.build(frame, ledNumber);
+        Benchmark.Measurement crc = Benchmark.measure(FRAMES, () -> {
+            long crcSum = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                crcSum += Crc16.update(Crc16.INITIAL_VALUE, packet, 6, serialPacketBuilder.getPacketLength() - 8);
+            }
+            return crcSum;
+        });
+        log.info(ledNumber + " LEDs, second CRC pass over a full frame: " + crc.nanosPerIteration() + " ns, CRC sum " + crc.result());
+        frame.release();
+
+    }
+
+    /**
+     * Build a stream of frames with the protocol in use and log the averages
+     * @param ledNumber number of LEDs
+     * @param description protocol and stream type
+     */
+    private void run(int ledNumber, String description) {
+
+        Random random = new Random(1);
+        SerialPacketBuilder serialPacketBuilder = new SerialPacketBuilder();
+        LEDFrame frame = TestUtility.randomFrame(ledNumber, random);
+        Benchmark.Measurement build = Benchmark.measure(FRAMES, () -> build(serialPacketBuilder, frame, ledNumber, random));
+        float averagePacketLength = (float) build.result() / FRAMES;
+        float framerate = BAUD_RATE / (averagePacketLength * Constants.SERIAL_BITS_PER_BYTE);
+        log.info(String.format("%d LEDs, %s: %.0f bytes, built in %d ns, %.1f FPS at %.0f baud",
+                ledNumber, description, averagePacketLength, build.nanosPerIteration(), framerate, BAUD_RATE));
+        frame.release();
+
+    }
+
+    /**
+     * Build FRAMES packets, a few LEDs change between frames
+     * @param serialPacketBuilder packet builder
+     * @param frame frame to send, changed in place
+     * @param ledNumber number of LEDs
+     * @param random random generator
+     * @return bytes built
+     */
+    private static long build(SerialPacketBuilder serialPacketBuilder, LEDFrame frame, int ledNumber, Random random) {
+
+        long bytes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            for (int j = 0; j < CHANGED_LEDS; j++) {
+                frame.setRGB(random.nextInt(ledNumber), random.nextInt() & 0xFFFFFF);
+            }
+            serialPacketBuilder.build(frame, ledNumber);
+            bytes += serialPacketBuilder.getPacketLength();
+        }
+        return bytes;
+
+    }
+
+}
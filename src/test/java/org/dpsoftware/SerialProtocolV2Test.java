@@ -0,0 +1,162 @@
+/*
+  SerialProtocolV2Test.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.utilities.Crc16;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Protocol v2 packets: CRC updated while writing matches a CRC over the finished packet, round trip through the
+ * reference decoder, v1 firmware never gets a v2 packet
+ */
+class SerialProtocolV2Test extends SerialPacketFixture {
+
+    @BeforeEach
+    void setUp() {
+
+        config.setSerialDeltaEncoding(true);
+        config.setSerialDithering(false);
+        FireflyLuciferin.serialCapabilities = Constants.SERIAL_CAPABILITY_V2 | Constants.SERIAL_CAPABILITY_DELTA
+                | Constants.ColorDepth.RGB565.getCapability() | Constants.ColorDepth.RGB444.getCapability();
+
+    }
+
+    @ParameterizedTest
+    @EnumSource(Constants.ColorDepth.class)
+    void incrementalCrcMatchesOneShotCrc(Constants.ColorDepth colorDepth) {
+
+        config.setSerialColorDepth(colorDepth.name());
+        // More than one CRC block, odd so the last RGB444 LED is padded
+        int ledNumber = 601;
+        TestUtility.setLedNumber(ledNumber);
+        LEDFrame frame = TestUtility.randomFrame(ledNumber, random);
+        assertCrc(serialPacketBuilder.build(frame, ledNumber));
+        for (int i = 0; i < ledNumber; i += 37) {
+            frame.setRGB(LEDOutputMap.get(ledNumber)[i], random.nextInt() & 0xFFFFFF);
+        }
+        assertCrc(serialPacketBuilder.build(frame, ledNumber));
+        assertCrc(serialPacketBuilder.build(frame, ledNumber));
+        frame.release();
+
+    }
+
+    @ParameterizedTest
+    @EnumSource(Constants.ColorDepth.class)
+    void roundTripWithDeltaAndLedCountChange(Constants.ColorDepth colorDepth) {
+
+        config.setSerialColorDepth(colorDepth.name());
+        TestUtility.setLedNumber(600);
+        LEDFrame frame = TestUtility.randomFrame(600, random);
+        send(frame);
+        assertEquals(SerialPacketBuilder.PROTOCOL_VERSION_2, serialPacketDecoder.getVersion());
+        assertTrue(serialPacketDecoder.isKeyframe());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE_V2 + (((600 * colorDepth.getBitsPerLed()) + 7) / 8) + 2,
+                serialPacketDecoder.getLength());
+        assertEquals(serialPacketDecoder.getLength(), SerialPacketBuilder.getFullFrameSize(600));
+        frame.setRGB(LEDOutputMap.get(600)[3], 0xFFFFFF);
+        frame.setRGB(LEDOutputMap.get(600)[599], 0x000000);
+        send(frame);
+        assertTrue(serialPacketDecoder.isDelta());
+        frame.release();
+
+        // 16 bit LED count in the header, no second part
+        TestUtility.setLedNumber(301);
+        frame = TestUtility.randomFrame(301, random);
+        send(frame);
+        assertTrue(serialPacketDecoder.isKeyframe());
+        frame.setRGB(LEDOutputMap.get(301)[300], 0x123456);
+        send(frame);
+        assertTrue(serialPacketDecoder.isDelta());
+        frame.release();
+
+    }
+
+    @Test
+    void corruptedPacketIsRejected() {
+
+        TestUtility.setLedNumber(100);
+        LEDFrame frame = TestUtility.randomFrame(100, random);
+        byte[] packet = serialPacketBuilder.build(frame, 100);
+        packet[SerialPacketBuilder.HEADER_SIZE_V2 + 10] ^= 0x01;
+        assertThrows(IllegalStateException.class, () -> serialPacketDecoder.decode(packet, serialPacketBuilder.getPacketLength()));
+        frame.release();
+
+    }
+
+    @Test
+    void v1FirmwareGetsV1Packets() {
+
+        FireflyLuciferin.serialCapabilities = Constants.SERIAL_CAPABILITY_DELTA;
+        TestUtility.setLedNumber(300);
+        LEDFrame frame = TestUtility.randomFrame(300, random);
+        send(frame);
+        assertEquals(1, serialPacketDecoder.getVersion());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + (300 * 3), serialPacketDecoder.getLength());
+        assertEquals(serialPacketDecoder.getLength(), SerialPacketBuilder.getFullFrameSize(300));
+        frame.release();
+
+    }
+
+    /**
+     * Build a packet, decode it and check that the strip shows the frame rounded to the color depth in use
+     * @param frame frame to send
+     */
+    private void send(LEDFrame frame) {
+
+        int[] strip = buildAndDecode(frame);
+        int[] sent = TestUtility.stripOrder(frame);
+        int mask = switch (serialPacketDecoder.getColorDepth()) {
+            case RGB888 -> 0xFFFFFF;
+            case RGB565 -> 0xF8FCF8;
+            case RGB444 -> 0xF0F0F0;
+        };
+        for (int i = 0; i < strip.length; i++) {
+            // Dropped bits of the decoded color are zero, rounding moves the kept bits by one level at most
+            int expected = sent[i];
+            int decoded = strip[i];
+            assertEquals(0, decoded & ~mask, "LED " + i);
+            for (int shift = 0; shift <= 16; shift += 8) {
+                assertEquals((expected >> shift) & 0xFF, (decoded >> shift) & 0xFF, (~mask >> shift) & 0xFF, "LED " + i);
+            }
+        }
+
+    }
+
+    /**
+     * Check the CRC at the end of the packet against a CRC computed in one pass over the finished packet
+     * @param packet v2 packet
+     */
+    private void assertCrc(byte[] packet) {
+
+        int packetLength = serialPacketBuilder.getPacketLength();
+        int oneShot = Crc16.update(Crc16.INITIAL_VALUE, packet, 6, packetLength - 2 - 6);
+        assertEquals(oneShot, ((packet[packetLength - 2] & 0xFF) << 8) | (packet[packetLength - 1] & 0xFF));
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+  SerialWriterTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A stalled serial device must skip frames, time out and never block the next writer generation
+ */
+class SerialWriterTest {
+
+    private static final int LED_NUMBER = 10;
+
+    private final CountDownLatch stalled = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private LEDFrame frame;
+
+    @BeforeEach
+    void setUp() {
+
+        Configuration config = TestUtility.initConfig();
+        config.setTimeout(200);
+        FireflyLuciferin.ledNumber = LED_NUMBER;
+        frame = LEDFrame.acquire(LED_NUMBER);
+        for (int i = 0; i < LED_NUMBER; i++) {
+            frame.setRGB(i, i, i, i);
+        }
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        release.countDown();
+        frame.release();
+        FireflyLuciferin.output = null;
+        FireflyLuciferin.serialConnected = false;
+        FireflyLuciferin.communicationError = false;
+
+    }
+
+    @Test
+    void stalledWriteSkipsFramesAndTimesOut() throws Exception {
+
+        FireflyLuciferin.output = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                stalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        FireflyLuciferin.serialConnected = true;
+        SerialWriter serialWriter = new SerialWriter();
+        serialWriter.submit(frame);
+        assertTrue(stalled.await(1, TimeUnit.SECONDS));
+        // One frame waits in the hand-off slot, the others are skipped
+        for (int i = 0; i < 5; i++) {
+            serialWriter.submit(frame);
+        }
+        // Watchdog closes the port after the serial timeout
+        assertTrue(waitFor(() -> !FireflyLuciferin.serialConnected));
+        assertTrue(FireflyLuciferin.communicationError);
+        // Reconnected port is written by the new writer generation while the old write is still stalled
+        ByteArrayOutputStream reconnected = new ByteArrayOutputStream();
+        FireflyLuciferin.output = reconnected;
+        FireflyLuciferin.serialConnected = true;
+        serialWriter.submit(frame);
+        assertTrue(waitFor(() -> reconnected.size() > 0));
+        byte[] packet = reconnected.toByteArray();
+        assertEquals(SerialPacketBuilder.HEADER_SIZE + (LED_NUMBER * 3), packet.length);
+        assertEquals(LED_NUMBER - 1, packet[SerialPacketBuilder.HEADER_SIZE + ((LED_NUMBER - 1) * 3)]);
+        String report = serialWriter.report();
+        assertEquals(1, stat(report, "timeouts"));
+        assertTrue(stat(report, "skipped") >= 4, report);
+
+    }
+
+    /**
+     * Wait up to two seconds for a condition
+     * @param condition condition to wait for
+     * @return true if the condition has been met
+     * @throws InterruptedException interrupted while waiting
+     */
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+
+    }
+
+    /**
+     * Read a counter from the writer report
+     * @param report writer report
+     * @param name counter name
+     * @return counter value
+     */
+    private static long stat(String report, String name) {
+
+        Matcher matcher = Pattern.compile(name + ": (\\d+)").matcher(report);
+        assertTrue(matcher.find(), report);
+        return Long.parseLong(matcher.group(1));
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+  TestUtility.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+
+import java.util.Random;
+
+/**
+ * Shared setup for tests, FireflyLuciferin reads everything from the static configuration
+ */
+public class TestUtility {
+
+    /**
+     * Install a default configuration, as if loaded from an empty yaml file
+     * @return configuration in use
+     */
+    public static Configuration initConfig() {
+
+        Configuration config = new Configuration();
+        config.setGamma(2.2);
+        FireflyLuciferin.config = config;
+        return config;
+
+    }
+
+    /**
+     * Set the number of LEDs on the strip and the v1 header LED count fields, as done at startup
+     * @param ledNumber number of LEDs on the strip
+     */
+    public static void setLedNumber(int ledNumber) {
+
+        FireflyLuciferin.ledNumber = ledNumber;
+        FireflyLuciferin.ledNumHighLowCount = ledNumber > Constants.SERIAL_CHUNK_SIZE ? Constants.SERIAL_CHUNK_SIZE - 1 : ledNumber - 1;
+        FireflyLuciferin.ledNumHighLowCountSecondPart = ledNumber > Constants.SERIAL_CHUNK_SIZE ? ledNumber - Constants.SERIAL_CHUNK_SIZE : 0;
+
+    }
+
+    /**
+     * Frame with random colors
+     * @param ledCount number of LEDs
+     * @param random random generator
+     * @return frame taken from the pool
+     */
+    public static LEDFrame randomFrame(int ledCount, Random random) {
+
+        LEDFrame frame = LEDFrame.acquire(ledCount);
+        for (int i = 0; i < ledCount; i++) {
+            frame.setRGB(i, random.nextInt() & 0xFFFFFF);
+        }
+        return frame;
+
+    }
+
+    /**
+     * Colors the strip must show for a frame, frame positions reordered by the LED output map
+     * @param frame frame to send
+     * @return colors in strip order
+     */
+    public static int[] stripOrder(LEDFrame frame) {
+
+        int ledNumber = FireflyLuciferin.ledNumber;
+        int[] outputMap = LEDOutputMap.get(ledNumber);
+        int[] expected = new int[ledNumber];
+        for (int i = 0; i < ledNumber; i++) {
+            expected[i] = frame.getRGB(outputMap[i]);
+        }
+        return expected;
+
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+  FrameDumpTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Frames written by FrameDumpWriter are replayed unchanged by ReplayFrameSource
+ */
+class FrameDumpTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+
+        Configuration config = TestUtility.initConfig();
+        config.setScreenResX(1920);
+        config.setScreenResY(1080);
+        config.setSyntheticPattern(SyntheticFrameSource.Pattern.CYCLE.name());
+        config.setSyntheticFramerate(1);
+        config.setReplayFramerate(30);
+
+    }
+
+    @Test
+    void recordedFramesAreReplayed() throws IOException {
+
+        Path dumpFile = tempDir.resolve("synthetic.raw");
+        SyntheticFrameSource source = new SyntheticFrameSource();
+        List<int[]> recorded = new ArrayList<>();
+        int width = 0, height = 0;
+        // One frame per second and a cycle every SYNTHETIC_CYCLE_SECONDS, every pattern is recorded
+        try (FrameDumpWriter writer = new FrameDumpWriter(dumpFile, 1920 / Constants.RESAMPLING_FACTOR, 1080 / Constants.RESAMPLING_FACTOR)) {
+            for (int i = 0; i < 4 * Constants.SYNTHETIC_CYCLE_SECONDS; i++) {
+                RawFrame frame = source.nextFrame();
+                width = frame.getWidth();
+                height = frame.getHeight();
+                assertTrue(writer.write(frame));
+                recorded.add(toArray(frame.getPixels(), width * height));
+            }
+        }
+        ReplayFrameSource replay = new ReplayFrameSource();
+        replay.mapFrames(dumpFile);
+        assertEquals(width, replay.getWidth());
+        assertEquals(height, replay.getHeight());
+        assertEquals(recorded.size(), replay.getFrames().length);
+        for (int i = 0; i < recorded.size(); i++) {
+            assertArrayEquals(recorded.get(i), toArray(replay.getFrames()[i], width * height), "frame " + i);
+        }
+
+    }
+
+    @Test
+    void scanlinePaddingIsDropped() throws IOException {
+
+        int width = 5, height = 3, stride = 8;
+        int[] padded = new int[stride * height];
+        int[] packed = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < stride; x++) {
+                padded[y * stride + x] = x < width ? (y << 16) | x : 0xDEAD;
+                if (x < width) {
+                    packed[y * width + x] = padded[y * stride + x];
+                }
+            }
+        }
+        Path dumpFile = tempDir.resolve("padded.raw");
+        try (FrameDumpWriter writer = new FrameDumpWriter(dumpFile, width, height)) {
+            assertTrue(writer.write(new RawFrame().set(IntBuffer.wrap(padded), width, height, stride,
+                    RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.GPU_RESAMPLED)));
+            // A resolution change can't be stored in the same dump
+            assertFalse(writer.write(new RawFrame().set(IntBuffer.wrap(padded), stride, height, stride,
+                    RawFrame.PixelFormat.XRGB, RawFrame.CoordinateSpace.GPU_RESAMPLED)));
+        }
+        ReplayFrameSource replay = new ReplayFrameSource();
+        replay.mapFrames(dumpFile);
+        assertEquals(1, replay.getFrames().length);
+        assertArrayEquals(packed, toArray(replay.getFrames()[0], width * height));
+
+    }
+
+    /**
+     * Copy the pixels of a frame
+     * @param pixels frame pixels
+     * @param size number of pixels
+     * @return pixels copy
+     */
+    private static int[] toArray(IntBuffer pixels, int size) {
+
+        int[] copy = new int[size];
+        pixels.get(0, copy);
+        return copy;
+
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+  FrameRateControllerTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.SerialPacketBuilder;
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.output.OutputFanOut;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Capture framerate is capped by what the serial link can carry when the serial port is the only output,
+ * with several outputs the firmware feedback only slows down the serial writer
+ */
+class FrameRateControllerTest {
+
+    private Configuration config;
+
+    @BeforeEach
+    void setUp() {
+
+        config = TestUtility.initConfig();
+        config.setBaudRate(Constants.BaudRate.BAUD_RATE_500000.getBaudRate());
+        config.setDesiredFramerate(Constants.UNLOCKED);
+        FireflyLuciferin.ledNumber = 300;
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        FireflyLuciferin.FPS_CONSUMER = 0;
+        FireflyLuciferin.FPS_GW_CONSUMER = 0;
+        FireflyLuciferin.RUNNING = false;
+        FireflyLuciferin.serialCapabilities = 0;
+        // No serial output, the serial writer of other tests is not rate limited
+        config.setOutputSinks(List.of(Constants.OutputSinkType.NULL.name()));
+        FrameRateController.adjust();
+
+    }
+
+    @Test
+    void serialCapFollowsBaudRateAndPacketSize() {
+
+        int fullFrameSize = (300 * 3) + SerialPacketBuilder.HEADER_SIZE;
+        // No serial writer, nothing has been written yet
+        assertEquals(500000F / (fullFrameSize * Constants.SERIAL_BITS_PER_BYTE), FrameRateController.computeSerialMaxFramerate(), 0.01);
+        // Delta frames smaller than a full frame raise the cap
+        assertEquals(500000F / (400 * Constants.SERIAL_BITS_PER_BYTE), FrameRateController.computeSerialMaxFramerate(fullFrameSize, 400), 0.01);
+        assertEquals(500000F / (fullFrameSize * Constants.SERIAL_BITS_PER_BYTE), FrameRateController.computeSerialMaxFramerate(fullFrameSize, 2000), 0.01);
+
+    }
+
+    @Test
+    void serialCapFollowsNegotiatedProtocolAndColorDepth() {
+
+        config.setSerialColorDepth(Constants.ColorDepth.RGB565.name());
+        FireflyLuciferin.serialCapabilities = Constants.SERIAL_CAPABILITY_V2 | Constants.ColorDepth.RGB565.getCapability();
+        // v2 header, 2 bytes per LED and the CRC
+        int fullFrameSize = SerialPacketBuilder.HEADER_SIZE_V2 + (300 * 2) + 2;
+        assertEquals(fullFrameSize, SerialPacketBuilder.getFullFrameSize(300));
+        assertEquals(500000F / (fullFrameSize * Constants.SERIAL_BITS_PER_BYTE), FrameRateController.computeSerialMaxFramerate(), 0.01);
+        // Color depth not supported by the firmware, full color is sent
+        config.setSerialColorDepth(Constants.ColorDepth.RGB444.name());
+        assertEquals(SerialPacketBuilder.HEADER_SIZE_V2 + (300 * 3) + 2, SerialPacketBuilder.getFullFrameSize(300));
+
+    }
+
+    @Test
+    void noSerialCapWhenStreamingOverMqtt() {
+
+        config.setMqttEnable(true);
+        config.setMqttStream(true);
+        assertEquals(0, FrameRateController.computeSerialMaxFramerate());
+        FrameRateController.adjust();
+        assertEquals(Constants.UNLOCKED_FRAMERATE, getMaxFramerate());
+        assertEquals(0, FrameRateController.getSerialSinkFramerate());
+
+    }
+
+    @Test
+    void desiredFramerateIsCappedAndHeadroomReported() {
+
+        FrameRateController.adjust();
+        float serialCap = FrameRateController.getSerialMaxFramerate();
+        assertEquals(serialCap, getMaxFramerate());
+        config.setDesiredFramerate("10");
+        assertEquals(10, getMaxFramerate());
+        FireflyLuciferin.FPS_CONSUMER = serialCap / 2;
+        assertEquals(50, FrameRateController.getSerialHeadroom(), 0.01);
+
+    }
+
+    @Test
+    void noCaptureCapWithSeveralOutputs() {
+
+        config.setOutputSinks(List.of(Constants.OutputSinkType.SERIAL.name(), Constants.OutputSinkType.UDP.name()));
+        FrameRateController.adjust();
+        assertEquals(Constants.UNLOCKED_FRAMERATE, getMaxFramerate());
+        assertEquals(Constants.UNLOCKED_FRAMERATE, FrameRateController.getTargetFramerate());
+        assertEquals(FrameRateController.getSerialMaxFramerate(), FrameRateController.getSerialSinkFramerate());
+
+    }
+
+    @Test
+    void slowFirmwareLowersCaptureWhenItIsTheOnlyOutput() {
+
+        FireflyLuciferin.RUNNING = true;
+        FireflyLuciferin.FPS_GW_CONSUMER = 20;
+        FrameRateController.adjust();
+        assertEquals(20 + Constants.BENCHMARK_ERROR_MARGIN, FrameRateController.getTargetFramerate());
+        assertEquals(FrameRateController.getSerialMaxFramerate(), FrameRateController.getSerialSinkFramerate());
+
+    }
+
+    @Test
+    void slowFirmwareLowersOnlyTheSerialWriterWithSeveralOutputs() {
+
+        config.setOutputSinks(List.of(Constants.OutputSinkType.SERIAL.name(), Constants.OutputSinkType.DMX.name()));
+        FireflyLuciferin.RUNNING = true;
+        FireflyLuciferin.FPS_GW_CONSUMER = 20;
+        FrameRateController.adjust();
+        assertEquals(Constants.UNLOCKED_FRAMERATE, FrameRateController.getTargetFramerate());
+        assertEquals(20 + Constants.BENCHMARK_ERROR_MARGIN, FrameRateController.getSerialSinkFramerate());
+        // Firmware catches up, the serial writer probes a higher framerate up to the serial link capacity
+        FireflyLuciferin.FPS_GW_CONSUMER = 20 + Constants.BENCHMARK_ERROR_MARGIN;
+        FrameRateController.adjust();
+        float serialSinkFramerate = FrameRateController.getSerialSinkFramerate();
+        assertEquals(Math.min(FrameRateController.getSerialMaxFramerate(),
+                (20 + Constants.BENCHMARK_ERROR_MARGIN) * (1 + Constants.FRAMERATE_STEP_UP)), serialSinkFramerate, 0.01);
+
+    }
+
+    /**
+     * Max capture framerate for the outputs in the configuration
+     * @return max framerate
+     */
+    private float getMaxFramerate() {
+
+        return FrameRateController.getMaxFramerate(OutputFanOut.getSinkTypes(config));
+
+    }
+
+}
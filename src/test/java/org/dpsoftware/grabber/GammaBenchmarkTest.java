@@ -0,0 +1,101 @@
+/*
+  GammaBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.Benchmark;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.TestUtility;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Per frame cost of gamma correction, Math.pow for every channel against the lookup table
+ */
+@Slf4j
+@Tag("benchmark")
+class GammaBenchmarkTest {
+
+    private static final int FRAMES = 2000;
+
+    @ParameterizedTest
+    @ValueSource(ints = {300, 1000, 2000})
+    void gammaPerFrame(int ledNumber) {
+
+        TestUtility.initConfig();
+        ImageProcessor.updateGamma(2.2);
+        int[] channels = new int[ledNumber * 3];
+        Random random = new Random(1);
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = random.nextInt(256);
+        }
+        Benchmark.Measurement pow = Benchmark.measure(FRAMES, () -> runPow(channels, FRAMES));
+        Benchmark.Measurement table = Benchmark.measure(FRAMES, () -> runTable(channels, FRAMES));
+        assertEquals(pow.result(), table.result());
+        log.info(ledNumber + " LEDs, Math.pow: " + pow.nanosPerIteration() + " ns/frame, lookup table: "
+                + table.nanosPerIteration() + " ns/frame");
+
+    }
+
+    /**
+     * Gamma correction as done before the lookup table
+     * @param channels channel values
+     * @param frames number of frames
+     * @return sum of corrected values
+     */
+    private static long runPow(int[] channels, int frames) {
+
+        long sum = 0;
+        double gamma = FireflyLuciferin.config.getGamma();
+        for (int frame = 0; frame < frames; frame++) {
+            for (int channel : channels) {
+                sum += (int) (255.0 * Math.pow((channel / 255.0), gamma));
+            }
+        }
+        return sum;
+
+    }
+
+    /**
+     * Gamma correction through the lookup table
+     * @param channels channel values
+     * @param frames number of frames
+     * @return sum of corrected values
+     */
+    private static long runTable(int[] channels, int frames) {
+
+        long sum = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int channel : channels) {
+                sum += ImageProcessor.gammaCorrection(channel);
+            }
+        }
+        return sum;
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+  GammaTableTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.TestUtility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Gamma lookup table must give the same result as the Math.pow formula it replaces
+ */
+class GammaTableTest {
+
+    @BeforeEach
+    void setUp() {
+
+        TestUtility.initConfig();
+
+    }
+
+    @Test
+    void tableMatchesFormula() {
+
+        ImageProcessor.updateGamma(2.2);
+        for (int color = 0; color < 256; color++) {
+            assertEquals((int) (255.0 * Math.pow((color / 255.0), 2.2)), ImageProcessor.gammaCorrection(color));
+        }
+
+    }
+
+    @Test
+    void tableIsRebuiltOnGammaChange() {
+
+        ImageProcessor.updateGamma(2.2);
+        int darkGamma = ImageProcessor.gammaCorrection(128);
+        ImageProcessor.updateGamma(1.0);
+        assertEquals(128, ImageProcessor.gammaCorrection(128));
+        assertEquals(2.2, FireflyLuciferin.config.getGamma());
+        ImageProcessor.updateGamma(2.2);
+        assertEquals(darkGamma, ImageProcessor.gammaCorrection(128));
+
+    }
+
+}
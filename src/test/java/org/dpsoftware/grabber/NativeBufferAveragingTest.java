@@ -0,0 +1,102 @@
+/*
+  NativeBufferAveragingTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.TestUtility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LED averaging reads a direct IntBuffer, as exposed by the GDI DIB section, exactly like a heap array
+ */
+class NativeBufferAveragingTest {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @BeforeEach
+    void setUp() {
+
+        TestUtility.initConfig().setOsScaling(150);
+        ImageProcessor.updateGamma(2.2);
+
+    }
+
+    @Test
+    void directBufferMatchesHeapArray() {
+
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(6);
+        for (int i = 0; i < pixels.length; i++) {
+            // GDI leaves the alpha byte undefined, averaging must ignore it
+            pixels[i] = random.nextInt();
+        }
+        IntBuffer heap = IntBuffer.wrap(pixels);
+        IntBuffer direct = nativeBuffer(pixels);
+        assertTrue(direct.isDirect());
+        assertFalse(direct.hasArray());
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrix = new LEDCoordinate().initFullScreenLedMatrix(WIDTH, HEIGHT, 16, 18, 52, 18, 16, 0, true);
+        for (boolean cpuCapture : new boolean[] {false, true}) {
+            ledMatrix.forEach((key, value) -> assertEquals(
+                    ImageProcessor.getAverageColor(value, 150, cpuCapture, heap, 0, 0, WIDTH, WIDTH, HEIGHT),
+                    ImageProcessor.getAverageColor(value, 150, cpuCapture, direct, 0, 0, WIDTH, WIDTH, HEIGHT),
+                    "LED " + key));
+        }
+
+    }
+
+    @Test
+    void flatColorIsKept() {
+
+        ImageProcessor.updateGamma(1.0);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, 0xFF204060);
+        IntBuffer direct = nativeBuffer(pixels);
+        new LEDCoordinate().initFullScreenLedMatrix(WIDTH, HEIGHT, 16, 18, 52, 18, 16, 0, true).forEach((key, value) ->
+                assertEquals(0x204060, ImageProcessor.getAverageColor(value, 150, true, direct, 0, 0, WIDTH, WIDTH, HEIGHT)));
+
+    }
+
+    /**
+     * Copy pixels in native memory, as a stand in for the DIB section written by BitBlt
+     * @param pixels pixels packed as 0xRRGGBB
+     * @return direct buffer in native byte order
+     */
+    static IntBuffer nativeBuffer(int[] pixels) {
+
+        IntBuffer buffer = ByteBuffer.allocateDirect(pixels.length * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        buffer.put(pixels).flip();
+        return buffer;
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+  NativeBufferBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.Benchmark;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.TestUtility;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Per frame cost of LED averaging on a heap array against a direct buffer standing in for the GDI DIB section
+ */
+@Slf4j
+@Tag("benchmark")
+class NativeBufferBenchmarkTest {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int FRAMES = 2000;
+
+    @Test
+    void averagingPerFrame() {
+
+        TestUtility.initConfig();
+        ImageProcessor.updateGamma(2.2);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(6);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        IntBuffer heap = IntBuffer.wrap(pixels);
+        IntBuffer direct = NativeBufferAveragingTest.nativeBuffer(pixels);
+        LEDCoordinate[] leds = new LEDCoordinate().initFullScreenLedMatrix(WIDTH, HEIGHT, 16, 18, 52, 18, 16, 0, true)
+                .values().toArray(new LEDCoordinate[0]);
+        Benchmark.Measurement heapArray = Benchmark.measure(FRAMES, () -> run(leds, heap, FRAMES));
+        Benchmark.Measurement directBuffer = Benchmark.measure(FRAMES, () -> run(leds, direct, FRAMES));
+        assertEquals(heapArray.result(), directBuffer.result());
+        log.info(leds.length + " LEDs, heap array: " + heapArray.nanosPerIteration() + " ns/frame, direct buffer: "
+                + directBuffer.nanosPerIteration() + " ns/frame");
+
+    }
+
+    /**
+     * Average every LED for a number of frames
+     * @param leds LED coordinates
+     * @param pixels captured pixels
+     * @param frames number of frames
+     * @return sum of the averaged colors
+     */
+    private static long run(LEDCoordinate[] leds, IntBuffer pixels, int frames) {
+
+        long sum = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (LEDCoordinate led : leds) {
+                sum += ImageProcessor.getAverageColor(led, 100, false, pixels, 0, 0, WIDTH, WIDTH, HEIGHT);
+            }
+        }
+        return sum;
+
+    }
+
+}
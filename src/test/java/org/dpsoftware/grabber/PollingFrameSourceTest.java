@@ -0,0 +1,175 @@
+/*
+  PollingFrameSourceTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Polling producers follow the measured capture latency and capture on slots spaced by the target period
+ */
+class PollingFrameSourceTest {
+
+    private static final int MAX_PRODUCERS = 8;
+
+    private Configuration config;
+    private ScheduledExecutorService executor;
+    // Producers block inside the capture so only the latency recorded by the test is measured
+    private final CountDownLatch captureBlocked = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+
+        config = TestUtility.initConfig();
+        config.setOutputSinks(List.of(Constants.OutputSinkType.NULL.name()));
+        executor = Executors.newSingleThreadScheduledExecutor();
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        FireflyLuciferin.RUNNING = false;
+        captureBlocked.countDown();
+        executor.shutdownNow();
+        config.setDesiredFramerate(Constants.UNLOCKED);
+        FrameRateController.adjust();
+
+    }
+
+    @Test
+    void producersFollowCaptureLatency() throws Exception {
+
+        PollingFrameSource source = startSource();
+        assertEquals(MAX_PRODUCERS, source.getActiveProducers());
+        // 60 FPS with 50ms captures needs 3 producers, plus a spare one
+        recordCaptures(source, 50);
+        source.adjustProducers(60);
+        assertEquals(4, source.getActiveProducers());
+        // Faster captures, a single producer is almost enough
+        recordCaptures(source, 10);
+        source.adjustProducers(60);
+        assertEquals(2, source.getActiveProducers());
+        // Slower captures, never more than the max number of producers
+        recordCaptures(source, 200);
+        source.adjustProducers(60);
+        assertEquals(MAX_PRODUCERS, source.getActiveProducers());
+
+    }
+
+    @Test
+    void producersAreKeptWithoutMeasurements() throws Exception {
+
+        PollingFrameSource source = startSource();
+        recordCaptures(source, 10);
+        source.adjustProducers(60);
+        assertEquals(2, source.getActiveProducers());
+        // Latency is measured again after every adjustment
+        source.adjustProducers(60);
+        assertEquals(2, source.getActiveProducers());
+
+    }
+
+    @Test
+    void slotsAreSpacedByTheTargetPeriod() {
+
+        config.setDesiredFramerate("50");
+        FrameRateController.adjust();
+        assertEquals(50, FrameRateController.getTargetFramerate());
+        long period = TimeUnit.SECONDS.toNanos(1) / 50;
+        long previous = FrameRateController.claimSlot();
+        for (int i = 0; i < 10; i++) {
+            long slot = FrameRateController.claimSlot();
+            assertEquals(period, slot - previous);
+            previous = slot;
+        }
+
+    }
+
+    @Test
+    void missedSlotsAreNotRecovered() throws InterruptedException {
+
+        config.setDesiredFramerate("50");
+        FrameRateController.adjust();
+        long period = TimeUnit.SECONDS.toNanos(1) / 50;
+        long slot = FrameRateController.claimSlot();
+        // A slow capture misses several slots, the next slot starts from now instead of a burst of late slots
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, slot - System.nanoTime()) + (period * 3));
+        long now = System.nanoTime();
+        long next = FrameRateController.claimSlot();
+        assertTrue(next >= now && next - now < period);
+        assertEquals(period, FrameRateController.claimSlot() - next);
+
+    }
+
+    /**
+     * Start a source whose producers block inside the capture
+     * @return started source
+     * @throws Exception can't start the source
+     */
+    private PollingFrameSource startSource() throws Exception {
+
+        PollingFrameSource source = new PollingFrameSource(MAX_PRODUCERS) {
+            @Override
+            protected void capture(int producerIndex, RawFrame rawFrame) {
+
+                try {
+                    captureBlocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+            }
+        };
+        FireflyLuciferin.RUNNING = true;
+        source.start(executor);
+        return source;
+
+    }
+
+    /**
+     * Record captures with the same latency
+     * @param source polling source
+     * @param latencyMillis capture latency
+     */
+    private static void recordCaptures(PollingFrameSource source, long latencyMillis) {
+
+        for (int i = 0; i < 10; i++) {
+            source.recordCapture(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+  SamplingIndexTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compiled sampling indexes pick the same pixels as the per LED loop they replace
+ * and are compiled again when the LED matrix or the resolution changes
+ */
+class SamplingIndexTest {
+
+    private static final int WIDTH = 3840 / Constants.RESAMPLING_FACTOR;
+    private static final int HEIGHT = 2160 / Constants.RESAMPLING_FACTOR;
+    private static final String FULLSCREEN = Constants.AspectRatio.FULLSCREEN.getAspectRatio();
+
+    private Configuration config;
+
+    @BeforeEach
+    void setUp() {
+
+        config = TestUtility.initConfig();
+
+    }
+
+    @Test
+    void compiledOffsetsMatchThePerLedLoop() {
+
+        for (LinkedHashMap<Integer, LEDCoordinate> ledMatrix : new LinkedHashMap[] {fullScreenMatrix(3840, 2160),
+                new LEDCoordinate().initLetterboxLedMatrix(3840, 2160, 16, 18, 52, 18, 16, 0, true),
+                new LEDCoordinate().initPillarboxMatrix(3840, 2160, 16, 18, 52, 18, 16, 0, true)}) {
+            SamplingIndex index = SamplingIndex.compile(FULLSCREEN, ledMatrix, WIDTH, HEIGHT, WIDTH);
+            assertEquals(ledMatrix.size(), index.getLedCount());
+            for (int led = 0; led < ledMatrix.size(); led++) {
+                int[] compiled = Arrays.copyOfRange(index.getOffsets(), index.getLedStart()[led], index.getLedStart()[led + 1]);
+                assertArrayEquals(perLedLoopOffsets(ledMatrix.get(led + 1), WIDTH, HEIGHT), compiled, "LED " + (led + 1));
+            }
+        }
+
+    }
+
+    @Test
+    void cachedIndexIsRebuiltOnMatrixOrResolutionChange() {
+
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrix = fullScreenMatrix(3840, 2160);
+        SamplingIndex index = SamplingIndex.getOrCompile(FULLSCREEN, ledMatrix, WIDTH, HEIGHT, WIDTH);
+        assertSame(index, SamplingIndex.getOrCompile(FULLSCREEN, ledMatrix, WIDTH, HEIGHT, WIDTH));
+        assertTrue(index.isCompiledFor(ledMatrix, WIDTH, HEIGHT, WIDTH));
+        // Resolution change
+        SamplingIndex smaller = SamplingIndex.getOrCompile(FULLSCREEN, ledMatrix, WIDTH / 2, HEIGHT / 2, WIDTH / 2);
+        assertNotSame(index, smaller);
+        assertFalse(index.isCompiledFor(ledMatrix, WIDTH / 2, HEIGHT / 2, WIDTH / 2));
+        // Same aspect ratio and resolution, matrix rebuilt by a config change
+        LinkedHashMap<Integer, LEDCoordinate> rebuilt = fullScreenMatrix(2560, 1440);
+        assertFalse(index.isCompiledFor(rebuilt, WIDTH, HEIGHT, WIDTH));
+        SamplingIndex recompiled = SamplingIndex.getOrCompile(FULLSCREEN, rebuilt, WIDTH, HEIGHT, WIDTH);
+        assertNotSame(index, recompiled);
+        assertSame(rebuilt, recompiled.getLedMatrix());
+
+    }
+
+    @Test
+    void frameProcessorFollowsTheActiveMatrix() {
+
+        LinkedHashMap<Integer, LEDCoordinate> first = fullScreenMatrix(3840, 2160);
+        useMatrix(first);
+        SamplingIndex index = FrameProcessor.getSamplingIndex(WIDTH, HEIGHT, WIDTH);
+        assertSame(first, index.getLedMatrix());
+        assertSame(index, FrameProcessor.getSamplingIndex(WIDTH, HEIGHT, WIDTH));
+        // Settings saved with a new matrix for the aspect ratio in use
+        LinkedHashMap<Integer, LEDCoordinate> second = fullScreenMatrix(2560, 1440);
+        useMatrix(second);
+        SamplingIndex switched = FrameProcessor.getSamplingIndex(WIDTH, HEIGHT, WIDTH);
+        assertSame(second, switched.getLedMatrix());
+        assertArrayEquals(perLedLoopOffsets(second.get(1), WIDTH, HEIGHT),
+                Arrays.copyOfRange(switched.getOffsets(), switched.getLedStart()[0], switched.getLedStart()[1]));
+
+    }
+
+    /**
+     * Put a matrix in the config and make it the active one
+     * @param ledMatrix full screen LED matrix
+     */
+    private void useMatrix(LinkedHashMap<Integer, LEDCoordinate> ledMatrix) {
+
+        Map<String, LinkedHashMap<Integer, LEDCoordinate>> ledMatrixes = new HashMap<>();
+        ledMatrixes.put(FULLSCREEN, ledMatrix);
+        config.setLedMatrix(ledMatrixes);
+        FrameProcessor.switchLedMatrix(FULLSCREEN);
+
+    }
+
+    /**
+     * Full screen matrix with the default LED layout
+     * @param screenWidth screen width
+     * @param screenHeight screen height
+     * @return LED matrix
+     */
+    private static LinkedHashMap<Integer, LEDCoordinate> fullScreenMatrix(int screenWidth, int screenHeight) {
+
+        return new LEDCoordinate().initFullScreenLedMatrix(screenWidth, screenHeight, 16, 18, 52, 18, 16, 0, true);
+
+    }
+
+    /**
+     * Buffer offsets read by the per LED loop of the GStreamer grabber before sampling indexes, stride equal to width
+     * @param value LED coordinate
+     * @param width frame width
+     * @param height frame height
+     * @return offsets in sampling order
+     */
+    private static int[] perLedLoopOffsets(LEDCoordinate value, int width, int height) {
+
+        int intBufferSize = (width * height) - 1;
+        int pixelToUse = (value.getDimension() / Constants.RESAMPLING_FACTOR) - 2;
+        int pixelInUse = pixelToUse <= 0 ? 1 : pixelToUse;
+        int xCoordinate = (value.getX() / Constants.RESAMPLING_FACTOR) + 2;
+        int yCoordinate = (value.getY() / Constants.RESAMPLING_FACTOR) + 2;
+        int[] offsets = new int[pixelInUse * pixelInUse];
+        int k = 0;
+        for (int x = 0; x < pixelInUse; x++) {
+            for (int y = 0; y < pixelInUse; y++) {
+                int offsetX = xCoordinate + x;
+                int offsetY = yCoordinate + y;
+                int bufferOffset = (Math.min(offsetX, width)) + ((offsetY < height) ? (offsetY * width) : (height * width));
+                offsets[k++] = Math.min(intBufferSize, bufferOffset);
+            }
+        }
+        return offsets;
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+  MqttBrokerStandIn.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In process MQTT 3.1.1 broker stand-in, it accepts a single client and records what the client publishes.
+ * Only what a publishing client needs is implemented: CONNECT, PUBLISH at QoS 0 and 1, PINGREQ, DISCONNECT.
+ */
+public class MqttBrokerStandIn implements AutoCloseable {
+
+    private static final int CONNECT = 1;
+    private static final int PUBLISH = 3;
+    private static final int PINGREQ = 12;
+    private static final int DISCONNECT = 14;
+
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private volatile Socket socket;
+
+    /**
+     * A published message and the time the stand-in read it
+     */
+    public static class Message {
+
+        public final String topic;
+        public final byte[] payload;
+        public final long receiveTime;
+
+        /**
+         * Constructor
+         * @param topic topic
+         * @param payload payload
+         * @param receiveTime System.nanoTime() when the message was read
+         */
+        Message(String topic, byte[] payload, long receiveTime) {
+
+            this.topic = topic;
+            this.payload = payload;
+            this.receiveTime = receiveTime;
+
+        }
+
+    }
+
+    /**
+     * Listen on a free port of the loopback interface
+     * @throws IOException can't bind
+     */
+    public MqttBrokerStandIn() throws IOException {
+
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this::serve, "MqttBrokerStandIn");
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    /**
+     * Server URI for the MQTT client
+     * @return tcp URI
+     */
+    public String getServer() {
+
+        return "tcp://127.0.0.1:" + serverSocket.getLocalPort();
+
+    }
+
+    /**
+     * Messages published by the client, in the order they were read
+     * @return received messages
+     */
+    public BlockingQueue<Message> getReceived() {
+
+        return received;
+
+    }
+
+    /**
+     * Accept a client and read its packets until it disconnects
+     */
+    private void serve() {
+
+        try (Socket client = serverSocket.accept()) {
+            socket = client;
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+            while (true) {
+                int fixedHeader = in.readUnsignedByte();
+                byte[] body = new byte[readRemainingLength(in)];
+                in.readFully(body);
+                switch (fixedHeader >> 4) {
+                    case CONNECT -> out.write(new byte[] {0x20, 0x02, 0x00, 0x00});
+                    case PUBLISH -> onPublish(fixedHeader, body, out);
+                    case PINGREQ -> out.write(new byte[] {(byte) 0xD0, 0x00});
+                    case DISCONNECT -> {
+                        return;
+                    }
+                    default -> throw new IOException("Unexpected packet type " + (fixedHeader >> 4));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client gone or stand-in closed
+        }
+
+    }
+
+    /**
+     * Record a PUBLISH packet, QoS 1 is acknowledged
+     * @param fixedHeader first byte of the packet
+     * @param body variable header and payload
+     * @param out client stream
+     * @throws IOException can't write the acknowledgment
+     */
+    private void onPublish(int fixedHeader, byte[] body, OutputStream out) throws IOException {
+
+        long receiveTime = System.nanoTime();
+        int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+        String topic = new String(body, 2, topicLength);
+        int position = 2 + topicLength;
+        int qos = (fixedHeader >> 1) & 0x03;
+        if (qos > 0) {
+            out.write(new byte[] {0x40, 0x02, body[position], body[position + 1]});
+            position += 2;
+        }
+        byte[] payload = new byte[body.length - position];
+        System.arraycopy(body, position, payload, 0, payload.length);
+        received.add(new Message(topic, payload, receiveTime));
+
+    }
+
+    /**
+     * Read the variable length remaining length field
+     * @param in client stream
+     * @return remaining length
+     * @throws IOException stream closed
+     */
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+
+        int value = 0;
+        int shift = 0;
+        int encodedByte;
+        do {
+            encodedByte = in.readUnsignedByte();
+            value |= (encodedByte & 0x7F) << shift;
+            shift += 7;
+        } while ((encodedByte & 0x80) != 0);
+        return value;
+
+    }
+
+    /**
+     * Stop listening and drop the client
+     * @throws IOException can't close
+     */
+    @Override
+    public void close() throws IOException {
+
+        serverSocket.close();
+        Socket client = socket;
+        if (client != null) {
+            client.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+  MqttStreamPublisherBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.Benchmark;
+import org.dpsoftware.TestUtility;
+import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Heap allocated by the stream publisher on every frame, parts are copied into recycled buffers
+ */
+@Slf4j
+@Tag("benchmark")
+class MqttStreamPublisherBenchmarkTest {
+
+    private static final String TOPIC = "lights/firefly_luciferin/stream";
+    private static final int FRAMES = 30000;
+    // Two full parts and a shorter last part, as cut by the stream builder
+    private static final int[] PART_SIZES = {1024, 1024, 500};
+
+    /**
+     * Client that never touches the network and allocates nothing, messages are completed by the benchmark
+     */
+    private static class CompletingClient extends MqttAsyncClient {
+
+        final Object[] contexts = new Object[64];
+        final MqttToken token = new MqttToken("completing");
+        int inFlight;
+
+        /**
+         * Constructor
+         * @throws MqttException invalid server URI
+         */
+        CompletingClient() throws MqttException {
+
+            super("tcp://127.0.0.1:1883", "completing", new MemoryPersistence());
+
+        }
+
+        @Override
+        public IMqttDeliveryToken publish(String topic, byte[] payload, int qos, boolean retained, Object userContext,
+                                          IMqttActionListener callback) {
+
+            contexts[inFlight++] = userContext;
+            return null;
+
+        }
+
+        /**
+         * Complete every message in flight, in order, reusing the same token
+         * @param publisher publisher that handed the messages
+         */
+        void completeAll(MqttStreamPublisher publisher) {
+
+            int completed = 0;
+            while (completed < inFlight) {
+                token.setUserContext(contexts[completed++]);
+                publisher.onSuccess(token);
+            }
+            inFlight = 0;
+
+        }
+
+    }
+
+    @Test
+    void allocationPerFrame() throws MqttException {
+
+        TestUtility.initConfig().setMqttInflightWindow(2);
+        CompletingClient client = new CompletingClient();
+        MqttStreamPublisher publisher = new MqttStreamPublisher(client, 10);
+        byte[][] parts = new byte[PART_SIZES.length][];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new byte[PART_SIZES[i]];
+        }
+        // Three frames between completions: the first one is started, the second one waits and is dropped
+        long bytesPerFrame = Benchmark.allocatedBytes(FRAMES, () -> {
+            for (int frame = 0; frame < FRAMES; frame += 3) {
+                publisher.publish(TOPIC, parts);
+                publisher.publish(TOPIC, parts);
+                publisher.publish(TOPIC, parts);
+                client.completeAll(publisher);
+            }
+        });
+        log.info(PART_SIZES.length + " parts, " + bytesPerFrame + " bytes allocated per frame");
+        assertTrue(bytesPerFrame < 16, bytesPerFrame + " bytes per frame");
+
+    }
+
+}
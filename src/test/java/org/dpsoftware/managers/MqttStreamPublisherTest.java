@@ -0,0 +1,305 @@
+/*
+  MqttStreamPublisherTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * In flight window and frame dropping of the stream publisher, against a client that completes messages on demand
+ * and against an in process broker stand-in
+ */
+class MqttStreamPublisherTest {
+
+    private static final String TOPIC = "lights/firefly_luciferin/stream";
+    private static final int PARTS = 4;
+    private Configuration config;
+
+    /**
+     * Client that never touches the network, messages stay in flight until the test completes them
+     */
+    private static class RecordingClient extends MqttAsyncClient {
+
+        final List<MqttToken> inFlight = new ArrayList<>();
+        final List<byte[]> handed = new ArrayList<>();
+        // Publish call refused by the client, counting from 1, 0 never refuses
+        int refusedCall;
+        private int calls;
+
+        /**
+         * Constructor
+         * @throws MqttException invalid server URI
+         */
+        RecordingClient() throws MqttException {
+
+            super("tcp://127.0.0.1:1883", "recording", new MemoryPersistence());
+
+        }
+
+        @Override
+        public IMqttDeliveryToken publish(String topic, byte[] payload, int qos, boolean retained, Object userContext,
+                                          IMqttActionListener callback) throws MqttException {
+
+            if (++calls == refusedCall) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            MqttDeliveryToken token = new MqttDeliveryToken(getClientId());
+            token.setUserContext(userContext);
+            inFlight.add(token);
+            handed.add(payload.clone());
+            return token;
+
+        }
+
+        /**
+         * Complete the oldest message in flight
+         * @param publisher publisher that handed the message
+         */
+        void completeOldest(MqttStreamPublisher publisher) {
+
+            publisher.onSuccess(inFlight.remove(0));
+
+        }
+
+    }
+
+    @BeforeEach
+    void setUp() {
+
+        config = TestUtility.initConfig();
+
+    }
+
+    @Test
+    void startedFrameIsCompletedAndOnlyTheWaitingFrameIsDropped() throws MqttException {
+
+        config.setMqttInflightWindow(2);
+        RecordingClient client = new RecordingClient();
+        MqttStreamPublisher publisher = new MqttStreamPublisher(client, 10);
+        publisher.publish(TOPIC, frame(0));
+        assertEquals(2, client.inFlight.size());
+        // Frame 1 waits for frame 0, frame 2 replaces it
+        publisher.publish(TOPIC, frame(1));
+        publisher.publish(TOPIC, frame(2));
+        assertEquals(2, client.inFlight.size());
+        // Frame 2 starts while frame 0 completes, frame 3 can't cut it
+        client.completeOldest(publisher);
+        client.completeOldest(publisher);
+        client.completeOldest(publisher);
+        publisher.publish(TOPIC, frame(3));
+        while (!client.inFlight.isEmpty()) {
+            client.completeOldest(publisher);
+        }
+        assertFrames(client.handed, 0, 2, 3);
+        assertTrue(publisher.report().contains("dropped frames: 1,"));
+
+    }
+
+    @Test
+    void singlePartFramesKeepOnlyTheNewest() throws MqttException {
+
+        config.setMqttInflightWindow(1);
+        RecordingClient client = new RecordingClient();
+        MqttStreamPublisher publisher = new MqttStreamPublisher(client, 10);
+        for (int frameNumber = 0; frameNumber < 5; frameNumber++) {
+            publisher.publish(TOPIC, part(frameNumber, 0));
+        }
+        while (!client.inFlight.isEmpty()) {
+            client.completeOldest(publisher);
+        }
+        assertEquals(2, client.handed.size());
+        assertEquals(0, client.handed.get(0)[0]);
+        assertEquals(4, client.handed.get(1)[0]);
+        assertTrue(publisher.report().contains("dropped frames: 3,"));
+
+    }
+
+    @Test
+    void windowIsClampedToClientMaxInflight() throws MqttException {
+
+        config.setMqttInflightWindow(50);
+        RecordingClient client = new RecordingClient();
+        MqttStreamPublisher publisher = new MqttStreamPublisher(client, 10);
+        byte[][] parts = new byte[20][];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = part(0, i);
+        }
+        publisher.publish(TOPIC, parts);
+        assertEquals(10, client.inFlight.size());
+        client.completeOldest(publisher);
+        assertEquals(10, client.inFlight.size());
+        assertTrue(publisher.report().contains("failed: 0"));
+
+    }
+
+    @Test
+    void refusedPartIsRetriedBeforeTheRestOfTheFrame() throws MqttException {
+
+        config.setMqttInflightWindow(3);
+        RecordingClient client = new RecordingClient();
+        client.refusedCall = 2;
+        MqttStreamPublisher publisher = new MqttStreamPublisher(client, 10);
+        byte[][] parts = new byte[3][];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = part(0, i);
+        }
+        publisher.publish(TOPIC, parts);
+        // Part 3 is not handed while part 2 waits
+        assertEquals(1, client.handed.size());
+        client.completeOldest(publisher);
+        while (!client.inFlight.isEmpty()) {
+            client.completeOldest(publisher);
+        }
+        assertEquals(3, client.handed.size());
+        for (int i = 0; i < parts.length; i++) {
+            assertEquals(i, client.handed.get(i)[2]);
+        }
+        // The next frame follows once the refused part went through
+        publisher.publish(TOPIC, frame(1));
+        while (!client.inFlight.isEmpty()) {
+            client.completeOldest(publisher);
+        }
+        assertEquals(3 + PARTS, client.handed.size());
+        assertTrue(publisher.report().contains("dropped frames: 0, failed: 1"));
+
+    }
+
+    @Test
+    void framesReachTheBrokerWhole() throws Exception {
+
+        config.setMqttInflightWindow(2);
+        try (MqttBrokerStandIn broker = new MqttBrokerStandIn()) {
+            MqttConnectOptions connOpts = new MqttConnectOptions();
+            connOpts.setCleanSession(true);
+            connOpts.setMaxInflight(10);
+            MqttStreamPublisher publisher = new MqttStreamPublisher(broker.getServer(), "firefly_stream", connOpts);
+            int frames = 500;
+            for (int frameNumber = 0; frameNumber < frames; frameNumber++) {
+                publisher.publish(TOPIC, frame(frameNumber));
+            }
+            // Frames may be dropped, the ones received are whole and in order, the last one always arrives
+            List<byte[]> received = new ArrayList<>();
+            int lastFrame = -1;
+            while (lastFrame != frames - 1 || received.size() % PARTS != 0) {
+                MqttBrokerStandIn.Message message = broker.getReceived().poll(5, TimeUnit.SECONDS);
+                assertNotNull(message, "frame " + (frames - 1) + " never arrived");
+                assertEquals(TOPIC, message.topic);
+                received.add(message.payload);
+                lastFrame = frameNumber(message.payload);
+            }
+            int previous = -1;
+            for (int i = 0; i < received.size(); i += PARTS) {
+                int frameNumber = frameNumber(received.get(i));
+                assertTrue(frameNumber > previous);
+                for (int part = 0; part < PARTS; part++) {
+                    assertEquals(frameNumber, frameNumber(received.get(i + part)));
+                    assertEquals(part, received.get(i + part)[2]);
+                }
+                previous = frameNumber;
+            }
+        }
+
+    }
+
+    @Test
+    void closedPublisherRefusesFrames() throws Exception {
+
+        try (MqttBrokerStandIn broker = new MqttBrokerStandIn()) {
+            MqttConnectOptions connOpts = new MqttConnectOptions();
+            connOpts.setCleanSession(true);
+            connOpts.setMaxInflight(10);
+            MqttStreamPublisher publisher = new MqttStreamPublisher(broker.getServer(), "firefly_stream", connOpts);
+            publisher.close();
+            publisher.publish(TOPIC, frame(0));
+            assertTrue(publisher.report().contains("failed: 1"));
+        }
+
+    }
+
+    /**
+     * Check that the client got every part of the frames, in order
+     * @param handed payloads handed to the client
+     * @param frameNumbers expected frames
+     */
+    private static void assertFrames(List<byte[]> handed, int... frameNumbers) {
+
+        assertEquals(frameNumbers.length * PARTS, handed.size());
+        for (int i = 0; i < handed.size(); i++) {
+            assertEquals(frameNumbers[i / PARTS], frameNumber(handed.get(i)), "part " + i);
+            assertEquals(i % PARTS, handed.get(i)[2], "part " + i);
+        }
+
+    }
+
+    /**
+     * Multi part frame
+     * @param frameNumber frame number, written in every part
+     * @return parts
+     */
+    private static byte[][] frame(int frameNumber) {
+
+        byte[][] parts = new byte[PARTS][];
+        for (int part = 0; part < PARTS; part++) {
+            parts[part] = part(frameNumber, part);
+        }
+        return parts;
+
+    }
+
+    /**
+     * Part of a frame: frame number, part number, then padding
+     * @param frameNumber frame number
+     * @param part part number
+     * @return payload
+     */
+    private static byte[] part(int frameNumber, int part) {
+
+        byte[] payload = new byte[64];
+        payload[0] = (byte) frameNumber;
+        payload[1] = (byte) (frameNumber >> 8);
+        payload[2] = (byte) part;
+        return payload;
+
+    }
+
+    /**
+     * Frame number written in a part
+     * @param payload part payload
+     * @return frame number
+     */
+    private static int frameNumber(byte[] payload) {
+
+        return (payload[0] & 0xFF) | ((payload[1] & 0xFF) << 8);
+
+    }
+
+}
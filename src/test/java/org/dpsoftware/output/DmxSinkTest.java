@@ -0,0 +1,265 @@
+/*
+  DmxSinkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.LEDOutputMap;
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * E1.31 and Art-Net packets sent to a receiver bound on the loopback interface, headers are checked field by field
+ */
+class DmxSinkTest {
+
+    // 10 full universes and an odd number of slots in the last one
+    private static final int LED_NUMBER = (10 * Constants.DMX_PIXELS_PER_UNIVERSE) + 151;
+    private static final int UNIVERSES = 11;
+    private static final int START_UNIVERSE = 7;
+
+    private final Random random = new Random(1);
+    private Configuration config;
+    private DmxSink dmxSink;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        config = TestUtility.initConfig();
+        config.setDmxAddress("127.0.0.1");
+        config.setDmxStartUniverse(START_UNIVERSE);
+        dmxSink = new DmxSink();
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        dmxSink.close();
+
+    }
+
+    @Test
+    void e131Universes() throws IOException {
+
+        config.setDmxProtocol(Constants.DmxProtocol.E131.name());
+        try (DatagramSocket receiver = bind(Constants.DmxProtocol.E131)) {
+            int previousSequence = -1;
+            for (int frameNumber = 0; frameNumber < 2; frameNumber++) {
+                LEDFrame frame = TestUtility.randomFrame(LED_NUMBER, random);
+                dmxSink.send(frame, LED_NUMBER);
+                int sequence = -1;
+                for (int u = 0; u < UNIVERSES; u++) {
+                    byte[] data = receive(receiver);
+                    int slots = slots(u);
+                    int length = data.length;
+                    assertEquals(126 + slots, length);
+                    // Root layer
+                    assertEquals(0x0010, u16(data, 0));
+                    assertArrayEquals("ASC-E1.17\0\0\0".getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(data, 4, 16));
+                    assertEquals(0x7000 | (length - 16), u16(data, 16));
+                    assertEquals(0x00000004, u32(data, 18));
+                    // Framing layer
+                    assertEquals(0x7000 | (length - 38), u16(data, 38));
+                    assertEquals(0x00000002, u32(data, 40));
+                    assertEquals(Constants.DMX_PRIORITY, data[108] & 0xFF);
+                    assertEquals(START_UNIVERSE + u, u16(data, 113));
+                    // DMP layer
+                    assertEquals(0x7000 | (length - 115), u16(data, 115));
+                    assertEquals(0x02, data[117]);
+                    assertEquals((byte) 0xA1, data[118]);
+                    assertEquals(0, u16(data, 119));
+                    assertEquals(1, u16(data, 121));
+                    assertEquals(slots + 1, u16(data, 123));
+                    assertEquals(0, data[125]);
+                    assertColors(frame, data, 126, u, slots);
+                    if (u == 0) {
+                        sequence = data[111] & 0xFF;
+                    }
+                    assertEquals(sequence, data[111] & 0xFF, "one sequence number for every universe of a frame");
+                }
+                if (previousSequence >= 0) {
+                    assertEquals(previousSequence + 1, sequence);
+                }
+                previousSequence = sequence;
+                frame.release();
+            }
+        }
+
+    }
+
+    @Test
+    void artNetUniverses() throws IOException {
+
+        config.setDmxProtocol(Constants.DmxProtocol.ARTNET.name());
+        try (DatagramSocket receiver = bind(Constants.DmxProtocol.ARTNET)) {
+            LEDFrame frame = TestUtility.randomFrame(LED_NUMBER, random);
+            dmxSink.send(frame, LED_NUMBER);
+            for (int u = 0; u < UNIVERSES; u++) {
+                byte[] data = receive(receiver);
+                int slots = slots(u);
+                int dmxLength = slots + (slots & 1);
+                assertArrayEquals("Art-Net\0".getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(data, 0, 8));
+                // OpDmx, little endian
+                assertEquals(0x00, data[8]);
+                assertEquals(0x50, data[9]);
+                assertEquals(14, u16(data, 10));
+                assertNotEquals(0, data[12], "sequence 0 disables reordering");
+                int universe = START_UNIVERSE + u;
+                assertEquals(universe & 0xFF, data[14] & 0xFF, "SubUni");
+                assertEquals((universe >> 8) & 0x7F, data[15] & 0xFF, "Net");
+                assertEquals(0, dmxLength & 1);
+                assertEquals(dmxLength, u16(data, 16));
+                assertEquals(18 + dmxLength, data.length);
+                assertColors(frame, data, 18, u, slots);
+            }
+            frame.release();
+        }
+
+    }
+
+    @Test
+    void failedAllocationIsRetried() {
+
+        Logger logger = (Logger) LoggerFactory.getLogger(DmxSink.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            config.setDmxProtocol(Constants.DmxProtocol.E131.name());
+            // Malformed literal, it fails without a DNS lookup
+            config.setDmxAddress("[::1");
+            LEDFrame frame = TestUtility.randomFrame(LED_NUMBER, random);
+            dmxSink.send(frame, LED_NUMBER);
+            dmxSink.send(frame, LED_NUMBER);
+            frame.release();
+            long errors = appender.list.stream().filter(event -> event.getLevel() == Level.ERROR).count();
+            assertEquals(2, errors, "every frame retries the allocation");
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+    }
+
+    /**
+     * Bind a receiver on the loopback interface, on the port of a protocol
+     * @param dmxProtocol DMX protocol
+     * @return receiver socket
+     * @throws IOException can't bind
+     */
+    private static DatagramSocket bind(Constants.DmxProtocol dmxProtocol) throws IOException {
+
+        DatagramSocket receiver = new DatagramSocket(null);
+        receiver.setReuseAddress(true);
+        receiver.setSoTimeout(5000);
+        receiver.bind(new InetSocketAddress("127.0.0.1", dmxProtocol.getPort()));
+        return receiver;
+
+    }
+
+    /**
+     * Receive a datagram
+     * @param receiver receiver socket
+     * @return datagram bytes
+     * @throws IOException nothing received
+     */
+    private static byte[] receive(DatagramSocket receiver) throws IOException {
+
+        DatagramPacket datagram = new DatagramPacket(new byte[1024], 1024);
+        receiver.receive(datagram);
+        return Arrays.copyOf(datagram.getData(), datagram.getLength());
+
+    }
+
+    /**
+     * DMX slots used in a universe
+     * @param u universe index from the start universe
+     * @return slots
+     */
+    private static int slots(int u) {
+
+        return Math.min(Constants.DMX_PIXELS_PER_UNIVERSE, LED_NUMBER - (u * Constants.DMX_PIXELS_PER_UNIVERSE)) * 3;
+
+    }
+
+    /**
+     * Check the DMX data of a universe against the frame
+     * @param frame frame sent
+     * @param data packet
+     * @param offset first DMX slot
+     * @param u universe index from the start universe
+     * @param slots slots used
+     */
+    private static void assertColors(LEDFrame frame, byte[] data, int offset, int u, int slots) {
+
+        int[] outputMap = LEDOutputMap.get(LED_NUMBER);
+        for (int i = 0; i < slots / 3; i++) {
+            int rgb = frame.getRGB(outputMap[(u * Constants.DMX_PIXELS_PER_UNIVERSE) + i]);
+            int j = offset + (i * 3);
+            assertEquals(rgb, ((data[j] & 0xFF) << 16) | ((data[j + 1] & 0xFF) << 8) | (data[j + 2] & 0xFF), "universe " + u + " pixel " + i);
+        }
+
+    }
+
+    /**
+     * Read a big endian 16 bit value
+     * @param data packet
+     * @param index index of the high byte
+     * @return unsigned value
+     */
+    private static int u16(byte[] data, int index) {
+
+        return ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+
+    }
+
+    /**
+     * Read a big endian 32 bit value
+     * @param data packet
+     * @param index index of the highest byte
+     * @return value
+     */
+    private static int u32(byte[] data, int index) {
+
+        return (u16(data, index) << 16) | u16(data, index + 2);
+
+    }
+
+}
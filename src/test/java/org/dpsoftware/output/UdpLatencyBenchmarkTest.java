@@ -0,0 +1,144 @@
+/*
+  UdpLatencyBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.gui.SettingsController;
+import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.managers.MqttBrokerStandIn;
+import org.dpsoftware.managers.MqttStreamPublisher;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency and jitter of a frame from the PC to the device, straight over UDP and through the MQTT broker.
+ * Both receivers are localhost stand-ins, the broker stand-in forwards nothing so the broker path is measured
+ * up to the broker only: the real path adds the broker to device leg on top of it.
+ */
+@Slf4j
+@Tag("benchmark")
+class UdpLatencyBenchmarkTest {
+
+    private static final int LED_NUMBER = 1000;
+    private static final int FRAMES = 3000;
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final String TOPIC = "lights/firefly_luciferin/stream";
+
+    @AfterEach
+    void tearDown() {
+
+        SettingsController.deviceTableData.clear();
+
+    }
+
+    @Test
+    void udpVersusBroker() throws Exception {
+
+        Configuration config = TestUtility.initConfig();
+        LEDFrame frame = TestUtility.randomFrame(LED_NUMBER, new Random(1));
+        long[] sendTimes = new long[FRAMES];
+        long[] latencies = new long[FRAMES];
+
+        try (UdpReceiverStandIn receiver = new UdpReceiverStandIn()) {
+            config.setMqttStream(true);
+            config.setSerialPort(Constants.SERIAL_PORT_AUTO);
+            config.setUdpPort(receiver.getPort());
+            SettingsController.deviceTableData.add(new GlowWormDevice("Test device", "127.0.0.1", "", "", "", "", "", "",
+                    "", "", ""));
+            UdpSink udpSink = new UdpSink();
+            for (int i = 0; i < FRAMES; i++) {
+                sendTimes[i] = System.nanoTime();
+                udpSink.send(frame, LED_NUMBER);
+                LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+            }
+            udpSink.close();
+            int received = 0;
+            UdpReceiverStandIn.Frame udpFrame;
+            while ((udpFrame = receiver.getFrames().poll(1, TimeUnit.SECONDS)) != null) {
+                // First frame sent has sequence 1
+                latencies[received++] = udpFrame.receiveTime - sendTimes[udpFrame.sequence - 1];
+            }
+            log("UDP", Arrays.copyOf(latencies, received));
+        }
+
+        try (MqttBrokerStandIn broker = new MqttBrokerStandIn()) {
+            MqttConnectOptions connOpts = new MqttConnectOptions();
+            connOpts.setCleanSession(true);
+            connOpts.setMaxInflight(10);
+            MqttStreamPublisher publisher = new MqttStreamPublisher(broker.getServer(), "firefly_stream", connOpts);
+            int ledsPerPart = (Constants.UDP_MAX_PAYLOAD - 3) / 3;
+            byte[][] parts = new byte[(LED_NUMBER + ledsPerPart - 1) / ledsPerPart][];
+            for (int part = 0; part < parts.length; part++) {
+                parts[part] = new byte[3 + (Math.min(ledsPerPart, LED_NUMBER - (part * ledsPerPart)) * 3)];
+                parts[part][2] = (byte) part;
+            }
+            for (int i = 0; i < FRAMES; i++) {
+                for (byte[] part : parts) {
+                    part[0] = (byte) i;
+                    part[1] = (byte) (i >> 8);
+                }
+                sendTimes[i] = System.nanoTime();
+                publisher.publish(TOPIC, parts);
+                LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+            }
+            int received = 0;
+            MqttBrokerStandIn.Message message;
+            while ((message = broker.getReceived().poll(1, TimeUnit.SECONDS)) != null) {
+                if (message.payload[2] == parts.length - 1) {
+                    int frameNumber = (message.payload[0] & 0xFF) | ((message.payload[1] & 0xFF) << 8);
+                    latencies[received++] = message.receiveTime - sendTimes[frameNumber];
+                }
+            }
+            log("MQTT broker", Arrays.copyOf(latencies, received));
+        }
+        frame.release();
+
+    }
+
+    /**
+     * Log latency stats, jitter is the standard deviation of the latency
+     * @param path path measured
+     * @param latencies latency of every frame received, in nanoseconds
+     */
+    private static void log(String path, long[] latencies) {
+
+        Arrays.sort(latencies);
+        double mean = Arrays.stream(latencies).average().orElse(0);
+        double variance = Arrays.stream(latencies).mapToDouble(latency -> (latency - mean) * (latency - mean)).average().orElse(0);
+        log.info(String.format("%s, %d LEDs: %d/%d frames, latency avg %.0f us, p50 %d us, p99 %d us, max %d us, jitter %.0f us",
+                path, LED_NUMBER, latencies.length, FRAMES, mean / 1000, latencies[latencies.length / 2] / 1000,
+                latencies[(latencies.length * 99) / 100] / 1000, latencies[latencies.length - 1] / 1000, Math.sqrt(variance) / 1000));
+
+    }
+
+}
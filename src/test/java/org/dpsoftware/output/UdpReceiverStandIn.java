@@ -0,0 +1,191 @@
+/*
+  UdpReceiverStandIn.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Localhost stand-in for the UDP receiver of the Glow Worm Luciferin firmware.
+ * Datagrams are reassembled by offset into the frame of their sequence number, a frame is complete when every LED
+ * has been received. Datagrams older than the last complete frame are dropped, as the device does.
+ */
+public class UdpReceiverStandIn implements AutoCloseable {
+
+    private final DatagramSocket socket;
+    private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+    private volatile int staleDatagrams;
+    private volatile int invalidDatagrams;
+
+    /**
+     * A complete frame
+     */
+    public static class Frame {
+
+        public final int sequence;
+        public final int[] strip;
+        public final int datagrams;
+        // System.nanoTime() when the last datagram of the frame was read
+        public final long receiveTime;
+
+        /**
+         * Constructor
+         * @param sequence sequence number
+         * @param strip colors in strip order, packed as 0xRRGGBB
+         * @param datagrams datagrams the frame was split in
+         * @param receiveTime System.nanoTime() when the frame was completed
+         */
+        Frame(int sequence, int[] strip, int datagrams, long receiveTime) {
+
+            this.sequence = sequence;
+            this.strip = strip;
+            this.datagrams = datagrams;
+            this.receiveTime = receiveTime;
+
+        }
+
+    }
+
+    /**
+     * Listen on a free port of the loopback interface
+     * @throws IOException can't bind
+     */
+    public UdpReceiverStandIn() throws IOException {
+
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread thread = new Thread(this::receive, "UdpReceiverStandIn");
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    /**
+     * Port to send to
+     * @return local port
+     */
+    public int getPort() {
+
+        return socket.getLocalPort();
+
+    }
+
+    /**
+     * Complete frames, in the order they were completed
+     * @return complete frames
+     */
+    public BlockingQueue<Frame> getFrames() {
+
+        return frames;
+
+    }
+
+    /**
+     * Datagrams dropped because a newer frame was already complete
+     * @return stale datagrams
+     */
+    public int getStaleDatagrams() {
+
+        return staleDatagrams;
+
+    }
+
+    /**
+     * Datagrams with a bad marker, a bad length or LEDs outside of the strip
+     * @return invalid datagrams
+     */
+    public int getInvalidDatagrams() {
+
+        return invalidDatagrams;
+
+    }
+
+    /**
+     * Read datagrams until the socket is closed
+     */
+    private void receive() {
+
+        byte[] buffer = new byte[65536];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        int lastComplete = -1;
+        int sequence = -1;
+        int[] strip = new int[0];
+        int receivedLeds = 0;
+        int datagrams = 0;
+        try {
+            while (true) {
+                datagram.setLength(buffer.length);
+                socket.receive(datagram);
+                int length = datagram.getLength();
+                int ledCount = ((buffer[3] & 0xFF) << 8) | (buffer[4] & 0xFF);
+                int offset = ((buffer[5] & 0xFF) << 8) | (buffer[6] & 0xFF);
+                int datagramLeds = (length - UdpSink.HEADER_SIZE) / 3;
+                if (length < UdpSink.HEADER_SIZE || buffer[0] != UdpSink.UDP_STREAM_MARKER
+                        || (length - UdpSink.HEADER_SIZE) % 3 != 0 || offset + datagramLeds > ledCount) {
+                    invalidDatagrams++;
+                    continue;
+                }
+                int datagramSequence = ((buffer[1] & 0xFF) << 8) | (buffer[2] & 0xFF);
+                // 16 bit sequence, half of the range is considered older
+                if (lastComplete >= 0 && ((datagramSequence - lastComplete) & 0xFFFF) - 1 >= 0x7FFF) {
+                    staleDatagrams++;
+                    continue;
+                }
+                if (datagramSequence != sequence || strip.length != ledCount) {
+                    sequence = datagramSequence;
+                    strip = new int[ledCount];
+                    receivedLeds = 0;
+                    datagrams = 0;
+                }
+                for (int i = 0; i < datagramLeds; i++) {
+                    int j = UdpSink.HEADER_SIZE + (i * 3);
+                    strip[offset + i] = ((buffer[j] & 0xFF) << 16) | ((buffer[j + 1] & 0xFF) << 8) | (buffer[j + 2] & 0xFF);
+                }
+                receivedLeds += datagramLeds;
+                datagrams++;
+                if (receivedLeds == ledCount) {
+                    frames.add(new Frame(sequence, strip, datagrams, System.nanoTime()));
+                    lastComplete = sequence;
+                    sequence = -1;
+                }
+            }
+        } catch (IOException e) {
+            // Stand-in closed
+        }
+
+    }
+
+    /**
+     * Stop receiving
+     */
+    @Override
+    public void close() {
+
+        socket.close();
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+  UdpSinkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.LEDOutputMap;
+import org.dpsoftware.TestUtility;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.gui.SettingsController;
+import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UDP stream sent to a localhost receiver stand-in: sequence numbers and reassembly of frames split in datagrams
+ */
+class UdpSinkTest {
+
+    private final Random random = new Random(1);
+    private UdpReceiverStandIn receiver;
+    private UdpSink udpSink;
+
+    @BeforeEach
+    void setUp() throws Exception {
+
+        receiver = new UdpReceiverStandIn();
+        Configuration config = TestUtility.initConfig();
+        config.setMqttStream(true);
+        config.setSerialPort(Constants.SERIAL_PORT_AUTO);
+        config.setUdpPort(receiver.getPort());
+        SettingsController.deviceTableData.add(new GlowWormDevice("Test device", "127.0.0.1", "", "", "", "", "", "",
+                "", "", ""));
+        udpSink = new UdpSink();
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        udpSink.close();
+        receiver.close();
+        SettingsController.deviceTableData.clear();
+
+    }
+
+    @Test
+    void framesAreReassembledByOffset() throws InterruptedException {
+
+        int ledNumber = 1000;
+        int ledsPerDatagram = (Constants.UDP_MAX_PAYLOAD - UdpSink.HEADER_SIZE) / 3;
+        int previousSequence = -1;
+        for (int frameNumber = 0; frameNumber < 5; frameNumber++) {
+            LEDFrame frame = TestUtility.randomFrame(ledNumber, random);
+            udpSink.send(frame, ledNumber);
+            UdpReceiverStandIn.Frame received = receiver.getFrames().poll(5, TimeUnit.SECONDS);
+            assertNotNull(received);
+            assertEquals((ledNumber + ledsPerDatagram - 1) / ledsPerDatagram, received.datagrams);
+            if (previousSequence >= 0) {
+                assertEquals((previousSequence + 1) & 0xFFFF, received.sequence);
+            }
+            previousSequence = received.sequence;
+            int[] outputMap = LEDOutputMap.get(ledNumber);
+            for (int i = 0; i < ledNumber; i++) {
+                assertEquals(frame.getRGB(outputMap[i]), received.strip[i], "LED " + i);
+            }
+            frame.release();
+        }
+        assertEquals(0, receiver.getInvalidDatagrams());
+        assertEquals(0, receiver.getStaleDatagrams());
+
+    }
+
+    @Test
+    void ledCountChangeResizesTheFrame() throws InterruptedException {
+
+        for (int ledNumber : new int[] {488, 489, 30}) {
+            LEDFrame frame = TestUtility.randomFrame(ledNumber, random);
+            udpSink.send(frame, ledNumber);
+            UdpReceiverStandIn.Frame received = receiver.getFrames().poll(5, TimeUnit.SECONDS);
+            assertNotNull(received);
+            assertEquals(ledNumber, received.strip.length);
+            assertEquals(ledNumber > 488 ? 2 : 1, received.datagrams);
+            assertEquals(frame.getRGB(LEDOutputMap.get(ledNumber)[ledNumber - 1]), received.strip[ledNumber - 1]);
+            frame.release();
+        }
+        assertEquals(0, receiver.getInvalidDatagrams());
+
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+  Crc16Test.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * CRC-16/CCITT-FALSE check value and incremental updates
+ */
+class Crc16Test {
+
+    @Test
+    void standardCheckValue() {
+
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, Crc16.update(Crc16.INITIAL_VALUE, data, 0, data.length));
+
+    }
+
+    @Test
+    void emptyRangeKeepsTheCrc() {
+
+        assertEquals(Crc16.INITIAL_VALUE, Crc16.update(Crc16.INITIAL_VALUE, new byte[4], 2, 0));
+
+    }
+
+    @Test
+    void incrementalUpdatesMatchOneShot() {
+
+        Random random = new Random(1);
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+        int oneShot = Crc16.update(Crc16.INITIAL_VALUE, data, 0, data.length);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            int crc = Crc16.INITIAL_VALUE;
+            int from = 0;
+            while (from < data.length) {
+                int length = Math.min(data.length - from, random.nextInt(300));
+                crc = Crc16.update(crc, data, from, length);
+                from += length;
+            }
+            assertEquals(oneShot, crc);
+        }
+
+    }
+
+}